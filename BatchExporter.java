@@ -0,0 +1,289 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+// Exports a batch of assets concurrently using the NON - PROD session of CrossProdAssetExportUtility.
+// Up to `concurrency` export jobs are in flight at once; all in-flight jobs are polled together by the
+// shared JobPoller and each finished package is downloaded to its own file. With shared dependencies, the
+// dependencies of the whole batch are resolved first: objects used by several assets are exported once into
+// a shared package that comes first, and each asset is exported with only the dependencies nobody else uses.
+// If the shared package fails, the assets that needed it are exported again with all of their dependencies.
+public class BatchExporter {
+
+    private static final String SHARED_PACKAGE = "shared_dependencies";
+
+    private final int concurrency;
+    private final Path outputDir;
+    private final ExportCache exportCache;
+
+    // State of one manifest entry as it moves through the batch
+    public static class Job {
+        private final ExportManifest.Entry entry;
+        private final Path packagePath;
+        private final List<String> objectIds;
+        private final long startNanos = System.nanoTime();
+        private volatile String cacheKey;
+        private volatile String exportId;
+        private volatile String sha256;
+        private volatile String error;
+        private volatile long elapsedNanos;
+
+        Job(ExportManifest.Entry entry, Path packagePath) {
+            this(entry, packagePath, null);
+        }
+
+        // A job exporting exactly the given objects, without their dependencies
+        Job(ExportManifest.Entry entry, Path packagePath, List<String> objectIds) {
+            this.entry = entry;
+            this.packagePath = packagePath;
+            this.objectIds = objectIds;
+        }
+
+        public ExportManifest.Entry getEntry() {
+            return entry;
+        }
+
+        public Path getPackagePath() {
+            return packagePath;
+        }
+
+        public String getExportId() {
+            return exportId;
+        }
+
+        // SHA-256 of the verified package, once downloaded
+        public String getSha256() {
+            return sha256;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public boolean isSuccessful() {
+            return error == null;
+        }
+    }
+
+    public BatchExporter(int concurrency, Path outputDir, ExportCache exportCache) {
+        this.concurrency = concurrency;
+        this.outputDir = outputDir;
+        this.exportCache = exportCache;
+    }
+
+    // Method to export every asset listed in the manifest, returning the downloaded package files.
+    // Assets with an unchanged package in the export cache (when not null) are not exported again.
+    public static List<Path> exportManifest(String manifestPath, int concurrency, String outputDir,
+            ExportCache exportCache, boolean shareDependencies) throws IOException, InterruptedException {
+        List<ExportManifest.Entry> entries = ExportManifest.read(Paths.get(manifestPath));
+        EventLog.println("Exporting " + entries.size() + " assets from manifest " + manifestPath
+                + " with up to " + concurrency + " concurrent export jobs...");
+
+        BatchExporter exporter = new BatchExporter(concurrency, Paths.get(outputDir), exportCache);
+        List<Job> jobs = shareDependencies
+                ? exporter.replaceFailedSharedPackage(entries, exporter.run(exporter.planSharedExports(entries)))
+                : exporter.exportAll(entries);
+
+        List<Path> packagePaths = new ArrayList<>();
+        int failed = 0;
+        EventLog.println("======= Batch export summary =======");
+        for (Job job : jobs) {
+            if (job.isSuccessful()) {
+                packagePaths.add(job.getPackagePath());
+                EventLog.println(String.format("  OK      %s -> %s (%.1f s)", job.getEntry(), job.getPackagePath(),
+                        job.elapsedNanos / 1_000_000_000.0));
+            } else {
+                failed++;
+                EventLog.println("  FAILED  " + job.getEntry() + ": " + job.getError());
+            }
+        }
+        EventLog.println("Exported " + packagePaths.size() + " of " + jobs.size() + " assets, " + failed + " failed.");
+        return packagePaths;
+    }
+
+    // Method to run the export, poll and download steps for all entries
+    public List<Job> exportAll(List<ExportManifest.Entry> entries) throws IOException, InterruptedException {
+        List<Job> jobs = new ArrayList<>();
+        Set<String> usedNames = new HashSet<>();
+        for (ExportManifest.Entry entry : entries) {
+            jobs.add(new Job(entry, outputDir.resolve(packageFileName(entry, usedNames))));
+        }
+        return run(jobs);
+    }
+
+    // Method to resolve the dependencies of the batch and plan one export of the shared dependencies plus
+    // one export per asset with only its own dependencies. Also writes dependency_report.csv.
+    public List<Job> planSharedExports(List<ExportManifest.Entry> entries) throws IOException, InterruptedException {
+        Files.createDirectories(outputDir);
+        DependencyResolver.Resolution resolution = new DependencyResolver(CrossProdAssetExportUtility.nonProdSession(),
+                concurrency).resolve(entries);
+        DependencyResolver.printReport(resolution);
+        DependencyResolver.writeReport(resolution, outputDir.resolve("dependency_report.csv"));
+
+        List<Job> jobs = new ArrayList<>();
+        Set<String> usedNames = new HashSet<>();
+        List<String> sharedIds = resolution.getSharedIds();
+        if (!sharedIds.isEmpty()) {
+            ExportManifest.Entry shared = new ExportManifest.Entry(SHARED_PACKAGE, false, null);
+            jobs.add(new Job(shared, outputDir.resolve(packageFileName(shared, usedNames)), sharedIds));
+        }
+        for (ExportManifest.Entry entry : entries) {
+            if (resolution.isExportedAsShared(entry)) {
+                EventLog.println(entry + " is used by other assets of the batch and goes into the shared package.");
+                continue;
+            }
+            jobs.add(new Job(entry, outputDir.resolve(packageFileName(entry, usedNames)),
+                    resolution.getOwnIds(entry)));
+        }
+        return jobs;
+    }
+
+    // Method to check the shared package of a planned batch. When it failed, the asset packages lack the shared
+    // objects they use and would fail to import or import with broken references, so every asset exported
+    // with dependencies, or planned into the shared package, is exported again with all of its dependencies.
+    public List<Job> replaceFailedSharedPackage(List<ExportManifest.Entry> entries, List<Job> jobs)
+            throws IOException, InterruptedException {
+        Job shared = jobs.isEmpty() || !SHARED_PACKAGE.equals(jobs.get(0).getEntry().getAsset()) ? null : jobs.get(0);
+        if (shared == null || shared.isSuccessful()) {
+            return jobs;
+        }
+        EventLog.warn("export", shared.getExportId(), "The shared dependencies package failed (" + shared.getError()
+                + "); exporting the assets that need it with their own dependencies instead.");
+
+        Map<ExportManifest.Entry, Job> planned = new HashMap<>();
+        Set<String> usedNames = new HashSet<>();
+        for (Job job : jobs) {
+            planned.put(job.getEntry(), job);
+            String fileName = job.getPackagePath().getFileName().toString();
+            usedNames.add(fileName.substring(0, fileName.length() - ".zip".length()));
+        }
+        List<Job> result = new ArrayList<>(Collections.singletonList(shared));
+        List<Job> again = new ArrayList<>();
+        for (ExportManifest.Entry entry : entries) {
+            Job job = planned.get(entry);
+            if (job != null && !entry.isIncludeDependencies()) {
+                result.add(job);
+            } else {
+                again.add(new Job(entry, job != null ? job.getPackagePath()
+                        : outputDir.resolve(packageFileName(entry, usedNames))));
+            }
+        }
+        result.addAll(run(again));
+        return result;
+    }
+
+    // Method to run the export, poll and download steps for the planned jobs
+    public List<Job> run(List<Job> jobs) throws IOException, InterruptedException {
+        Files.createDirectories(outputDir);
+
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        Semaphore slots = new Semaphore(concurrency);
+        CountDownLatch remaining = new CountDownLatch(jobs.size());
+
+        try {
+            // Submit the export jobs, never exceeding the concurrency limit
+            for (Job job : jobs) {
+                slots.acquire();
+                workers.execute(() -> submit(job, workers, slots, remaining));
+            }
+
+            remaining.await();
+        } finally {
+            workers.shutdownNow();
+        }
+        return jobs;
+    }
+
+    // Method to start the export job for a single entry and hand it to the shared poller
+    private void submit(Job job, ExecutorService workers, Semaphore slots, CountDownLatch remaining) {
+        try {
+            ExportManifest.Entry entry = job.getEntry();
+            if (job.objectIds != null) {
+                // Planned from resolved dependencies: export exactly these objects
+                watch(job, CrossProdAssetExportUtility.startExport(
+                        CrossProdAssetExportUtility.buildExportPayload(job.objectIds)), workers, slots, remaining);
+                return;
+            }
+            String assetId = entry.isPath()
+                    ? CrossProdAssetExportUtility.lookupAssetId(entry.getAsset(), entry.getType())
+                    : entry.getAsset();
+
+            // Reuse the package of an earlier run when the asset has not changed since
+            if (exportCache != null) {
+                job.cacheKey = CrossProdAssetExportUtility.exportCacheKey(assetId, entry.isIncludeDependencies());
+                PackageDownloader.DownloadedPackage cached = exportCache.restore(job.cacheKey, job.getPackagePath());
+                if (cached != null) {
+                    job.sha256 = cached.getSha256();
+                    finish(job, null, slots, remaining);
+                    return;
+                }
+            }
+
+            watch(job, CrossProdAssetExportUtility.startExport(
+                    CrossProdAssetExportUtility.buildExportPayload(assetId, entry.isIncludeDependencies())), workers,
+                    slots, remaining);
+        } catch (Exception e) {
+            finish(job, "Export request failed: " + e.getMessage(), slots, remaining);
+        }
+    }
+
+    // Method to hand a started export to the shared poller, which polls all in-flight exports together
+    private void watch(Job job, String exportId, ExecutorService workers, Semaphore slots,
+            CountDownLatch remaining) {
+        job.exportId = exportId;
+        CrossProdAssetExportUtility.watchExport(CrossProdAssetExportUtility.nonProdSession(), exportId)
+                .whenComplete((state, error) -> {
+                    if (error != null) {
+                        finish(job, "Status check failed: " + error.getMessage(), slots, remaining);
+                    } else if ("SUCCESSFUL".equalsIgnoreCase(state)) {
+                        workers.execute(() -> download(job, slots, remaining));
+                    } else {
+                        finish(job, "Export " + exportId + " failed.", slots, remaining);
+                    }
+                });
+    }
+
+    // Method to download the package of a finished export
+    private void download(Job job, Semaphore slots, CountDownLatch remaining) {
+        try {
+            PackageDownloader.DownloadedPackage downloaded = CrossProdAssetExportUtility
+                    .downloadExportPackage(job.exportId, job.getPackagePath());
+            job.sha256 = downloaded.getSha256();
+            if (exportCache != null) {
+                exportCache.store(job.cacheKey, downloaded);
+            }
+            finish(job, null, slots, remaining);
+        } catch (Exception e) {
+            finish(job, "Download failed: " + e.getMessage(), slots, remaining);
+        }
+    }
+
+    private void finish(Job job, String error, Semaphore slots, CountDownLatch remaining) {
+        job.error = error;
+        job.elapsedNanos = System.nanoTime() - job.startNanos;
+        slots.release();
+        remaining.countDown();
+    }
+
+    // Helper function to derive a unique package file name from the asset ID or path
+    static String packageFileName(ExportManifest.Entry entry, Set<String> usedNames) {
+        String base = "export_" + entry.getAsset().replaceAll("[^A-Za-z0-9._-]", "_");
+        String name = base;
+        for (int suffix = 2; !usedNames.add(name); suffix++) {
+            name = base + "_" + suffix;
+        }
+        return name + ".zip";
+    }
+}
@@ -1,22 +1,30 @@
-import java.io.BufferedInputStream;
-import java.io.BufferedReader;
-import java.io.FileOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
-import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 @SuppressWarnings("deprecation")
 public class CrossProdAssetExportUtility {
 
     // Global variables for server URL and session ID
+    private static String regionUrl;
     private static String serverUrl;
     private static String icSessionId;
+    private static String prodRegionUrl;
     private static String prodServerUrl;
     private static String prodIcSessionId;
     private static String username;
@@ -24,34 +32,107 @@ public class CrossProdAssetExportUtility {
     private static String prodUsername;
     private static String prodPassword;
 
+    // Command line options for the current run
+    private static RunOptions options;
+
+    // Cache of sessions from earlier runs, or null when session caching is off
+    private static SessionCache sessionCache;
+
+    // Finished export waiting to be relayed straight to production (relay mode only)
+    private static String relayExportId;
+
+    // Cache of packages from earlier runs, or null when the export cache is off
+    private static ExportCache exportCache;
+
+    // Checks packages must pass before they are uploaded, or null when packages are not inspected
+    private static PackageInspector.Rules inspectionRules;
+    private static boolean batchStatus;
+
+    // Package written by the most recent single-asset download
+    private static PackageDownloader.DownloadedPackage lastDownloadedPackage;
+
     public static void main(String[] args) {
+        // Parse the command line options
+        try {
+            options = RunOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            EventLog.println(e.getMessage());
+            return;
+        }
+        JobPoller.configureShared(options.getPollInitialMillis(), options.getPollMaxMillis());
+        batchStatus = options.isBatchStatus();
+        IicsHttpClient.configure(options.getRateLimit(), options.getMaxRetries());
+        PackageDownloader.setPreallocate(options.isPreallocate());
+        PackageDownloader.configureBuffers(Math.max(options.getExportConcurrency(), options.getOrgConcurrency()));
+        try {
+            EventLog.configure(options.getLogLevel(), options.isLogJson(), options.getLogFile());
+        } catch (IOException e) {
+            EventLog.println("Could not open log file " + options.getLogFile() + ": " + e.getMessage());
+            return;
+        }
+        try {
+            ImportResults.configure(options.getImportReportDir(), options.isImportReportJson());
+        } catch (IOException e) {
+            EventLog.println("Could not create import report directory " + options.getImportReportDir() + ": "
+                    + e.getMessage());
+            return;
+        }
+        if (options.isInspect()) {
+            try {
+                inspectionRules = options.getInspectRulesFile() != null
+                        ? PackageInspector.Rules.load(options.getInspectRulesFile())
+                        : PackageInspector.Rules.defaults();
+            } catch (IOException | IllegalArgumentException e) {
+                EventLog.println("Could not read package rules " + options.getInspectRulesFile() + ": "
+                        + e.getMessage());
+                return;
+            }
+        }
+        if (options.isCacheSessions()) {
+            sessionCache = SessionCache.load(options.getSessionCacheFile());
+        }
+        if (options.isExportCache()) {
+            exportCache = ExportCache.open(options.getExportCacheDir(), options.getExportCacheMaxBytes());
+        }
+
         // Welcome message
-        System.out.println("======= Welcome to the CrossProd Asset Export Utility =======");
-        System.out.println(
+        EventLog.println("======= Welcome to the CrossProd Asset Export Utility =======");
+        EventLog.println(
                 "======= Please provide the necessary details for authentication into NON - PROD Environment =======");
 
         // Create Scanner to get user input
         Scanner scanner = new Scanner(System.in);
 
         // Get the region URL from the user
-        System.out.print("Enter Region URL (e.g., dm-us.informaticacloud.com): ");
-        String regionUrl = scanner.nextLine();
+        EventLog.print("Enter Region URL (e.g., dm-us.informaticacloud.com): ");
+        regionUrl = scanner.nextLine();
 
         // Get the credentials from the user
-        System.out.print("Enter Username: ");
+        EventLog.print("Enter Username: ");
         username = scanner.nextLine();
 
-        System.out.print("Enter Password: ");
+        // Reuse a cached session when one is still valid, skipping the login call
+        if (sessionCache != null) {
+            OrgSession cachedSession = sessionCache.lookup(regionUrl, username);
+            if (cachedSession != null) {
+                serverUrl = cachedSession.getServerUrl();
+                icSessionId = cachedSession.getIcSessionId();
+                runPromotion(scanner);
+                return;
+            }
+        }
+
+        EventLog.print("Enter Password: ");
         password = scanner.nextLine();
 
         // Status message for parsing input
-        System.out.println("Parsing input credentials...");
+        EventLog.println("Parsing input credentials...");
 
         // Prepare the JSON payload
         String jsonPayload = "{ \"username\": \"" + username + "\", \"password\": \"" + password + "\" }";
 
         // Status message for sending request
-        System.out.println("Sending login request to Informatica Cloud...");
+        EventLog.println("Sending login request to Informatica Cloud...");
 
         // Send the login request and store session details
         sendLoginRequest(regionUrl, jsonPayload, scanner);
@@ -59,68 +140,187 @@ public class CrossProdAssetExportUtility {
 
     public static void sendLoginRequest(String regionUrl, String jsonPayload, Scanner scanner) {
         try {
-            // Build the URL for the POST request
-            URL url = new URL("https://" + regionUrl + "/ma/api/v2/user/login");
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-
-            // Set request method to POST
-            connection.setRequestMethod("POST");
-            connection.setRequestProperty("Content-Type", "application/json");
-            connection.setDoOutput(true);
-
-            // Send the JSON payload
-            try (OutputStream os = connection.getOutputStream()) {
-                byte[] input = jsonPayload.getBytes("utf-8");
-                os.write(input, 0, input.length);
-            }
-
-            // Read the response
-            int responseCode = connection.getResponseCode();
-            System.out.println("Processing response...");
-
-            if (responseCode != HttpURLConnection.HTTP_OK) {
-                throw new RuntimeException("Failed to log in. HTTP Error Code: " + responseCode);
-            }
-
-            // Get response body
-            StringBuilder responseBody = new StringBuilder();
-            try (BufferedReader br = new BufferedReader(new InputStreamReader(connection.getInputStream(), "utf-8"))) {
-                String responseLine;
-                while ((responseLine = br.readLine()) != null) {
-                    responseBody.append(responseLine.trim());
-                }
+            // Send the login request to the region's login endpoint
+            long start = System.nanoTime();
+            IicsHttpClient.Response response = IicsHttpClient.forRegion(regionUrl)
+                    .sendForFields("POST", "/ma/api/v2/user/login", null, jsonPayload, "serverUrl", "icSessionId");
+            EventLog.println("Processing response...");
+
+            if (!response.isOk()) {
+                throw new RuntimeException("Failed to log in. HTTP Error Code: " + response.getCode());
             }
 
-            // Manually parse the JSON response as a String
-            String response = responseBody.toString();
+            Metrics.recordPhase("login", System.nanoTime() - start);
 
             // Extract serverUrl
-            serverUrl = extractValue(response, "serverUrl");
+            serverUrl = response.getField("serverUrl");
 
             // Extract icSessionId
-            icSessionId = extractValue(response, "icSessionId");
+            icSessionId = response.getField("icSessionId");
 
             // Status messages
-            System.out.println("Getting server URL: " + serverUrl);
-            System.out.println("Generating Session ID: " + icSessionId);
+            EventLog.println("Getting server URL: " + serverUrl);
+            EventLog.println("Generating Session ID: " + EventLog.secret(icSessionId));
 
             // Final status message
-            System.out.println("Login process completed successfully.");
+            EventLog.println("Login process completed successfully.");
 
-            // Proceed with asset export
-            exportAsset(scanner);
+            // Keep the session for later runs
+            if (sessionCache != null) {
+                sessionCache.store(new OrgSession(regionUrl, username, serverUrl, icSessionId));
+            }
+
+        } catch (Exception e) {
+            // Error handling
+            EventLog.println("An error occurred: " + e.getMessage());
+            e.printStackTrace();
+            return;
+        }
 
-            // After export, handle import into production org
-            handleImportToProdOrg(scanner);
+        runPromotion(scanner);
+    }
+
+    // Method to export the requested assets and import them into the production org
+    public static void runPromotion(Scanner scanner) {
+        try {
+            if (options.isDaemon()) {
+                // Keep the sessions warm and take promotion requests over HTTP until told to stop
+                runDaemon(scanner);
+            } else if (options.isPipeline()) {
+                // Promote each manifest asset as its own task, importing as soon as its export is done
+                runPipeline(scanner);
+            } else if (options.getManifestPath() != null) {
+                // Export every asset listed in the manifest concurrently, then import the packages
+                List<Path> packagePaths = BatchExporter.exportManifest(options.getManifestPath(),
+                        options.getExportConcurrency(), options.getOutputDir(), exportCache,
+                        options.isShareDependencies());
+                if (packagePaths.isEmpty()) {
+                    throw new RuntimeException("No packages were exported from manifest " + options.getManifestPath());
+                }
+                if (options.isMerge() && packagePaths.size() > 1) {
+                    // Import all assets with one upload and one import job
+                    Path merged = Paths.get(options.getOutputDir(), "merged_export_package.zip");
+                    packagePaths = Collections.singletonList(PackageMerger.merge(packagePaths, merged).getTarget());
+                }
+                handleImportToProdOrg(packagePaths, scanner);
+            } else {
+                // Proceed with asset export
+                exportAsset(scanner);
+
+                // After export, handle import into production org
+                handleImportToProdOrg(scanner);
+            }
+
+            // Report how long each export and import job took to finish
+            JobPoller.shared().printTimings();
+            IicsHttpClient.printStats();
+            if (exportCache != null) {
+                exportCache.printStats();
+            }
+            Metrics.printSummary();
+            if (options.getMetricsDir() != null) {
+                Metrics.writeReports(options.getMetricsDir());
+            }
 
         } catch (Exception e) {
             // Error handling
-            System.out.println("An error occurred: " + e.getMessage());
+            EventLog.println("An error occurred: " + e.getMessage());
             e.printStackTrace();
         }
     }
 
-    // Helper function to extract values from the JSON response string
+    // Method to promote every manifest asset independently on the promotion engine
+    public static void runPipeline(Scanner scanner) throws IOException, InterruptedException {
+        List<ExportManifest.Entry> entries = ExportManifest.read(Paths.get(options.getManifestPath()));
+        connectToProdOrg(scanner);
+        if (prodIcSessionId == null) {
+            throw new RuntimeException("Not logged in to the production org.");
+        }
+
+        PromotionJournal journal = options.getJournalFile() != null
+                ? PromotionJournal.open(options.getJournalFile())
+                : null;
+        PromotionEngine engine = new PromotionEngine(options.getOrgConcurrency(), exportCache, journal);
+        try {
+            List<PromotionEngine.Promotion> promotions = PromotionEngine.plan(entries, nonProdSession(), prodSession(),
+                    Paths.get(options.getOutputDir()));
+            int failed = PromotionEngine.printSummary(engine.runAll(promotions));
+            if (journal != null && failed == 0) {
+                // Everything went through; the next run with this journal starts fresh
+                journal.complete();
+            }
+        } finally {
+            engine.shutdown();
+            if (journal != null) {
+                journal.close();
+            }
+            closeSessions();
+        }
+    }
+
+    // Method to serve promotion requests from the NON - PROD org into the production org, or into every org of
+    // the targets file, until the daemon is shut down
+    public static void runDaemon(Scanner scanner) throws IOException, InterruptedException {
+        List<PromotionDaemon.WarmOrg> targets = new ArrayList<>();
+        if (options.getTargetsPath() != null) {
+            for (FanOutImporter.Target target : FanOutImporter.readTargets(Paths.get(options.getTargetsPath()))) {
+                OrgSession session = sessionCache != null
+                        ? sessionCache.lookup(target.getRegionUrl(), target.getUsername())
+                        : null;
+                String targetPassword = target.getPassword();
+                if (session == null) {
+                    if (targetPassword == null) {
+                        EventLog.print("Enter Password for " + target + ": ");
+                        targetPassword = scanner.nextLine();
+                    }
+                    session = loginToOrg(target.getRegionUrl(), target.getUsername(),
+                            buildLoginPayload(target.getUsername(), targetPassword));
+                }
+                targets.add(new PromotionDaemon.WarmOrg(target.toString(), session, targetPassword));
+            }
+        } else {
+            connectToProdOrg(scanner);
+            if (prodIcSessionId == null) {
+                throw new RuntimeException("Not logged in to the production org.");
+            }
+            targets.add(new PromotionDaemon.WarmOrg("prod", prodSession(), prodPassword));
+        }
+
+        Path tokenFile = options.getDaemonTokenFile() != null ? options.getDaemonTokenFile()
+                : PromotionDaemon.defaultTokenFile();
+        PromotionDaemon daemon = new PromotionDaemon(new PromotionDaemon.WarmOrg("nonprod", nonProdSession(), password),
+                targets, Paths.get(options.getOutputDir()), options.isDaemonKeepPackages(), options.getDaemonPort(),
+                options.getDaemonJobs(), options.getDaemonQueue(), options.getOrgConcurrency(), exportCache,
+                tokenFile);
+        // On Ctrl-C, give the running jobs a minute to finish and the sessions a chance to be closed
+        CountDownLatch stopped = new CountDownLatch(1);
+        Thread stopOnExit = new Thread(() -> {
+            daemon.requestShutdown();
+            try {
+                stopped.await(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "daemon-stop");
+        Runtime.getRuntime().addShutdownHook(stopOnExit);
+        try {
+            daemon.start();
+            daemon.awaitShutdown();
+            EventLog.println("Stopping the promotion daemon...");
+        } finally {
+            daemon.stop();
+            daemon.closeSessions(sessionCache);
+            stopped.countDown();
+            try {
+                Runtime.getRuntime().removeShutdownHook(stopOnExit);
+            } catch (IllegalStateException e) {
+                // The JVM is already shutting down
+            }
+        }
+    }
+
+    // Helper function to extract values from the JSON response string.
+    // Superseded by JsonPullReader, which reads fields by their full path; kept for callers of this class.
     public static String extractValue(String jsonString, String key) {
         String keyWithQuotes = "\"" + key + "\":";
         int startIndex = jsonString.indexOf(keyWithQuotes);
@@ -137,602 +337,780 @@ public class CrossProdAssetExportUtility {
 
     // Method to ask for asset ID and dependencies, and start export process
     public static void exportAsset(Scanner scanner) {
-        System.out.println("Proceeding with asset export...");
+        EventLog.println("Proceeding with asset export...");
 
         // Ask user for the asset ID to export
-        System.out.print("Enter Asset ID to export: ");
+        EventLog.print("Enter Asset ID to export: ");
         String assetId = scanner.nextLine();
 
         // Ask user whether to include dependencies (y/n)
-        System.out.print("Include dependencies? (y/n): ");
+        EventLog.print("Include dependencies? (y/n): ");
         String includeDependenciesInput = scanner.nextLine();
         boolean includeDependencies = includeDependenciesInput.equalsIgnoreCase("y");
 
         // Build the export request
-        String jsonPayload = "{ \"name\": \"UtilityExport\", " +
+        String jsonPayload = buildExportPayload(assetId, includeDependencies);
+
+        // Reuse the package of an earlier run when the asset has not changed since
+        String cacheKey = null;
+        if (exportCache != null) {
+            try {
+                cacheKey = exportCacheKey(assetId, includeDependencies);
+                if (exportCache.restore(cacheKey, Paths.get("export_package.zip")) != null) {
+                    return;
+                }
+            } catch (Exception e) {
+                EventLog.println("Export cache is not available for asset " + assetId + ": " + e.getMessage());
+            }
+        }
+
+        // Send the export request
+        lastDownloadedPackage = null;
+        sendExportRequest(jsonPayload, scanner);
+
+        // Keep the fresh package for later runs
+        if (exportCache != null && lastDownloadedPackage != null) {
+            exportCache.store(cacheKey, lastDownloadedPackage);
+        }
+    }
+
+    // Helper function to build the export request payload for a single asset
+    public static String buildExportPayload(String assetId, boolean includeDependencies) {
+        return "{ \"name\": \"UtilityExport\", " +
                 "\"objects\": [{ " +
                 "\"id\": \"" + assetId + "\", " +
                 "\"includeDependencies\": " + includeDependencies + " }] }";
+    }
 
-        // Send the export request
-        sendExportRequest(jsonPayload, scanner);
+    // Helper function to build the export request payload for several objects, each without its dependencies
+    public static String buildExportPayload(List<String> objectIds) {
+        StringBuilder objects = new StringBuilder();
+        for (String objectId : objectIds) {
+            objects.append(objects.length() > 0 ? ", " : "")
+                    .append("{ \"id\": \"").append(objectId).append("\", \"includeDependencies\": false }");
+        }
+        return "{ \"name\": \"UtilityExport\", \"objects\": [" + objects + "] }";
     }
 
     // Method to download the export package as a zip file
     public static void downloadExportPackage(String exportId) {
-        HttpURLConnection connection = null;
-        BufferedInputStream in = null;
-        FileOutputStream fileOutputStream = null;
-
         try {
-            // Build the URL for the GET request
-            URL url = new URL(serverUrl + "/public/core/v3/export/" + exportId + "/package");
-            connection = (HttpURLConnection) url.openConnection();
-            
-            // Set request method to GET
-            connection.setRequestMethod("GET");
-            connection.setRequestProperty("INFA-SESSION-ID", icSessionId);
-            connection.setDoInput(true);
-
-            // Send the request
-            connection.connect();
-
-            // Check if the response code is 200
-            int responseCode = connection.getResponseCode();
-            System.out.println("Downloading export package...");
-            
-            if (responseCode != HttpURLConnection.HTTP_OK) {
-                throw new RuntimeException("Failed to download export package. HTTP Error Code: " + responseCode);
-            }
-
-            // Read the response as a byte stream
-            in = new BufferedInputStream(connection.getInputStream());
-            java.nio.file.Path path = java.nio.file.Paths.get("export_package.zip");
-            fileOutputStream = new FileOutputStream(path.toFile());
-
-            byte[] buffer = new byte[1024];
-            int bytesRead;
-            while ((bytesRead = in.read(buffer)) != -1) {
-                fileOutputStream.write(buffer, 0, bytesRead);
-            }
-
-            System.out.println("Export package downloaded successfully as 'export_package.zip'.");
-
+            lastDownloadedPackage = downloadExportPackage(exportId, Paths.get("export_package.zip"));
         } catch (IOException e) {
             // Error handling status
-            System.out.println("An error occurred while downloading the export package: " + e.getMessage());
+            EventLog.println("An error occurred while downloading the export package: " + e.getMessage());
             e.printStackTrace();
-        } finally {
-            // Clean up resources
-            try {
-                if (in != null) in.close();
-                if (fileOutputStream != null) fileOutputStream.close();
-            } catch (IOException e) {
-                System.out.println("An error occurred while closing resources: " + e.getMessage());
-            }
-            if (connection != null) connection.disconnect();
         }
     }
 
+    // Method to build the export cache key for an asset from its current state in the NON - PROD org
+    public static String exportCacheKey(String assetId, boolean includeDependencies) throws IOException {
+        return exportCache.keyFor(serverUrl, icSessionId, assetId, includeDependencies);
+    }
+
+    // Method to download the export package of the given export job to the given file.
+    // The download resumes after connection drops and the result is verified and hashed before it is renamed
+    // into place.
+    public static PackageDownloader.DownloadedPackage downloadExportPackage(String exportId, Path path)
+            throws IOException {
+        return downloadExportPackage(nonProdSession(), exportId, path);
+    }
+
+    // Method to download the export package of an export job in the given org to the given file
+    public static PackageDownloader.DownloadedPackage downloadExportPackage(OrgSession source, String exportId,
+            Path path) throws IOException {
+        EventLog.info("download", exportId, "Downloading export package...");
+        PackageDownloader.DownloadedPackage downloaded = PackageDownloader.download(source.getServerUrl(),
+                source.getIcSessionId(), exportId, path);
+        EventLog.info("download", exportId, "Export package downloaded successfully as '" + path + "'.");
+        return downloaded;
+    }
+
     // Method to check export status by calling
-    @SuppressWarnings("resource")
     public static void checkExportStatus(String exportId, Scanner scanner) {
-        HttpURLConnection connection = null;
-        BufferedReader reader = null;
-
         try {
-            // Build the URL for the GET request
-            URL url = new URL(serverUrl + "/public/core/v3/export/" + exportId);
-            connection = (HttpURLConnection) url.openConnection();
-            
-            // Set request method to GET
-            connection.setRequestMethod("GET");
-            connection.setRequestProperty("INFA-SESSION-ID", icSessionId);
-            connection.setDoInput(true);
-
-            System.out.println("Checking export status...");
-
-            while (true) {
-                // Send the request
-                connection.connect();
-
-                // Get response code
-                int responseCode = connection.getResponseCode();
-                
-                if (responseCode != HttpURLConnection.HTTP_OK) {
-                    throw new RuntimeException("Failed to check export status. HTTP Error Code: " + responseCode);
-                }
+            EventLog.println("Checking export status...");
 
-                // Read the response
-                reader = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-                StringBuilder responseBody = new StringBuilder();
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    responseBody.append(line);
-                }
+            // Poll the export job on the shared poller until it reaches a final state
+            String state = watchExport(nonProdSession(), exportId).get();
 
-                // Extract the status from the response
-                String responseStr = responseBody.toString();
-                String status = extractValue(responseStr, "status");
-                String state = extractValue(responseStr, "state");
-
-                if ("SUCCESSFUL".equalsIgnoreCase(state)) {
-                    System.out.println("Export successful!");
+            if ("SUCCESSFUL".equalsIgnoreCase(state)) {
+                EventLog.println("Export successful!");
 
+                if (options.isRelay()) {
+                    // The package is streamed to production once the production session is ready
+                    EventLog.println("Export package will be relayed straight to production.");
+                    relayExportId = exportId;
+                } else {
                     // Download the export package
                     downloadExportPackage(exportId);
-                    break;
-                } else if ("FAILED".equalsIgnoreCase(state)) {
-                    throw new RuntimeException("Export failed.");
-                } else {
-                    // Status is still pending, wait for a while before checking again
-                    System.out.println("Export is in progress. Current status: " + status);
-                    Thread.sleep(5000); // Wait for 5 seconds before checking again
                 }
+            } else {
+                throw new RuntimeException("Export failed.");
             }
 
+        } catch (ExecutionException e) {
+            // Error handling status
+            EventLog.println("An error occurred while checking export status: " + e.getCause().getMessage());
+            e.getCause().printStackTrace();
         } catch (Exception e) {
             // Error handling status
-            System.out.println("An error occurred while checking export status: " + e.getMessage());
+            EventLog.println("An error occurred while checking export status: " + e.getMessage());
             e.printStackTrace();
-        } finally {
-            // Clean up resources
-            try {
-                if (reader != null) reader.close();
-            } catch (Exception e) {
-                System.out.println("An error occurred while closing resources: " + e.getMessage());
-            }
-            if (connection != null) connection.disconnect();
         }
     }
 
+    // Method to fetch the current state of an export job, e.g. IN_PROGRESS or SUCCESSFUL
+    public static String fetchExportState(String exportId) throws IOException {
+        return fetchExportState(nonProdSession(), exportId);
+    }
+
+    // Method to fetch the current state of an export job in the given org
+    public static String fetchExportState(OrgSession source, String exportId) throws IOException {
+        IicsHttpClient.Response response = IicsHttpClient.forServer(source.getServerUrl())
+                .sendForFields("GET", "/public/core/v3/export/" + exportId, source.getIcSessionId(), null,
+                        "status.state");
+
+        if (!response.isOk()) {
+            throw new RuntimeException("Failed to check export status. HTTP Error Code: " + response.getCode());
+        }
+        return response.getField("status.state");
+    }
+
+    // Method to watch an export job on the shared poller, checked together with the other exports of the org
+    public static CompletableFuture<String> watchExport(OrgSession source, String exportId) {
+        return JobPoller.shared().watch("Export " + exportId, jobGroup("export", source), exportId,
+                batchStatus ? jobIds -> fetchJobStates(source, "export", jobIds) : null,
+                () -> fetchExportState(source, exportId));
+    }
+
     // Method to send the export request to Informatica Cloud
     public static void sendExportRequest(String jsonPayload, Scanner scanner) {
-        HttpURLConnection connection = null;
-        BufferedReader reader = null;
-        OutputStream outputStream = null;
-
         try {
-            // Build the URL for the POST request
-            URL url = new URL(serverUrl + "/public/core/v3/export");
-            connection = (HttpURLConnection) url.openConnection();
-            
-            // Set request method to POST
-            connection.setRequestMethod("POST");
-            connection.setRequestProperty("Content-Type", "application/json");
-            connection.setRequestProperty("INFA-SESSION-ID", icSessionId);
-            connection.setDoOutput(true);
+            String exportId = startExport(jsonPayload);
+
+            // Check the export status
+            checkExportStatus(exportId, scanner);
 
-            // Send the JSON payload
-            outputStream = connection.getOutputStream();
-            byte[] input = jsonPayload.getBytes("utf-8");
-            outputStream.write(input, 0, input.length);
+        } catch (Exception e) {
+            // Error handling
+            EventLog.println("An error occurred during export: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
 
-            // Read the response
-            int responseCode = connection.getResponseCode();
-            System.out.println("Processing export response...");
+    // Method to submit an export job, returning its export ID
+    public static String startExport(String jsonPayload) throws IOException {
+        return startExport(nonProdSession(), jsonPayload);
+    }
 
-            if (responseCode != HttpURLConnection.HTTP_OK) {
-                throw new RuntimeException("Failed to start export. HTTP Error Code: " + responseCode);
-            }
+    // Method to submit an export job in the given org, returning its export ID
+    public static String startExport(OrgSession source, String jsonPayload) throws IOException {
+        IicsHttpClient.Response response = IicsHttpClient.forServer(source.getServerUrl())
+                .sendForFields("POST", "/public/core/v3/export", source.getIcSessionId(), jsonPayload, "id");
+        if (!response.isOk()) {
+            throw new RuntimeException("Failed to start export. HTTP Error Code: " + response.getCode());
+        }
 
-            reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), "utf-8"));
-            StringBuilder responseBody = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                responseBody.append(line);
+        // Extract the export ID from the response
+        String exportId = response.getField("id");
+        EventLog.info("export", exportId, "Export started successfully. Export ID: " + exportId);
+        return exportId;
+    }
+
+    // Method to resolve an asset path (e.g. Default/Mapping1) and type to its asset ID
+    public static String lookupAssetId(String assetPath, String assetType) throws IOException {
+        return lookupAssetId(nonProdSession(), assetPath, assetType);
+    }
+
+    // Method to resolve an asset path and type to its asset ID in the given org
+    public static String lookupAssetId(OrgSession source, String assetPath, String assetType) throws IOException {
+        String jsonPayload = "{ \"objects\": [{ \"path\": \"" + assetPath + "\", \"type\": \"" + assetType
+                + "\" }] }";
+        IicsHttpClient.Response response = IicsHttpClient.forServer(source.getServerUrl())
+                .sendForFields("POST", "/public/core/v3/lookup", source.getIcSessionId(), jsonPayload,
+                        "objects[0].id");
+
+        if (!response.isOk()) {
+            throw new RuntimeException("Failed to look up asset " + assetPath + ". HTTP Error Code: "
+                    + response.getCode());
+        }
+
+        String assetId = response.getField("objects[0].id");
+        if (assetId == null) {
+            throw new RuntimeException("Asset not found: " + assetPath + " (" + assetType + ")");
+        }
+        return assetId;
+    }
+
+    // Method to handle the import process into the production org
+    public static void handleImportToProdOrg(Scanner scanner) {
+        handleImportToProdOrg(Collections.singletonList(Paths.get("export_package.zip")), scanner);
+    }
+
+    // Method to import the given packages, in order, into the production org
+    public static void handleImportToProdOrg(List<Path> packagePaths, Scanner scanner) {
+        if (options.getTargetsPath() != null) {
+            importToTargetOrgs(packagePaths, scanner);
+            return;
+        }
+
+        EventLog.println("======= Initiating import to production organization =======");
+        connectToProdOrg(scanner);
+
+        if (relayExportId != null) {
+            // Stream the package from the non-production export into the production import
+            relayExportedPackageToProd(relayExportId, scanner);
+        } else {
+            // Upload each exported package to production, or only its changes in differential mode
+            PromotionFingerprint fingerprint = options.isDiff() ? loadFingerprint() : null;
+            for (Path packagePath : packagePaths) {
+                if (fingerprint != null) {
+                    importChangedObjects(packagePath, fingerprint, scanner);
+                } else if (isOversized(packagePath)) {
+                    importInShards(packagePath);
+                } else {
+                    uploadExportedPackageToProd(packagePath, scanner);
+                }
             }
+        }
 
-            // Extract the export ID from the response
-            String responseStr = responseBody.toString();
-            String exportId = extractValue(responseStr, "id");
-            System.out.println("Export started successfully. Export ID: " + exportId);
+        closeSessions();
+    }
 
-            // Check the export status
-            checkExportStatus(exportId, scanner);
+    // Helper function to check whether a package is over the --shard-max-mb limit
+    private static boolean isOversized(Path packagePath) {
+        try {
+            return options.getShardMaxBytes() > 0 && Files.size(packagePath) > options.getShardMaxBytes();
+        } catch (IOException e) {
+            // A missing package is reported by the regular upload
+            return false;
+        }
+    }
 
+    // Method to import a large package as several dependency-ordered import jobs
+    public static void importInShards(Path packagePath) {
+        try {
+            verifyPackage(packagePath);
+            EventLog.println("Package " + packagePath.getFileName() + " is over "
+                    + options.getShardMaxBytes() / (1024 * 1024) + " MB, importing it in shards...");
+            ShardedImporter importer = new ShardedImporter(options.getShardConcurrency(), options.getShardRetries());
+            if (!importer.importPackage(prodSession(), packagePath, options.getShardMaxBytes())) {
+                EventLog.println("Not every shard of " + packagePath.getFileName() + " was imported.");
+            }
         } catch (Exception e) {
             // Error handling
-            System.out.println("An error occurred during export: " + e.getMessage());
+            EventLog.println("An error occurred while importing " + packagePath + " in shards: " + e.getMessage());
             e.printStackTrace();
-        } finally {
-            // Clean up resources
-            try {
-                if (outputStream != null) outputStream.close();
-                if (reader != null) reader.close();
-            } catch (Exception e) {
-                System.out.println("An error occurred while closing resources: " + e.getMessage());
-            }
-            if (connection != null) connection.disconnect();
         }
     }
 
-    // Method to handle the import process into the production org
-    public static void handleImportToProdOrg(Scanner scanner) {
-        System.out.println(
+    // Method to ask for the production org details and log in, unless a cached session can be reused
+    public static void connectToProdOrg(Scanner scanner) {
+        EventLog.println(
                 "======= Please provide the necessary details for authentication into PROD Environment =======");
-        System.out.println("======= Initiating import to production organization =======");
 
         // Prompt for production credentials
-        System.out.print("Enter Production Region URL: ");
-        String prodRegionUrl = scanner.nextLine();
+        EventLog.print("Enter Production Region URL: ");
+        prodRegionUrl = scanner.nextLine();
 
-        System.out.print("Enter Production Username: ");
+        EventLog.print("Enter Production Username: ");
         prodUsername = scanner.nextLine();
 
-        System.out.print("Enter Production Password: ");
-        prodPassword = scanner.nextLine();
-
-        // Prepare the login payload for the production org
-        String prodLoginPayload = "{ \"username\": \"" + prodUsername + "\", \"password\": \"" + prodPassword + "\" }";
+        // Reuse a cached production session when one is still valid
+        OrgSession cachedSession = sessionCache != null ? sessionCache.lookup(prodRegionUrl, prodUsername) : null;
+        if (cachedSession != null) {
+            prodServerUrl = cachedSession.getServerUrl();
+            prodIcSessionId = cachedSession.getIcSessionId();
+        } else {
+            EventLog.print("Enter Production Password: ");
+            prodPassword = scanner.nextLine();
 
-        // Log in to production org
-        sendProdLoginRequest(prodRegionUrl, prodLoginPayload, scanner);
+            // Prepare the login payload for the production org
+            String prodLoginPayload = buildLoginPayload(prodUsername, prodPassword);
 
-        // Upload the exported package to production
-        uploadExportedPackageToProd(scanner);
+            // Log in to production org
+            sendProdLoginRequest(prodRegionUrl, prodLoginPayload, scanner);
+        }
     }
 
-    // Method to log in to the production org
-    public static void sendProdLoginRequest(String regionUrl, String jsonPayload, Scanner scanner) {
-        HttpURLConnection connection = null;
-        BufferedReader reader = null;
-        OutputStream outputStream = null;
+    // Method to log out of both orgs at the end of the run, or keep the sessions when they are cached
+    public static void closeSessions() {
+        // Cached sessions stay open for the next run
+        if (sessionCache != null) {
+            EventLog.println("Keeping sessions cached for the next run.");
+            sessionCache.touch(new OrgSession(regionUrl, username, serverUrl, icSessionId));
+            sessionCache.touch(new OrgSession(prodRegionUrl, prodUsername, prodServerUrl, prodIcSessionId));
+            return;
+        }
 
-        try {
-            // Build the URL for the POST request
-            URL url = new URL("https://" + regionUrl + "/ma/api/v2/user/login");
-            connection = (HttpURLConnection) url.openConnection();
-            
-            // Set request method to POST
-            connection.setRequestMethod("POST");
-            connection.setRequestProperty("Content-Type", "application/json");
-            connection.setDoOutput(true);
+        // Logout from non-production
+        if (icSessionId != null) {
+            EventLog.println("Logging out of NON - PROD Environment...");
+            logout(regionUrl, icSessionId, username, password);
+        }
 
-            // Send the JSON payload
-            outputStream = connection.getOutputStream();
-            byte[] input = jsonPayload.getBytes("utf-8");
-            outputStream.write(input, 0, input.length);
+        // Logout from production, unless the login to it never happened or failed
+        if (prodIcSessionId != null) {
+            EventLog.println("Logging out of PROD Environment...");
+            logout(prodRegionUrl, prodIcSessionId, prodUsername, prodPassword);
+        }
+    }
 
-            // Read the response
-            int responseCode = connection.getResponseCode();
+    // Method to import the given packages into every production org listed in the targets file, concurrently
+    public static void importToTargetOrgs(List<Path> packagePaths, Scanner scanner) {
+        EventLog.println("======= Initiating import to production organizations =======");
+        try {
+            List<FanOutImporter.Target> targets = FanOutImporter.readTargets(Paths.get(options.getTargetsPath()));
+            new FanOutImporter(targets, sessionCache).importAll(packagePaths, scanner);
+        } catch (Exception e) {
+            EventLog.println("An error occurred during the import to production orgs: " + e.getMessage());
+            e.printStackTrace();
+        }
 
-            if (responseCode != HttpURLConnection.HTTP_OK) {
-                throw new RuntimeException(
-                        "Failed to log in to production org. HTTP Error Code: " + responseCode);
-            }
+        // Cached sessions stay open for the next run
+        if (sessionCache != null) {
+            sessionCache.touch(new OrgSession(regionUrl, username, serverUrl, icSessionId));
+            return;
+        }
 
-            reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), "utf-8"));
-            StringBuilder responseBody = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                responseBody.append(line);
-            }
+        // Logout from non-production
+        EventLog.println("Logging out of NON - PROD Environment...");
+        logout(regionUrl, icSessionId, username, password);
+    }
 
-            // Extract serverUrl and icSessionId from the response
-            String responseStr = responseBody.toString();
-            prodServerUrl = extractValue(responseStr, "serverUrl");
-            prodIcSessionId = extractValue(responseStr, "icSessionId");
+    // Method to log in to the production org
+    public static void sendProdLoginRequest(String regionUrl, String jsonPayload, Scanner scanner) {
+        try {
+            OrgSession session = loginToOrg(regionUrl, prodUsername, jsonPayload);
+            prodServerUrl = session.getServerUrl();
+            prodIcSessionId = session.getIcSessionId();
 
-            System.out.println("Logged in to production org successfully.");
+            EventLog.println("Logged in to production org successfully.");
 
         } catch (Exception e) {
-            System.out.println("An error occurred during production login: " + e.getMessage());
+            EventLog.println("An error occurred during production login: " + e.getMessage());
             e.printStackTrace();
-        } finally {
-            // Clean up resources
-            try {
-                if (outputStream != null) outputStream.close();
-                if (reader != null) reader.close();
-            } catch (Exception e) {
-                System.out.println("An error occurred while closing resources: " + e.getMessage());
-            }
-            if (connection != null) connection.disconnect();
         }
     }
 
+    // Method to log in to any org and return its session; the session is cached when caching is on
+    public static OrgSession loginToOrg(String regionUrl, String username, String jsonPayload) throws IOException {
+        long start = System.nanoTime();
+        IicsHttpClient.Response response = IicsHttpClient.forRegion(regionUrl)
+                .sendForFields("POST", "/ma/api/v2/user/login", null, jsonPayload, "serverUrl", "icSessionId");
+
+        if (!response.isOk()) {
+            throw new RuntimeException("Failed to log in to " + regionUrl + " as " + username
+                    + ". HTTP Error Code: " + response.getCode());
+        }
+
+        // Extract serverUrl and icSessionId from the response
+        OrgSession session = new OrgSession(regionUrl, username, response.getField("serverUrl"),
+                response.getField("icSessionId"));
+        Metrics.recordPhase("login", System.nanoTime() - start);
+
+        // Keep the session for later runs
+        if (sessionCache != null) {
+            sessionCache.store(session);
+        }
+        return session;
+    }
+
+    // Helper function to build the login request payload
+    public static String buildLoginPayload(String username, String password) {
+        return "{ \"username\": \"" + username + "\", \"password\": \"" + password + "\" }";
+    }
+
     // Method to upload the exported package to the production org
     public static void uploadExportedPackageToProd(Scanner scanner) {
-        HttpURLConnection connection = null;
-        OutputStream outputStream = null;
-        BufferedReader reader = null;
+        uploadExportedPackageToProd(Paths.get("export_package.zip"), scanner);
+    }
+
+    // Method to load what production already has for differential promotion
+    public static PromotionFingerprint loadFingerprint() {
+        Path file = options.getDiffFingerprintFile() != null
+                ? options.getDiffFingerprintFile()
+                : PromotionFingerprint.defaultFile(prodRegionUrl, prodUsername);
+        PromotionFingerprint fingerprint = PromotionFingerprint.load(file);
+        if (options.getDiffBaseline() != null) {
+            try {
+                fingerprint.addBaseline(options.getDiffBaseline());
+            } catch (IOException e) {
+                EventLog.println("Could not read production baseline package " + options.getDiffBaseline() + ": "
+                        + e.getMessage());
+            }
+        }
+        EventLog.println("Comparing against " + fingerprint.size() + " objects known to be in production.");
+        return fingerprint;
+    }
 
+    // Method to import only the objects of the package that differ from what production already has
+    public static void importChangedObjects(Path packagePath, PromotionFingerprint fingerprint, Scanner scanner) {
         try {
-            // Path to the exported package file on local machine
-            Path packagePath = Paths.get("export_package.zip");
+            verifyPackage(packagePath);
+            PackageDiff.Plan plan = PackageDiff.plan(packagePath, fingerprint);
+            EventLog.println(plan.getChanged().size() + " of " + plan.getObjectCount() + " objects in " + packagePath
+                    + " differ from production.");
+            if (plan.isUnchanged()) {
+                EventLog.println("Production is up to date, skipping the import of " + packagePath + ".");
+                return;
+            }
+
+            Path uploadPath = packagePath;
+            if (!plan.isComplete()) {
+                String fileName = packagePath.getFileName().toString().replaceFirst("\\.zip$", "");
+                uploadPath = PackageDiff.writeReducedPackage(plan,
+                        packagePath.resolveSibling(fileName + "_changes.zip"));
+                EventLog.println("Importing reduced package '" + uploadPath + "' with " + plan.getKept().size()
+                        + " objects.");
+            }
 
-            // Ensure the file exists
-            if (!Files.exists(packagePath)) {
-                throw new RuntimeException("Package file not found: " + packagePath.toAbsolutePath());
+            // Remember what production has now, once the import went through
+            String state = uploadExportedPackageToProd(uploadPath, scanner);
+            if ("SUCCESSFUL".equalsIgnoreCase(state)) {
+                fingerprint.record(plan.getKeptHashes());
             }
 
-            System.out.println("Uploading export package to production...");
-            System.out.println("Using URL: " + prodServerUrl + "/public/core/v3/import/package");
-            System.out.println("Using INFA-SESSION-ID: " + prodIcSessionId);
-
-            // Create a boundary
-            String boundary = "Boundary-" + System.currentTimeMillis();
-
-            // Create the multipart body header
-            StringBuilder bodyBuilder = new StringBuilder();
-            bodyBuilder.append("--").append(boundary).append("\r\n");
-            bodyBuilder.append("Content-Disposition: form-data; name=\"package\"; filename=\"")
-                    .append(packagePath.getFileName()).append("\"\r\n");
-            bodyBuilder.append("Content-Type: application/zip\r\n\r\n");
-
-            // Convert the header part to bytes
-            byte[] bodyBytes = bodyBuilder.toString().getBytes("utf-8");
-
-            // Read the file content as bytes
-            byte[] fileBytes = Files.readAllBytes(packagePath);
-
-            // Add the closing boundary
-            String endBoundary = "\r\n--" + boundary + "--\r\n";
-            byte[] endBoundaryBytes = endBoundary.getBytes("utf-8");
-
-            // Create the final byte array with the correct size
-            byte[] finalBody = new byte[bodyBytes.length + fileBytes.length + endBoundaryBytes.length];
-
-            // Copy the header, file content, and closing boundary into the final byte array
-            System.arraycopy(bodyBytes, 0, finalBody, 0, bodyBytes.length);
-            System.arraycopy(fileBytes, 0, finalBody, bodyBytes.length, fileBytes.length);
-            System.arraycopy(endBoundaryBytes, 0, finalBody, bodyBytes.length + fileBytes.length,
-                    endBoundaryBytes.length);
-
-            // Build the HTTP request
-            URL url = new URL(prodServerUrl + "/public/core/v3/import/package");
-            connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("POST");
-            connection.setRequestProperty("INFA-SESSION-ID", prodIcSessionId);
-            connection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
+        } catch (IOException e) {
+            EventLog.println("An error occurred while comparing the package with production: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Method to upload the given package file to the production org, returning the final import state
+    public static String uploadExportedPackageToProd(Path packagePath, Scanner scanner) {
+        try {
+            verifyPackage(packagePath);
+
+            EventLog.info("upload", packagePath.getFileName().toString(), "Uploading export package to production...",
+                    "url", prodServerUrl + "/public/core/v3/import/package",
+                    "session", EventLog.secret(prodIcSessionId));
+
+            String importJobId = uploadPackage(prodSession(), packagePath);
+            EventLog.info("upload", importJobId, "Package uploaded successfully. Import Job ID: " + importJobId);
+
+            // Check the import status
+            return startUploadJob(importJobId, prodIcSessionId, scanner);
+
+        } catch (IOException e) {
+            EventLog.println("An error occurred during package upload: " + e.getMessage());
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // Method to check that a package exists and is still the one that was downloaded and verified
+    public static void verifyPackage(Path packagePath) throws IOException {
+        // Ensure the file exists
+        if (!Files.exists(packagePath)) {
+            throw new RuntimeException("Package file not found: " + packagePath.toAbsolutePath());
+        }
+
+        // Inspecting the zip index takes milliseconds, so it runs before the full SHA-256 pass
+        if (inspectionRules != null) {
+            PackageInspector.check(packagePath, inspectionRules);
+        }
+
+        String expectedSha256 = PackageDownloader.readStoredSha256(packagePath);
+        if (expectedSha256 != null && !expectedSha256.equals(PackageDownloader.sha256(packagePath))) {
+            throw new RuntimeException("Package " + packagePath + " does not match its recorded SHA-256 "
+                    + expectedSha256);
+        }
+    }
+
+    // Method to upload a package file to the given org, returning the import job ID
+    public static String uploadPackage(OrgSession target, Path packagePath) throws IOException {
+        EventLog.Scope scope = EventLog.scope("upload", packagePath.getFileName().toString());
+        try {
+            return uploadPackageInScope(target, packagePath);
+        } finally {
+            scope.close();
+        }
+    }
+
+    // Method to upload with the package name on every event logged on the way
+    private static String uploadPackageInScope(OrgSession target, Path packagePath) throws IOException {
+        // Prepare the multipart header and trailer; the file itself is streamed
+        MultipartBody body = new MultipartBody("package", packagePath.getFileName().toString(), "application/zip");
+        long packageSize = Files.size(packagePath);
+
+        IicsHttpClient client = IicsHttpClient.forServer(target.getServerUrl());
+        String uploadPath = "/public/core/v3/import/package";
+        for (int attempt = 1; ; attempt++) {
+            // Build the HTTP request with a fixed Content-Length so nothing is buffered by the connection
+            HttpURLConnection connection = client.open("POST", uploadPath, target.getIcSessionId());
+            connection.setRequestProperty("Content-Type", body.getContentType());
             connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.getContentLength(packageSize));
 
-            // Send the request body
-            outputStream = connection.getOutputStream();
-            outputStream.write(finalBody);
-            outputStream.flush();
-
-            // Read the response
-            int responseCode = connection.getResponseCode();
-            System.out.println("HTTP Response Code: " + responseCode);
-
-            if (responseCode != HttpURLConnection.HTTP_OK) {
-                reader = new BufferedReader(new InputStreamReader(connection.getErrorStream(), "utf-8"));
-                StringBuilder responseBody = new StringBuilder();
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    responseBody.append(line);
+            // Send the request body, copying the package straight from disk to the socket
+            long uploadStart = System.nanoTime();
+            long bytesSent;
+            try (OutputStream outputStream = connection.getOutputStream()) {
+                bytesSent = body.writeFile(outputStream, packagePath);
+            } catch (IOException e) {
+                IicsHttpClient.recordCall(connection, -1);
+                if (client.retryAfterFailure("POST", uploadPath, -1, e, attempt)) {
+                    continue;
                 }
-                throw new RuntimeException("Failed to upload the package. HTTP Error Code: " + responseCode
-                        + ". Response Body: " + responseBody.toString());
+                throw e;
+            }
+            long uploadNanos = System.nanoTime() - uploadStart;
+            printTransferRate("Uploaded to " + target.getRegionUrl(), bytesSent, uploadNanos);
+            Metrics.recordTransfer("upload", bytesSent, uploadNanos);
+
+            // Read the response; a throttled upload was refused as a whole and is sent again
+            IicsHttpClient.Response response = IicsHttpClient.readFields(connection, "jobId");
+            if (!response.isOk() && client.retryAfterFailure("POST", uploadPath, response.getCode(), null, attempt)) {
+                continue;
             }
+            if (!response.isOk()) {
+                throw new RuntimeException("Failed to upload the package to " + target.getRegionUrl()
+                        + ". HTTP Error Code: " + response.getCode() + ". Response Body: "
+                        + EventLog.body(response.getBody()));
+            }
+
+            // Parse the response for the import job ID
+            return response.getField("jobId");
+        }
+    }
 
-            reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), "utf-8"));
-            StringBuilder responseBody = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                responseBody.append(line);
+    // Helper function to describe the current non-production session
+    static OrgSession nonProdSession() {
+        return new OrgSession(regionUrl, username, serverUrl, icSessionId);
+    }
+
+    // Helper function to describe the current production session
+    private static OrgSession prodSession() {
+        return new OrgSession(prodRegionUrl, prodUsername, prodServerUrl, prodIcSessionId);
+    }
+
+    // Method to relay the package of a finished export to the production org without writing it to disk
+    public static void relayExportedPackageToProd(String exportId, Scanner scanner) {
+        try {
+            EventLog.println("Relaying export package " + exportId + " to production...");
+
+            IicsHttpClient.Response response = PackageRelay.relay(serverUrl, icSessionId, exportId, prodServerUrl,
+                    prodIcSessionId);
+            EventLog.println("HTTP Response Code: " + response.getCode());
+
+            if (!response.isOk()) {
+                throw new RuntimeException("Failed to upload the package. HTTP Error Code: " + response.getCode()
+                        + ". Response Body: " + EventLog.body(response.getBody()));
             }
 
             // Parse the response for the import job ID
-            String responseStr = responseBody.toString();
-            String importJobId = extractValue(responseStr, "jobId");
-            System.out.println("Package uploaded successfully. Import Job ID: " + importJobId);
+            String importJobId = response.getField("jobId");
+            EventLog.println("Package relayed successfully. Import Job ID: " + importJobId);
 
             // Check the import status
             startUploadJob(importJobId, prodIcSessionId, scanner);
 
         } catch (IOException e) {
-            System.out.println("An error occurred during package upload: " + e.getMessage());
+            EventLog.println("An error occurred during package relay: " + e.getMessage());
             e.printStackTrace();
-        } finally {
-            // Clean up resources
-            try {
-                if (outputStream != null) outputStream.close();
-                if (reader != null) reader.close();
-            } catch (IOException e) {
-                System.out.println("An error occurred while closing resources: " + e.getMessage());
-            }
-            if (connection != null) connection.disconnect();
         }
     }
 
-    // Method to start the upload job
-    public static void startUploadJob(String jobId, String sessionId, Scanner scanner) {
-        HttpURLConnection connection = null;
-        BufferedReader reader = null;
+    // Helper function to print the size and throughput of a transfer
+    public static void printTransferRate(String action, long bytes, long elapsedNanos) {
+        double megabytes = bytes / (1024.0 * 1024.0);
+        double seconds = Math.max(elapsedNanos, 1) / 1_000_000_000.0;
+        EventLog.info(null, null, String.format("%s %.2f MB in %.2f s (%.2f MB/s)", action, megabytes, seconds,
+                megabytes / seconds));
+    }
 
+    // Method to start the upload job, returning the final import state
+    public static String startUploadJob(String jobId, String sessionId, Scanner scanner) {
         try {
-            // Construct the URL for the import job start API
-            String url = prodServerUrl + "/public/core/v3/import/" + jobId;
-            System.out.println("Starting import job at URL: " + url);
-
-            // Create the HTTP request
-            URL requestUrl = new URL(url);
-            connection = (HttpURLConnection) requestUrl.openConnection();
-            connection.setRequestMethod("POST");
-            connection.setRequestProperty("INFA-SESSION-ID", sessionId);
-            connection.setRequestProperty("Content-Type", "application/json");
-            connection.setDoOutput(true); // Indicates that this is a POST request
-
-            // Send the HTTP request
-            int responseCode = connection.getResponseCode();
-            System.out.println("HTTP Response Code: " + responseCode);
+            EventLog.info("import", jobId, "Starting import job.", "url",
+                    prodServerUrl + "/public/core/v3/import/" + jobId);
 
-            // Check if the request was successful
-            if (responseCode != HttpURLConnection.HTTP_OK) {
-                reader = new BufferedReader(new InputStreamReader(connection.getErrorStream(), "utf-8"));
-                StringBuilder responseBody = new StringBuilder();
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    responseBody.append(line);
-                }
-                throw new RuntimeException("Failed to start the import job. HTTP Error Code: " + responseCode
-                        + ". Response Body: " + responseBody.toString());
-            }
-
-            // Read the response
-            reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), "utf-8"));
-            StringBuilder responseBody = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                responseBody.append(line);
-            }
+            String responseBody = startImportJob(
+                    new OrgSession(prodRegionUrl, prodUsername, prodServerUrl, sessionId), jobId);
 
             // Output success message
-            System.out.println("Import job started successfully.");
-            System.out.println("Response: " + responseBody.toString());
+            EventLog.info("import", jobId, "Import job started successfully.", "response", EventLog.body(responseBody));
 
             // Proceed to check the import status
-            checkImportStatus(jobId, scanner);
+            return checkImportStatus(jobId, scanner);
 
         } catch (IOException e) {
-            System.out.println("An error occurred while starting the import job: " + e.getMessage());
+            EventLog.println("An error occurred while starting the import job: " + e.getMessage());
             e.printStackTrace();
-        } finally {
-            // Clean up resources
-            try {
-                if (reader != null) reader.close();
-            } catch (IOException e) {
-                System.out.println("An error occurred while closing the reader: " + e.getMessage());
-            }
-            if (connection != null) connection.disconnect();
+            return null;
         }
     }
 
-    public static void logout(String sessionId, String username, String password) {
-        HttpURLConnection connection = null;
-        OutputStream outputStream = null;
-        BufferedReader reader = null;
+    // Method to start an uploaded import job in the given org, returning the response body
+    public static String startImportJob(OrgSession target, String jobId) throws IOException {
+        // Send the HTTP request to the import job start API
+        IicsHttpClient.Response response = IicsHttpClient.forServer(target.getServerUrl())
+                .send("POST", "/public/core/v3/import/" + jobId, target.getIcSessionId(), "");
+
+        // Check if the request was successful
+        if (!response.isOk()) {
+            throw new RuntimeException("Failed to start the import job on " + target.getRegionUrl()
+                    + ". HTTP Error Code: " + response.getCode() + ". Response Body: "
+                    + EventLog.body(response.getBody()));
+        }
+        return response.getBody();
+    }
 
+    public static void logout(String regionUrl, String sessionId, String username, String password) {
         try {
-            // Logout URL
-            String logoutUrl = "https://dm-us.informaticacloud.com/ma/api/v2/user/logout";
-
             // Create the request body
             String requestBody = "{ \"@type\": \"login\", \"username\": \"" + username + "\", \"password\": \"" + password + "\" }";
 
-            // Create the HTTP request
-            URL url = new URL(logoutUrl);
-            connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("POST");
+            // Create the HTTP request against the region the session was created in
+            IicsHttpClient client = IicsHttpClient.forRegion(regionUrl);
+            HttpURLConnection connection = client.open("POST", "/ma/api/v2/user/logout", null);
             connection.setRequestProperty("icSessionId", sessionId);
-            connection.setRequestProperty("Content-Type", "application/json");
-            connection.setDoOutput(true); // Indicates that this is a POST request
-
-            // Send the request body
-            outputStream = connection.getOutputStream();
-            outputStream.write(requestBody.getBytes("UTF-8"));
-            outputStream.flush();
 
-            // Get the response
-            int responseCode = connection.getResponseCode();
-            System.out.println("HTTP Response Code: " + responseCode);
+            // Send the request body and get the response
+            IicsHttpClient.Response response = client.execute(connection, requestBody);
 
             // Check if the request was successful
-            if (responseCode != HttpURLConnection.HTTP_OK) {
-                reader = new BufferedReader(new InputStreamReader(connection.getErrorStream(), "utf-8"));
-                StringBuilder responseBody = new StringBuilder();
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    responseBody.append(line);
-                }
-                throw new RuntimeException("Failed to log out. HTTP Error Code: " + responseCode
-                        + ". Response Body: " + responseBody.toString());
-            }
-
-            // Read the successful response
-            reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), "utf-8"));
-            StringBuilder responseBody = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                responseBody.append(line);
+            if (!response.isOk()) {
+                throw new RuntimeException("Failed to log out. HTTP Error Code: " + response.getCode()
+                        + ". Response Body: " + EventLog.body(response.getBody()));
             }
 
             // Success
-            System.out.println("Successfully logged out session ID: " + sessionId);
-            System.out.println("Response: " + responseBody.toString());
+            EventLog.info("logout", EventLog.secret(sessionId), "Successfully logged out session.", "code",
+                    String.valueOf(response.getCode()), "response", EventLog.body(response.getBody()));
 
         } catch (IOException e) {
-            System.out.println("An error occurred during logout: " + e.getMessage());
+            EventLog.println("An error occurred during logout: " + e.getMessage());
             e.printStackTrace();
-        } finally {
-            // Clean up resources
-            try {
-                if (outputStream != null) outputStream.close();
-                if (reader != null) reader.close();
-            } catch (IOException e) {
-                System.out.println("An error occurred while closing resources: " + e.getMessage());
-            }
-            if (connection != null) connection.disconnect();
         }
     }
 
-    // Method to check the import status
-    public static void checkImportStatus(String importJobId, Scanner scanner) {
-        HttpURLConnection connection = null;
-        BufferedReader reader = null;
-
+    // Method to check the import status, returning the final state or null if it could not be checked
+    public static String checkImportStatus(String importJobId, Scanner scanner) {
         try {
-            String importStatusUrl = prodServerUrl + "/public/core/v3/import/" + importJobId;
-
-            while (true) {
-                // Build the request to check the import status
-                URL url = new URL(importStatusUrl);
-                connection = (HttpURLConnection) url.openConnection();
-                connection.setRequestMethod("GET");
-                connection.setRequestProperty("INFA-SESSION-ID", prodIcSessionId);
-
-                // Send the request
-                int responseCode = connection.getResponseCode();
-                System.out.println("HTTP Response Code: " + responseCode);
-
-                if (responseCode == HttpURLConnection.HTTP_OK) {
-                    reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), "utf-8"));
-                    StringBuilder responseBody = new StringBuilder();
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        responseBody.append(line);
-                    }
+            // Poll the import job on the shared poller until it reaches a final state
+            String state = watchImport(prodSession(), "Import " + importJobId, importJobId).get();
+
+            EventLog.info("import", importJobId, "Import Status: " + state);
+            ImportResults.collect(prodSession(), importJobId, state);
+            return state;
+
+        } catch (ExecutionException e) {
+            EventLog.println("An error occurred while checking the import status: " + e.getCause().getMessage());
+            e.getCause().printStackTrace();
+        } catch (InterruptedException e) {
+            EventLog.println("An error occurred while checking the import status: " + e.getMessage());
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
 
-                    // Extract the state from the response
-                    String responseBodyString = responseBody.toString();
-                    String state = extractValue(responseBodyString, "state");
+    // Method to fetch the current state of an import job, e.g. IN_PROGRESS or SUCCESSFUL
+    public static String fetchImportState(String importJobId) throws IOException {
+        return fetchImportState(prodSession(), importJobId);
+    }
 
-                    System.out.println("Import Status: " + state);
+    // Method to fetch the current state of an import job in the given org
+    public static String fetchImportState(OrgSession target, String importJobId) throws IOException {
+        IicsHttpClient.Response response = IicsHttpClient.forServer(target.getServerUrl())
+                .sendForFields("GET", "/public/core/v3/import/" + importJobId, target.getIcSessionId(), null,
+                        "status.state");
 
-                    // Break the loop if the import is completed
-                    if ("SUCCESSFUL".equalsIgnoreCase(state) || "FAILED".equalsIgnoreCase(state)) {
+        if (!response.isOk()) {
+            throw new IOException("Failed to check import status. HTTP Error Code: " + response.getCode());
+        }
+        return response.getField("status.state");
+    }
 
-                        // Logout from non-production
-                        System.out.println("Logging out of NON - PROD Environment...");
-                        logout(icSessionId, username, password);
+    // Method to watch an import job on the shared poller, checked together with the other imports of the org
+    public static CompletableFuture<String> watchImport(OrgSession target, String jobName, String importJobId) {
+        return JobPoller.shared().watch(jobName, jobGroup("import", target), importJobId,
+                batchStatus ? jobIds -> fetchJobStates(target, "import", jobIds) : null,
+                () -> fetchImportState(target, importJobId));
+    }
 
-                        // Logout from production
-                        System.out.println("Logging out of PROD Environment...");
-                        logout(prodIcSessionId, prodUsername, prodPassword);
-                        break;
-                    }
+    // Helper function naming the poller group of the export or import jobs of one org session
+    private static String jobGroup(String kind, OrgSession org) {
+        return kind + " jobs on " + org.getServerUrl() + " (" + org.getUsername() + ")";
+    }
 
+    // Method to fetch the states of several export or import jobs of an org with one list request, keyed by
+    // job ID. The ?ids= list query is not a documented IICS endpoint, so it is only used with --batch-status
+    // and tried once, without retries: any error or unreadable answer returns null and the poller checks the
+    // jobs one by one from then on.
+    public static Map<String, String> fetchJobStates(OrgSession org, String kind, List<String> jobIds)
+            throws IOException {
+        IicsHttpClient client = IicsHttpClient.forServer(org.getServerUrl());
+        IicsHttpClient.Response response = client.execute(client.open("GET",
+                "/public/core/v3/" + kind + "?ids=" + String.join(",", jobIds), org.getIcSessionId()), null);
+        if (!response.isOk()) {
+            return null;
+        }
+        try {
+            return parseJobStates(response.getBody());
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    // Helper function to read {"id": ..., "status": {"state": ...}} elements from the arrays of a list response
+    private static Map<String, String> parseJobStates(String body) throws IOException {
+        Map<String, String> states = new HashMap<>();
+        try (JsonPullReader reader = new JsonPullReader(
+                new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)))) {
+            if (reader.peek() == JsonPullReader.Token.BEGIN_ARRAY) {
+                readJobStates(reader, states);
+                return states;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                reader.nextName();
+                if (reader.peek() == JsonPullReader.Token.BEGIN_ARRAY) {
+                    readJobStates(reader, states);
                 } else {
-                    System.out.println("Failed to check import status. HTTP Error Code: " + responseCode);
+                    reader.skipValue();
                 }
-
-                // Wait for some time before the next status check
-                Thread.sleep(5000);
             }
+            reader.endObject();
+        }
+        return states;
+    }
 
-        } catch (IOException | InterruptedException e) {
-            System.out.println("An error occurred while checking the import status: " + e.getMessage());
-            e.printStackTrace();
-        } finally {
-            // Clean up resources
-            try {
-                if (reader != null) reader.close();
-            } catch (IOException e) {
-                System.out.println("An error occurred while closing resources: " + e.getMessage());
+    private static void readJobStates(JsonPullReader reader, Map<String, String> states) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() != JsonPullReader.Token.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+            String id = null;
+            String state = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if ("id".equals(name) && reader.peek() == JsonPullReader.Token.STRING) {
+                    id = reader.nextString();
+                } else if ("status".equals(name) && reader.peek() == JsonPullReader.Token.BEGIN_OBJECT) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if ("state".equals(reader.nextName()) && reader.peek() == JsonPullReader.Token.STRING) {
+                            state = reader.nextString();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (id != null && state != null) {
+                states.put(id, state);
             }
-            if (connection != null) connection.disconnect();
         }
+        reader.endArray();
     }
 }
@@ -0,0 +1,330 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Works out the dependencies of a whole batch of assets before anything is exported.
+// Exported one by one with includeDependencies, every asset carries its own copy of the connections, runtime
+// environments and mapplets it shares with the others. The resolver follows the "uses" references of every
+// asset in the NON - PROD org, level by level and with each object asked about only once, and splits the
+// union of the dependency closures into objects used by several assets (exported once, in a shared package
+// imported first) and objects used by a single asset (exported with that asset). Assets of the batch that
+// other assets of the batch use count as shared dependencies too, so their package comes first.
+// A resolver remembers what every object uses, so one kept for a whole run asks about each object once.
+public class DependencyResolver {
+
+    // An object that at least one asset of the batch uses, directly or through other objects
+    public static class Dependency {
+        private final String id;
+        private final String path;
+        private final String type;
+        private final Set<String> usedBy = new TreeSet<>();
+
+        Dependency(String id, String path, String type) {
+            this.id = id;
+            this.path = path;
+            this.type = type;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        // Manifest entries of the assets that pull this object in
+        public Set<String> getUsedBy() {
+            return usedBy;
+        }
+
+        public boolean isShared() {
+            return usedBy.size() > 1;
+        }
+    }
+
+    // Dependencies of a batch and how they are split between the shared package and the asset packages
+    public static class Resolution {
+        private final Map<ExportManifest.Entry, String> assetIds = new LinkedHashMap<>();
+        private final Map<String, Set<String>> closures = new HashMap<>();
+        private final Map<String, Dependency> dependencies = new LinkedHashMap<>();
+
+        // ID of the asset an entry names
+        public String getAssetId(ExportManifest.Entry entry) {
+            return assetIds.get(entry);
+        }
+
+        public Map<String, Dependency> getDependencies() {
+            return dependencies;
+        }
+
+        // IDs of the objects to export once, in the shared package
+        public List<String> getSharedIds() {
+            List<String> shared = new ArrayList<>();
+            for (Dependency dependency : dependencies.values()) {
+                if (isShared(dependency)) {
+                    shared.add(dependency.getId());
+                }
+            }
+            return shared;
+        }
+
+        // True when the entry's asset is itself used by other assets and therefore goes into the shared package
+        public boolean isExportedAsShared(ExportManifest.Entry entry) {
+            Dependency dependency = dependencies.get(assetIds.get(entry));
+            return dependency != null && isShared(dependency);
+        }
+
+        // IDs of the objects to export with the entry's asset: the asset and the dependencies only it uses
+        public List<String> getOwnIds(ExportManifest.Entry entry) {
+            String assetId = assetIds.get(entry);
+            List<String> own = new ArrayList<>();
+            own.add(assetId);
+            for (String id : closures.getOrDefault(assetId, Collections.<String>emptySet())) {
+                if (!isShared(dependencies.get(id))) {
+                    own.add(id);
+                }
+            }
+            return own;
+        }
+
+        private boolean isShared(Dependency dependency) {
+            return dependency.isShared() || assetIds.containsValue(dependency.getId());
+        }
+
+        // Number of objects exported when every asset is exported with its own dependencies
+        public int getUnsharedExportCount() {
+            int count = 0;
+            for (String assetId : assetIds.values()) {
+                count += 1 + closures.getOrDefault(assetId, Collections.<String>emptySet()).size();
+            }
+            return count;
+        }
+
+        // Number of objects exported with shared dependencies exported once
+        public int getSharedExportCount() {
+            Set<String> unique = new LinkedHashSet<>(assetIds.values());
+            unique.addAll(dependencies.keySet());
+            return unique.size();
+        }
+    }
+
+    private final OrgSession source;
+    private final int concurrency;
+    private final Map<String, List<Dependency>> usesCache = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor closureWorkers;
+
+    public DependencyResolver(OrgSession source, int concurrency) {
+        this.source = source;
+        this.concurrency = concurrency;
+        // Kept for the life of the resolver; idle threads go away on their own, so it needs no shutdown
+        this.closureWorkers = new ThreadPoolExecutor(concurrency, concurrency, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "dependency-resolver");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.closureWorkers.allowCoreThreadTimeOut(true);
+    }
+
+    // Method to resolve the dependency closures of the entries that export with dependencies. Entries
+    // without includeDependencies are only looked up.
+    public Resolution resolve(List<ExportManifest.Entry> entries) throws IOException, InterruptedException {
+        Resolution resolution = new Resolution();
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "dependency-resolver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            for (ExportManifest.Entry entry : entries) {
+                resolution.assetIds.put(entry, entry.isPath()
+                        ? CrossProdAssetExportUtility.lookupAssetId(source, entry.getAsset(), entry.getType())
+                        : entry.getAsset());
+            }
+
+            Map<String, Dependency> known = new HashMap<>();
+            Set<String> roots = new LinkedHashSet<>();
+            for (ExportManifest.Entry entry : entries) {
+                if (entry.isIncludeDependencies()) {
+                    roots.add(resolution.assetIds.get(entry));
+                }
+            }
+            walk(roots, workers, known);
+
+            // Close each asset over the graph, which is now fully known
+            for (Map.Entry<ExportManifest.Entry, String> asset : resolution.assetIds.entrySet()) {
+                if (!asset.getKey().isIncludeDependencies()) {
+                    continue;
+                }
+                Set<String> closure = closeOver(asset.getValue());
+                resolution.closures.put(asset.getValue(), closure);
+                for (String id : closure) {
+                    Dependency dependency = resolution.dependencies.computeIfAbsent(id, k -> known.get(k));
+                    dependency.usedBy.add(asset.getKey().getAsset());
+                }
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+        return resolution;
+    }
+
+    // Method to list the IDs of every object the asset uses, directly or through other objects. Objects
+    // an earlier call already walked are not asked about again.
+    public Set<String> closure(String assetId) throws IOException, InterruptedException {
+        walk(Collections.singleton(assetId), closureWorkers, new HashMap<>());
+        return closeOver(assetId);
+    }
+
+    // Method to walk the "uses" graph from the roots one level at a time; all objects of a level are asked
+    // about concurrently
+    private void walk(Set<String> roots, ExecutorService workers, Map<String, Dependency> known)
+            throws IOException, InterruptedException {
+        Set<String> level = new LinkedHashSet<>(roots);
+        Set<String> visited = new LinkedHashSet<>(level);
+        while (!level.isEmpty()) {
+            Map<String, Future<List<Dependency>>> pending = new LinkedHashMap<>();
+            for (String id : level) {
+                List<Dependency> cached = usesCache.get(id);
+                pending.put(id, cached != null ? CompletableFuture.completedFuture(cached)
+                        : workers.submit(() -> uses(id)));
+            }
+            Set<String> next = new LinkedHashSet<>();
+            for (Future<List<Dependency>> future : pending.values()) {
+                for (Dependency dependency : get(future)) {
+                    known.putIfAbsent(dependency.getId(), dependency);
+                    if (visited.add(dependency.getId())) {
+                        next.add(dependency.getId());
+                    }
+                }
+            }
+            level = next;
+        }
+    }
+
+    // Helper function collecting what an already walked asset uses, without the asset itself
+    private Set<String> closeOver(String assetId) {
+        Set<String> closure = new LinkedHashSet<>();
+        List<String> queue = new ArrayList<>(Collections.singletonList(assetId));
+        for (int i = 0; i < queue.size(); i++) {
+            for (Dependency dependency : usesCache.get(queue.get(i))) {
+                if (!dependency.getId().equals(assetId) && closure.add(dependency.getId())) {
+                    queue.add(dependency.getId());
+                }
+            }
+        }
+        return closure;
+    }
+
+    // Method to list the objects an object uses directly, asking the org once per object
+    private List<Dependency> uses(String objectId) throws IOException {
+        List<Dependency> cached = usesCache.get(objectId);
+        if (cached != null) {
+            return cached;
+        }
+        IicsHttpClient.Response response = IicsHttpClient.forServer(source.getServerUrl()).send("GET",
+                "/public/core/v3/objects/" + objectId + "/references?refType=uses", source.getIcSessionId(), null);
+        if (!response.isOk()) {
+            throw new RuntimeException("Failed to list the dependencies of " + objectId + ". HTTP Error Code: "
+                    + response.getCode() + ". Response Body: " + EventLog.body(response.getBody()));
+        }
+
+        List<Dependency> uses = new ArrayList<>();
+        try (JsonPullReader reader = new JsonPullReader(
+                new ByteArrayInputStream(response.getBody().getBytes(StandardCharsets.UTF_8)))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!"references".equals(reader.nextName()) || reader.peek() != JsonPullReader.Token.BEGIN_ARRAY) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    Map<String, String> fields = new HashMap<>();
+                    Json.copyValue(reader, new StringBuilder(), fields);
+                    if (fields.get("id") != null) {
+                        uses.add(new Dependency(fields.get("id"), fields.get("path"), fields.get("documentType")));
+                    }
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+        }
+        usesCache.put(objectId, uses);
+        return uses;
+    }
+
+    private static List<Dependency> get(Future<List<Dependency>> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    // Method to log which dependencies are shared and how many object exports sharing saves
+    public static void printReport(Resolution resolution) {
+        List<String> shared = resolution.getSharedIds();
+        EventLog.info("dependencies", null, "Resolved " + resolution.getDependencies().size() + " dependencies, "
+                + shared.size() + " exported once in the shared package.");
+        for (String id : shared) {
+            Dependency dependency = resolution.getDependencies().get(id);
+            EventLog.info("dependencies", null, String.format("%-40s %-16s used by %d assets: %s",
+                    dependency.getPath() != null ? dependency.getPath() : id, dependency.getType(),
+                    dependency.getUsedBy().size(), dependency.getUsedBy()));
+        }
+        EventLog.info("dependencies", null, "Objects exported: " + resolution.getSharedExportCount() + " instead of "
+                + resolution.getUnsharedExportCount() + " with one package per asset.");
+    }
+
+    // Method to write the dependency report as CSV: one line per dependency with the assets using it
+    public static void writeReport(Resolution resolution, Path csvFile) throws IOException {
+        StringBuilder csv = new StringBuilder("dependencyId,type,path,shared,usedByCount,usedBy\n");
+        for (Dependency dependency : resolution.getDependencies().values()) {
+            csv.append(csvField(dependency.getId())).append(',').append(csvField(dependency.getType())).append(',')
+                    .append(csvField(dependency.getPath())).append(',')
+                    .append(resolution.isShared(dependency)).append(',')
+                    .append(dependency.getUsedBy().size()).append(',')
+                    .append(csvField(String.join(";", dependency.getUsedBy()))).append('\n');
+        }
+        Files.write(csvFile, csv.toString().getBytes(StandardCharsets.UTF_8));
+        EventLog.info("dependencies", null, "Dependency report written to " + csvFile + ".");
+    }
+
+    private static String csvField(String value) {
+        if (value == null) {
+            return "";
+        }
+        return value.contains(",") || value.contains("\"") || value.contains("\n")
+                ? "\"" + value.replace("\"", "\"\"") + "\""
+                : value;
+    }
+}
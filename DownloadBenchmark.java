@@ -0,0 +1,162 @@
+import java.io.BufferedInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.HttpURLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+// Benchmark of the package download sink against StubIicsServer.
+// Downloads the same export package repeatedly with three sinks and reports throughput and the CPU time the
+// downloading thread spends per GB:
+//   stream 1 KB      - BufferedInputStream copied through a 1024-byte array into a FileOutputStream (the
+//                      original downloadExportPackage), hashed afterwards like the verified path
+//   stream 64 KB     - the 64 KB stream copy with a separate SHA-256 pass over the finished file
+//   channel 4 MB     - PackageDownloader: 256 KB chunks hashed as they arrive and gathered in a 4 MB direct
+//                      buffer that is written to a FileChannel
+// Run with: java DownloadBenchmark [--size-mb 256] [--runs 5] [--preallocate]
+public class DownloadBenchmark {
+
+    // A way of writing the response of one package request to a file
+    private interface Sink {
+        void download(OrgSession session, String exportId, Path target) throws IOException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int sizeMegabytes = 256;
+        int runs = 5;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--size-mb":
+                    sizeMegabytes = Integer.parseInt(args[++i]);
+                    break;
+                case "--runs":
+                    runs = Integer.parseInt(args[++i]);
+                    break;
+                case "--preallocate":
+                    PackageDownloader.setPreallocate(true);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        StubIicsServer stub = new StubIicsServer(0, new StubIicsServer.Config()
+                .exportMillis(0)
+                .packageBytes(sizeMegabytes * 1024L * 1024L)
+                .objectsPerPackage(4));
+        stub.start();
+        Path workDir = Files.createTempDirectory("download-benchmark");
+        try {
+            OrgSession session = CrossProdAssetExportUtility.loginToOrg(stub.getBaseUrl(), "bench",
+                    CrossProdAssetExportUtility.buildLoginPayload("bench", "bench"));
+            String exportId = quietly(() -> CrossProdAssetExportUtility.startExport(session,
+                    CrossProdAssetExportUtility.buildExportPayload("BenchAsset", true)));
+
+            System.out.println(String.format("%d MB package, %d runs per sink (after one warm-up run)",
+                    sizeMegabytes, runs));
+            System.out.println(String.format("%-14s %12s %16s", "sink", "MB/s", "CPU ms per GB"));
+            run("stream 1 KB", session, exportId, workDir, runs, (s, id, target) -> {
+                streamCopy(s, id, target, 1024, true);
+                PackageDownloader.sha256(target);
+            });
+            run("stream 64 KB", session, exportId, workDir, runs, (s, id, target) -> {
+                streamCopy(s, id, target, 64 * 1024, false);
+                PackageDownloader.sha256(target);
+            });
+            run("channel 4 MB", session, exportId, workDir, runs,
+                    (s, id, target) -> PackageDownloader.download(s.getServerUrl(), s.getIcSessionId(), id, target));
+        } finally {
+            stub.stop();
+            try (Stream<Path> files = Files.list(workDir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.deleteIfExists(file);
+                }
+            }
+            Files.deleteIfExists(workDir);
+        }
+    }
+
+    // Method to warm up one sink and then measure it over the given number of downloads
+    private static void run(String name, OrgSession session, String exportId, Path workDir, int runs, Sink sink)
+            throws IOException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Path target = workDir.resolve("package.zip");
+        long bytes = 0;
+        long cpuNanos = 0;
+        long wallNanos = 0;
+        for (int i = 0; i <= runs; i++) {
+            Files.deleteIfExists(target);
+            Files.deleteIfExists(target.resolveSibling("package.zip.sha256"));
+            long startCpu = threads.getCurrentThreadCpuTime();
+            long start = System.nanoTime();
+            quietly(() -> {
+                sink.download(session, exportId, target);
+                return null;
+            });
+            if (i > 0) {
+                wallNanos += System.nanoTime() - start;
+                cpuNanos += threads.getCurrentThreadCpuTime() - startCpu;
+                bytes += Files.size(target);
+            }
+        }
+        double gigabytes = bytes / (1024.0 * 1024.0 * 1024.0);
+        System.out.println(String.format("%-14s %12.1f %16.0f", name,
+                bytes / (1024.0 * 1024.0) / (wallNanos / 1e9), cpuNanos / 1e6 / gigabytes));
+    }
+
+    // Method to copy the package response through a byte array of the given size into a FileOutputStream
+    private static void streamCopy(OrgSession session, String exportId, Path target, int bufferBytes,
+            boolean buffered) throws IOException {
+        HttpURLConnection connection = IicsHttpClient.forServer(session.getServerUrl()).open("GET",
+                "/public/core/v3/export/" + exportId + "/package", session.getIcSessionId());
+        int responseCode = connection.getResponseCode();
+        try {
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new RuntimeException("Failed to download export package. HTTP Error Code: " + responseCode);
+            }
+            try (InputStream in = buffered ? new BufferedInputStream(connection.getInputStream())
+                    : connection.getInputStream();
+                    OutputStream out = new FileOutputStream(target.toFile())) {
+                byte[] buffer = new byte[bufferBytes];
+                int bytesRead;
+                while ((bytesRead = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, bytesRead);
+                }
+            }
+        } finally {
+            IicsHttpClient.recordCall(connection, responseCode);
+        }
+    }
+
+    // A step whose console output is not part of the report
+    private interface Step<T> {
+        T run() throws IOException;
+    }
+
+    private static <T> T quietly(Step<T> step) throws IOException {
+        PrintStream originalOut = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+                // Progress output is not part of the report
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                // Progress output is not part of the report
+            }
+        }));
+        try {
+            return step.run();
+        } finally {
+            EventLog.flush();
+            System.setOut(originalOut);
+        }
+    }
+}
@@ -0,0 +1,374 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Asynchronous, leveled event log for the polling and transfer loops.
+// Logging an event only claims a slot in a fixed ring of preallocated events and fills it in; no lock is
+// taken, nothing is formatted and nothing is written on the calling thread. A single daemon thread drains
+// the ring, redacts secrets, formats each event as a text or JSON line and writes it to stdout or a log file.
+// When the ring is full the event is dropped and counted instead of blocking a network thread, so memory
+// stays bounded by the ring size and the message limit. Every event carries the phase (login, export,
+// download, upload, import, logout) and the job ID it belongs to; a thread can set both for everything it
+// logs with scope(). Response bodies go through body(), which redacts passwords and session IDs and cuts
+// the body short, and session IDs through secret(). Messages written straight to the console (summaries,
+// prompts, phase banners) go through println() and print(), which first let the writer catch up, so they
+// appear after the events logged before them. An idle writer parks until the next event is published.
+public final class EventLog {
+
+    // Severity of an event
+    public enum Level {
+        DEBUG, INFO, WARN, ERROR
+    }
+
+    // Phase and job of the events a thread logs without naming them; close to restore the previous ones
+    public static final class Scope implements AutoCloseable {
+        private final String phase;
+        private final String jobId;
+        private final Scope previous;
+
+        private Scope(String phase, String jobId, Scope previous) {
+            this.phase = phase;
+            this.jobId = jobId;
+            this.previous = previous;
+        }
+
+        @Override
+        public void close() {
+            if (previous == null) {
+                CONTEXT.remove();
+            } else {
+                CONTEXT.set(previous);
+            }
+        }
+    }
+
+    // One slot of the ring, reused for every event that passes through it
+    private static final class Event {
+        private long timeMillis;
+        private Level level;
+        private String thread;
+        private String phase;
+        private String jobId;
+        private String message;
+        private String[] fields;
+
+        private void clear() {
+            thread = null;
+            phase = null;
+            jobId = null;
+            message = null;
+            fields = null;
+        }
+    }
+
+    private static final int CAPACITY = 8192;
+    private static final int MASK = CAPACITY - 1;
+    private static final int MAX_MESSAGE_CHARS = 2048;
+    private static final int MAX_BODY_CHARS = 512;
+    private static final int BATCH_EVENTS = 256;
+    private static final long FLUSH_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private static final String SECRET_NAMES =
+            "password|icSessionId|sessionId|INFA-SESSION-ID|accessToken|token|secret";
+    private static final Pattern SECRET_NAME = Pattern.compile(SECRET_NAMES, Pattern.CASE_INSENSITIVE);
+    private static final Pattern SECRET_FIELD = Pattern.compile(
+            "(\"(?:" + SECRET_NAMES + ")\"\\s*:\\s*\")[^\"]*(\")", Pattern.CASE_INSENSITIVE);
+    private static final DateTimeFormatter TEXT_TIME = DateTimeFormatter.ofPattern("HH:mm:ss.SSS")
+            .withZone(ZoneId.systemDefault());
+    private static final ThreadLocal<Scope> CONTEXT = new ThreadLocal<>();
+
+    // Ring of events in the style of a bounded multi-producer queue: a slot's sequence tells producers
+    // whether it is free for a given position and the consumer whether it has been filled
+    private static final Event[] RING = new Event[CAPACITY];
+    private static final AtomicLongArray SEQUENCES = new AtomicLongArray(CAPACITY);
+    private static final AtomicLong TAIL = new AtomicLong();
+    private static final AtomicLong DROPPED = new AtomicLong();
+    private static final Event DROP_NOTICE = new Event();
+
+    // Read by the writer thread only, apart from flush()
+    private static volatile long head;
+    // Set while the writer is parked on an empty ring, so producers know to wake it
+    private static volatile boolean writerParked;
+    private static volatile Level minLevel = Level.INFO;
+    private static volatile boolean json;
+    // Log file, or null to write to the console
+    private static volatile Writer sink;
+    private static final Thread WRITER;
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            RING[i] = new Event();
+            SEQUENCES.set(i, i);
+        }
+        WRITER = new Thread(EventLog::drainLoop, "event-log");
+        WRITER.setDaemon(true);
+        WRITER.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(EventLog::flush, "event-log-flush"));
+    }
+
+    private EventLog() {
+    }
+
+    // Method to set the lowest level written, the line format and the destination (null for stdout)
+    public static void configure(Level level, boolean jsonLines, Path file) throws IOException {
+        flush();
+        if (file != null) {
+            Path directory = file.toAbsolutePath().getParent();
+            if (directory != null) {
+                Files.createDirectories(directory);
+            }
+            sink = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.APPEND), StandardCharsets.UTF_8), 64 * 1024);
+        }
+        minLevel = level;
+        json = jsonLines;
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level.compareTo(minLevel) >= 0;
+    }
+
+    public static void debug(String phase, String jobId, String message, String... fields) {
+        log(Level.DEBUG, phase, jobId, message, fields);
+    }
+
+    public static void info(String phase, String jobId, String message, String... fields) {
+        log(Level.INFO, phase, jobId, message, fields);
+    }
+
+    public static void warn(String phase, String jobId, String message, String... fields) {
+        log(Level.WARN, phase, jobId, message, fields);
+    }
+
+    public static void error(String phase, String jobId, String message, String... fields) {
+        log(Level.ERROR, phase, jobId, message, fields);
+    }
+
+    // Method to queue an event with optional (name, value) pairs; a null phase or job ID is taken from the
+    // thread's scope. Never blocks: the event is dropped when the writer has fallen a whole ring behind.
+    public static void log(Level level, String phase, String jobId, String message, String... fields) {
+        if (!isEnabled(level)) {
+            return;
+        }
+        Scope scope = CONTEXT.get();
+        long position;
+        while (true) {
+            position = TAIL.get();
+            long available = SEQUENCES.get((int) position & MASK) - position;
+            if (available == 0) {
+                if (TAIL.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if (available < 0) {
+                DROPPED.incrementAndGet();
+                return;
+            }
+        }
+
+        Event event = RING[(int) position & MASK];
+        event.timeMillis = System.currentTimeMillis();
+        event.level = level;
+        event.thread = Thread.currentThread().getName();
+        event.phase = phase != null ? phase : scope != null ? scope.phase : null;
+        event.jobId = jobId != null ? jobId : scope != null ? scope.jobId : null;
+        event.message = message != null && message.length() > MAX_MESSAGE_CHARS
+                ? message.substring(0, MAX_MESSAGE_CHARS) + "... (" + (message.length() - MAX_MESSAGE_CHARS)
+                        + " more chars)"
+                : message;
+        event.fields = fields.length > 0 ? fields : null;
+        // A full write, so the parked flag is read after the event is visible to the writer
+        SEQUENCES.set((int) position & MASK, position + 1);
+        if (writerParked) {
+            LockSupport.unpark(WRITER);
+        }
+    }
+
+    // Method to print a line to the console after every event logged before it
+    public static void println(String line) {
+        flush();
+        System.out.println(line);
+    }
+
+    // Method to print text without a line break, e.g. a prompt, after every event logged before it
+    public static void print(String text) {
+        flush();
+        System.out.print(text);
+        System.out.flush();
+    }
+
+    // Method to set the phase and job ID of the events the current thread logs until the scope is closed
+    public static Scope scope(String phase, String jobId) {
+        Scope scope = new Scope(phase, jobId, CONTEXT.get());
+        CONTEXT.set(scope);
+        return scope;
+    }
+
+    // Helper function to make a response body safe and short enough to log
+    public static String body(String body) {
+        if (body == null) {
+            return null;
+        }
+        String shortened = body.length() > MAX_BODY_CHARS
+                ? body.substring(0, MAX_BODY_CHARS) + "... (" + (body.length() - MAX_BODY_CHARS) + " more chars)"
+                : body;
+        return redact(shortened);
+    }
+
+    // Helper function to show enough of a session ID or token to tell it apart, but not enough to use it
+    public static String secret(String value) {
+        if (value == null) {
+            return null;
+        }
+        return value.length() <= 8 ? "****" : value.substring(0, 4) + "****";
+    }
+
+    // Helper function to mask the values of password, session and token fields in JSON text
+    public static String redact(String text) {
+        if (text == null || text.indexOf('"') < 0) {
+            return text;
+        }
+        Matcher matcher = SECRET_FIELD.matcher(text);
+        return matcher.find() ? matcher.replaceAll("$1****$2") : text;
+    }
+
+    // Number of events dropped because the ring was full
+    public static long getDropped() {
+        return DROPPED.get();
+    }
+
+    // Method to wait (up to two seconds) until every event logged so far is written, e.g. before a prompt or
+    // a summary is printed straight to the console
+    public static void flush() {
+        long target = TAIL.get();
+        long deadline = System.nanoTime() + FLUSH_TIMEOUT_NANOS;
+        while (head < target && System.nanoTime() - deadline < 0) {
+            LockSupport.unpark(WRITER);
+            LockSupport.parkNanos(100_000);
+        }
+        try {
+            Writer writer = sink;
+            if (writer != null) {
+                writer.flush();
+            }
+        } catch (IOException e) {
+            // Nothing more can be done about a broken log destination
+        }
+    }
+
+    // Method run by the writer thread: drain the ring in batches, write them out, and park when it is empty
+    private static void drainLoop() {
+        StringBuilder lines = new StringBuilder(64 * 1024);
+        long reportedDrops = 0;
+        while (true) {
+            int written = 0;
+            long position = head;
+            while (written < BATCH_EVENTS && SEQUENCES.get((int) position & MASK) == position + 1) {
+                Event event = RING[(int) position & MASK];
+                format(event, lines);
+                event.clear();
+                SEQUENCES.lazySet((int) position & MASK, position + CAPACITY);
+                position++;
+                written++;
+            }
+
+            long dropped = DROPPED.get();
+            if (dropped != reportedDrops) {
+                DROP_NOTICE.timeMillis = System.currentTimeMillis();
+                DROP_NOTICE.level = Level.WARN;
+                DROP_NOTICE.thread = WRITER.getName();
+                DROP_NOTICE.message = (dropped - reportedDrops) + " log events dropped, the log could not keep up";
+                format(DROP_NOTICE, lines);
+                reportedDrops = dropped;
+            }
+
+            if (lines.length() > 0) {
+                try {
+                    Writer writer = sink;
+                    if (writer == null) {
+                        // Looked up on every write so that System.setOut is honoured
+                        System.out.print(lines);
+                        System.out.flush();
+                    } else {
+                        writer.append(lines);
+                        writer.flush();
+                    }
+                } catch (IOException e) {
+                    // Keep draining so producers never stall on a broken destination
+                }
+                lines.setLength(0);
+            }
+            head = position;
+            if (written == 0) {
+                // Announce the park before the last look at the ring; a producer publishing in between sees
+                // the flag and unparks, so no event is left waiting
+                writerParked = true;
+                if (SEQUENCES.get((int) position & MASK) != position + 1) {
+                    LockSupport.park();
+                }
+                writerParked = false;
+            }
+        }
+    }
+
+    // Helper function masking a field named like a secret and redacting the JSON text of any other field
+    private static String fieldValue(String name, String value) {
+        return value != null && SECRET_NAME.matcher(name).matches() ? "****" : redact(value);
+    }
+
+    // Method to append one event as a line of text or JSON
+    private static void format(Event event, StringBuilder line) {
+        String message = redact(event.message);
+        if (json) {
+            line.append("{\"time\":").append(Json.quote(Instant.ofEpochMilli(event.timeMillis).toString()))
+                    .append(",\"level\":").append(Json.quote(event.level.name()))
+                    .append(",\"thread\":").append(Json.quote(String.valueOf(event.thread)));
+            if (event.phase != null) {
+                line.append(",\"phase\":").append(Json.quote(event.phase));
+            }
+            if (event.jobId != null) {
+                line.append(",\"jobId\":").append(Json.quote(event.jobId));
+            }
+            line.append(",\"message\":").append(Json.quote(String.valueOf(message)));
+            if (event.fields != null) {
+                for (int i = 0; i + 1 < event.fields.length; i += 2) {
+                    String value = fieldValue(event.fields[i], event.fields[i + 1]);
+                    line.append(',').append(Json.quote(event.fields[i])).append(':')
+                            .append(Json.quote(String.valueOf(value)));
+                }
+            }
+            line.append("}\n");
+            return;
+        }
+
+        line.append(TEXT_TIME.format(Instant.ofEpochMilli(event.timeMillis))).append(' ')
+                .append(String.format("%-5s", event.level.name())).append(' ');
+        if (event.phase != null || event.jobId != null) {
+            line.append('[').append(event.phase != null ? event.phase : "-");
+            if (event.jobId != null) {
+                line.append(' ').append(event.jobId);
+            }
+            line.append("] ");
+        }
+        line.append(message);
+        if (event.fields != null) {
+            for (int i = 0; i + 1 < event.fields.length; i += 2) {
+                line.append(' ').append(event.fields[i]).append('=')
+                        .append(fieldValue(event.fields[i], event.fields[i + 1]));
+            }
+        }
+        line.append('\n');
+    }
+}
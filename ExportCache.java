@@ -0,0 +1,297 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Local cache of downloaded export packages, so an asset that has not changed since the last run is not
+// exported again.
+// A cache key is built from the asset ID, the includeDependencies flag and the asset's updateTime as
+// reported by the lookup API. With dependencies included, the key also covers the updateTime of every
+// object the asset uses, directly or through other objects, so editing any dependency (e.g. a mapplet used
+// by a mapping inside a taskflow) produces a new key. Packages are stored once per content hash
+// ("<sha256>.zip"); several keys may point to the same package. When the cache grows beyond its size
+// limit, the least recently used packages are evicted. The "uses" references are walked by one resolver per
+// org session, so the dependencies several assets share are only asked about once per run.
+public class ExportCache {
+
+    private static final int RESOLVER_CONCURRENCY = 8;
+    private static final int LOOKUP_BATCH_SIZE = 100;
+
+    private final Path cacheDir;
+    private final long maxBytes;
+    private final Path indexFile;
+    private final Properties index = new Properties();
+    private final Map<String, DependencyResolver> resolvers = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public ExportCache(Path cacheDir, long maxBytes) {
+        this.cacheDir = cacheDir;
+        this.maxBytes = maxBytes;
+        this.indexFile = cacheDir.resolve("index.properties");
+    }
+
+    // Default cache location in the user's home directory
+    public static Path defaultCacheDir() {
+        return Paths.get(System.getProperty("user.home"), ".iics-asset-export", "packages");
+    }
+
+    // Method to open the cache directory, starting empty if it has no readable index
+    public static ExportCache open(Path cacheDir, long maxBytes) {
+        ExportCache cache = new ExportCache(cacheDir, maxBytes);
+        if (Files.exists(cache.indexFile)) {
+            try (InputStream in = Files.newInputStream(cache.indexFile)) {
+                cache.index.load(in);
+            } catch (IOException e) {
+                EventLog.warn("cache", null, "Ignoring unreadable export cache index " + cache.indexFile + ": "
+                        + e.getMessage());
+            }
+        }
+        return cache;
+    }
+
+    // Method to build the cache key for an asset from its current state in the NON - PROD org.
+    // Returns null when the org does not report an update time, in which case the asset is not cached.
+    public String keyFor(String serverUrl, String sessionId, String assetId, boolean includeDependencies)
+            throws IOException {
+        IicsHttpClient client = IicsHttpClient.forServer(serverUrl);
+        IicsHttpClient.Response lookup = client.sendForFields("POST", "/public/core/v3/lookup", sessionId,
+                "{ \"objects\": [{ \"id\": " + Json.quote(assetId) + " }] }", "objects[0].updateTime");
+        if (!lookup.isOk()) {
+            throw new RuntimeException("Failed to look up asset " + assetId + ". HTTP Error Code: " + lookup.getCode());
+        }
+        String updateTime = lookup.getField("objects[0].updateTime");
+        if (updateTime == null) {
+            return null;
+        }
+
+        StringBuilder key = new StringBuilder();
+        key.append(assetId).append('|').append(includeDependencies).append('|').append(updateTime);
+        if (includeDependencies) {
+            // The "uses" references only list direct dependencies, so walk them to the whole closure and
+            // cover the update time of every object in it; adding, removing or editing any of them changes it
+            Set<String> closure;
+            try {
+                closure = new TreeSet<>(resolvers.computeIfAbsent(serverUrl + "|" + sessionId,
+                        k -> new DependencyResolver(new OrgSession(null, null, serverUrl, sessionId),
+                                RESOLVER_CONCURRENCY)).closure(assetId));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while resolving the dependencies of " + assetId);
+            }
+            Map<String, String> updateTimes = lookupUpdateTimes(client, sessionId, closure);
+            for (String id : closure) {
+                String dependencyUpdateTime = updateTimes.get(id);
+                if (dependencyUpdateTime == null) {
+                    return null;
+                }
+                key.append('|').append(id).append('=').append(dependencyUpdateTime);
+            }
+        }
+        return LocalStore.sha256Hex(key.toString());
+    }
+
+    // Method to forget the dependencies walked so far, so the next keys see references added or removed since;
+    // called when a new run starts in a long-lived process
+    public void forgetDependencies() {
+        resolvers.clear();
+    }
+
+    // Method to look up the update times of the given objects, keyed by object ID, a batch at a time
+    private static Map<String, String> lookupUpdateTimes(IicsHttpClient client, String sessionId,
+            Collection<String> ids) throws IOException {
+        Map<String, String> updateTimes = new HashMap<>();
+        List<String> all = new ArrayList<>(ids);
+        for (int from = 0; from < all.size(); from += LOOKUP_BATCH_SIZE) {
+            StringBuilder body = new StringBuilder("{ \"objects\": [");
+            for (int i = from; i < Math.min(all.size(), from + LOOKUP_BATCH_SIZE); i++) {
+                body.append(i > from ? ", " : "").append("{ \"id\": ").append(Json.quote(all.get(i)))
+                        .append(" }");
+            }
+            IicsHttpClient.Response lookup = client.send("POST", "/public/core/v3/lookup", sessionId,
+                    body.append("] }").toString());
+            if (!lookup.isOk()) {
+                throw new RuntimeException("Failed to look up the dependencies. HTTP Error Code: "
+                        + lookup.getCode());
+            }
+            try (JsonPullReader reader = new JsonPullReader(new StringReader(lookup.getBody()))) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (!"objects".equals(reader.nextName()) || reader.peek() != JsonPullReader.Token.BEGIN_ARRAY) {
+                        reader.skipValue();
+                        continue;
+                    }
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        Map<String, String> fields = new HashMap<>();
+                        Json.copyValue(reader, new StringBuilder(), fields);
+                        if (fields.get("id") != null && fields.get("updateTime") != null) {
+                            updateTimes.put(fields.get("id"), fields.get("updateTime"));
+                        }
+                    }
+                    reader.endArray();
+                }
+                reader.endObject();
+            }
+        }
+        return updateTimes;
+    }
+
+    // Method to copy the cached package for the key to the target file.
+    // Returns the restored package, or null on a miss.
+    public PackageDownloader.DownloadedPackage restore(String key, Path target) throws IOException {
+        String sha256;
+        Path packageFile;
+        synchronized (this) {
+            sha256 = key == null ? null : index.getProperty("key." + key);
+            packageFile = sha256 == null ? null : cacheDir.resolve(sha256 + ".zip");
+            if (packageFile == null || !Files.exists(packageFile)) {
+                misses.incrementAndGet();
+                return null;
+            }
+            index.setProperty("package." + sha256 + ".lastUsed", String.valueOf(System.currentTimeMillis()));
+            save();
+        }
+        hits.incrementAndGet();
+
+        // A hard link costs nothing; later downloads replace the target by rename, never in place
+        Files.createDirectories(target.toAbsolutePath().getParent());
+        Files.deleteIfExists(target);
+        try {
+            Files.createLink(target, packageFile);
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(packageFile, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        PackageDownloader.writeStoredSha256(target, sha256);
+        EventLog.info("cache", sha256, "Reusing cached export package " + sha256 + " as '" + target + "'.");
+        return new PackageDownloader.DownloadedPackage(target, Files.size(target), sha256);
+    }
+
+    // Method to add a downloaded package to the cache under the key, then evict down to the size limit
+    public synchronized void store(String key, PackageDownloader.DownloadedPackage downloaded) {
+        if (key == null) {
+            return;
+        }
+        try {
+            Files.createDirectories(cacheDir);
+            Path packageFile = cacheDir.resolve(downloaded.getSha256() + ".zip");
+            if (!Files.exists(packageFile)) {
+                Path tempFile = Files.createTempFile(cacheDir, "package", ".tmp");
+                Files.copy(downloaded.getPath(), tempFile, StandardCopyOption.REPLACE_EXISTING);
+                LocalStore.moveIntoPlace(tempFile, packageFile);
+            }
+            index.setProperty("key." + key, downloaded.getSha256());
+            index.setProperty("package." + downloaded.getSha256() + ".size", String.valueOf(downloaded.getSize()));
+            index.setProperty("package." + downloaded.getSha256() + ".lastUsed",
+                    String.valueOf(System.currentTimeMillis()));
+            evict(downloaded.getSha256());
+            save();
+        } catch (IOException e) {
+            EventLog.warn("cache", key, "Could not add package to the export cache: " + e.getMessage());
+        }
+    }
+
+    // Method to remove least recently used packages until the cache fits its size limit.
+    // The package just stored is never evicted, even if it is larger than the limit on its own.
+    private void evict(String keep) throws IOException {
+        List<String> packages = new ArrayList<>();
+        long totalBytes = 0;
+        for (String name : index.stringPropertyNames()) {
+            if (name.startsWith("package.") && name.endsWith(".size")) {
+                String sha256 = name.substring("package.".length(), name.length() - ".size".length());
+                long size = readLong(name);
+                if (size < 0) {
+                    // An unreadable entry counts as missing; its package is no longer accounted for
+                    EventLog.warn("cache", sha256, "Dropping unreadable export cache entry for package " + sha256);
+                    forget(sha256);
+                    continue;
+                }
+                packages.add(sha256);
+                totalBytes += size;
+            }
+        }
+        packages.sort((a, b) -> Long.compare(lastUsed(a), lastUsed(b)));
+
+        for (String sha256 : packages) {
+            if (totalBytes <= maxBytes) {
+                break;
+            }
+            if (sha256.equals(keep)) {
+                continue;
+            }
+            totalBytes -= readLong("package." + sha256 + ".size");
+            forget(sha256);
+            evictions.incrementAndGet();
+        }
+    }
+
+    // Method to delete a package and every index entry that refers to it
+    private void forget(String sha256) throws IOException {
+        Files.deleteIfExists(cacheDir.resolve(sha256 + ".zip"));
+        index.remove("package." + sha256 + ".size");
+        index.remove("package." + sha256 + ".lastUsed");
+        for (String name : index.stringPropertyNames()) {
+            if (name.startsWith("key.") && sha256.equals(index.getProperty(name))) {
+                index.remove(name);
+            }
+        }
+    }
+
+    // Packages without a readable last use sort as the least recently used
+    private long lastUsed(String sha256) {
+        return Math.max(0, readLong("package." + sha256 + ".lastUsed"));
+    }
+
+    // Helper function reading a number of the index; -1 when it is missing or unreadable
+    private long readLong(String name) {
+        try {
+            return Long.parseLong(index.getProperty(name, "-1").trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    // Method to print the cache counters for this run
+    public void printStats() {
+        EventLog.println("======= Export cache summary =======");
+        EventLog.println("  " + getHitCount() + " hits, " + getMissCount() + " misses, " + getEvictionCount()
+                + " evictions (" + cacheDir + ")");
+    }
+
+    // Method to write the index atomically
+    private void save() {
+        try {
+            LocalStore.writeAtomically(indexFile, "index", false, out -> index.store(out, "IICS export package cache"));
+        } catch (IOException e) {
+            EventLog.warn("cache", null, "Could not write export cache index " + indexFile + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,78 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+// Reader for batch export manifests.
+// One asset per line in the form: <assetId or path>[,<includeDependencies>[,<type>]]
+// A path (anything containing '/') must name its asset type, e.g. Default/Mapping1,true,DTEMPLATE.
+// Blank lines and lines starting with '#' are ignored.
+public class ExportManifest {
+
+    // A single asset entry from the manifest
+    public static class Entry {
+        private final String asset;
+        private final boolean includeDependencies;
+        private final String type;
+
+        public Entry(String asset, boolean includeDependencies, String type) {
+            this.asset = asset;
+            this.includeDependencies = includeDependencies;
+            this.type = type;
+        }
+
+        public String getAsset() {
+            return asset;
+        }
+
+        public boolean isIncludeDependencies() {
+            return includeDependencies;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        // An entry is a path when it contains a folder separator; otherwise it is an asset ID
+        public boolean isPath() {
+            return asset.indexOf('/') >= 0;
+        }
+
+        @Override
+        public String toString() {
+            return asset;
+        }
+    }
+
+    // Method to read all entries from the manifest file
+    public static List<Entry> read(Path manifestPath) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(manifestPath, StandardCharsets.UTF_8)) {
+            lineNumber++;
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+
+            String[] fields = trimmed.split(",");
+            String asset = fields[0].trim();
+            boolean includeDependencies = fields.length > 1 && parseFlag(fields[1].trim());
+            String type = fields.length > 2 ? fields[2].trim() : null;
+
+            Entry entry = new Entry(asset, includeDependencies, type);
+            if (entry.isPath() && (type == null || type.isEmpty())) {
+                throw new IllegalArgumentException("Manifest line " + lineNumber + ": path entries need an asset type: "
+                        + trimmed);
+            }
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    private static boolean parseFlag(String value) {
+        return value.equalsIgnoreCase("true") || value.equalsIgnoreCase("y") || value.equalsIgnoreCase("yes");
+    }
+}
@@ -0,0 +1,246 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Imports the same exported packages into several production orgs at once.
+// Every target org gets its own session, upload stream, import jobs and status polling on its own worker
+// thread, so a slow or failing region never holds up the others. Packages are imported into each org in
+// the order given, and an org stops at its first failed package. The per-org results are merged into one
+// summary at the end.
+public class FanOutImporter {
+
+    // A production org listed in the targets file
+    public static class Target {
+        private final String regionUrl;
+        private final String username;
+        private String password;
+
+        public Target(String regionUrl, String username, String password) {
+            this.regionUrl = regionUrl;
+            this.username = username;
+            this.password = password;
+        }
+
+        public String getRegionUrl() {
+            return regionUrl;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        // Password from the targets file, or null when it has to be asked for
+        String getPassword() {
+            return password;
+        }
+
+        @Override
+        public String toString() {
+            return username + "@" + regionUrl;
+        }
+    }
+
+    // Outcome of the import into one target org
+    public static class Result {
+        private final Target target;
+        private final List<String> importJobIds = new ArrayList<>();
+        private OrgSession session;
+        private boolean loggedIn;
+        private String error;
+        private long elapsedNanos;
+
+        Result(Target target) {
+            this.target = target;
+        }
+
+        public Target getTarget() {
+            return target;
+        }
+
+        public List<String> getImportJobIds() {
+            return importJobIds;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public boolean isSuccessful() {
+            return error == null;
+        }
+    }
+
+    private final List<Target> targets;
+    private final SessionCache sessionCache;
+
+    public FanOutImporter(List<Target> targets, SessionCache sessionCache) {
+        this.targets = targets;
+        this.sessionCache = sessionCache;
+    }
+
+    // Method to read the targets file.
+    // One org per line in the form: <regionUrl>,<username>[,<password>]. The password may be given as
+    // env:VARIABLE to read it from the environment; when it is left out the user is prompted for it.
+    // Blank lines and lines starting with '#' are ignored.
+    public static List<Target> readTargets(Path targetsPath) throws IOException {
+        List<Target> targets = new ArrayList<>();
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(targetsPath, StandardCharsets.UTF_8)) {
+            lineNumber++;
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+
+            String[] fields = trimmed.split(",", 3);
+            if (fields.length < 2 || fields[0].trim().isEmpty() || fields[1].trim().isEmpty()) {
+                throw new IllegalArgumentException("Targets line " + lineNumber
+                        + ": expected <regionUrl>,<username>[,<password>] but was: " + trimmed);
+            }
+            String password = fields.length > 2 ? resolvePassword(fields[2].trim(), lineNumber) : null;
+            targets.add(new Target(fields[0].trim(), fields[1].trim(), password));
+        }
+        if (targets.isEmpty()) {
+            throw new IllegalArgumentException("No target orgs listed in " + targetsPath);
+        }
+        return targets;
+    }
+
+    private static String resolvePassword(String value, int lineNumber) {
+        if (!value.startsWith("env:")) {
+            return value.isEmpty() ? null : value;
+        }
+        String variable = value.substring("env:".length());
+        String password = System.getenv(variable);
+        if (password == null) {
+            throw new IllegalArgumentException("Targets line " + lineNumber + ": environment variable " + variable
+                    + " is not set");
+        }
+        return password;
+    }
+
+    // Method to import the packages into every target org and print the merged summary.
+    // Returns true when every org imported every package successfully.
+    public boolean importAll(List<Path> packagePaths, Scanner scanner) throws IOException, InterruptedException {
+        // Check each package once here rather than once per org
+        for (Path packagePath : packagePaths) {
+            CrossProdAssetExportUtility.verifyPackage(packagePath);
+        }
+
+        // Resolve cached sessions and ask for missing passwords up front, before the workers start
+        List<Result> results = new ArrayList<>();
+        for (Target target : targets) {
+            Result result = new Result(target);
+            result.session = sessionCache != null
+                    ? sessionCache.lookup(target.getRegionUrl(), target.getUsername())
+                    : null;
+            if (result.session == null && target.password == null) {
+                EventLog.print("Enter Password for " + target + ": ");
+                target.password = scanner.nextLine();
+            }
+            results.add(result);
+        }
+
+        EventLog.println("Importing " + packagePaths.size() + " package(s) into " + targets.size()
+                + " production orgs concurrently...");
+
+        ExecutorService workers = Executors.newFixedThreadPool(targets.size());
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Result result : results) {
+                futures.add(workers.submit(() -> importInto(result, packagePaths)));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    // importInto records its own failures; nothing else can escape
+                }
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+
+        // Release the sessions, or keep them cached for the next run
+        for (Result result : results) {
+            if (result.session == null) {
+                continue;
+            }
+            if (sessionCache != null) {
+                sessionCache.touch(result.session);
+            } else if (result.loggedIn) {
+                EventLog.println("Logging out of " + result.getTarget() + "...");
+                CrossProdAssetExportUtility.logout(result.target.getRegionUrl(), result.session.getIcSessionId(),
+                        result.target.getUsername(), result.target.password);
+            }
+        }
+
+        return printSummary(results);
+    }
+
+    // Method run on a worker thread: log in to one org and import every package into it in order
+    private void importInto(Result result, List<Path> packagePaths) {
+        long start = System.nanoTime();
+        Target target = result.target;
+        try {
+            if (result.session == null) {
+                result.session = CrossProdAssetExportUtility.loginToOrg(target.getRegionUrl(), target.getUsername(),
+                        CrossProdAssetExportUtility.buildLoginPayload(target.getUsername(), target.password));
+                result.loggedIn = true;
+                EventLog.info("login", null, "Logged in to " + target + ".");
+            }
+
+            for (Path packagePath : packagePaths) {
+                String jobId = CrossProdAssetExportUtility.uploadPackage(result.session, packagePath);
+                result.importJobIds.add(jobId);
+                EventLog.info("upload", jobId, "Uploaded " + packagePath.getFileName() + " to " + target
+                        + ". Import Job ID: " + jobId);
+
+                CrossProdAssetExportUtility.startImportJob(result.session, jobId);
+                OrgSession session = result.session;
+                String state = CrossProdAssetExportUtility
+                        .watchImport(session, "Import " + jobId + " on " + target.getRegionUrl(), jobId).get();
+                ImportResults.collect(session, jobId, state);
+                if (!"SUCCESSFUL".equalsIgnoreCase(state)) {
+                    throw new RuntimeException("Import " + jobId + " of " + packagePath.getFileName()
+                            + " finished as " + state);
+                }
+            }
+        } catch (ExecutionException e) {
+            result.error = "Status check failed: " + e.getCause().getMessage();
+        } catch (InterruptedException e) {
+            result.error = "Interrupted";
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            result.error = e.getMessage();
+        } finally {
+            result.elapsedNanos = System.nanoTime() - start;
+        }
+    }
+
+    private static boolean printSummary(List<Result> results) {
+        int failed = 0;
+        EventLog.println("======= Fan-out import summary =======");
+        for (Result result : results) {
+            if (result.isSuccessful()) {
+                EventLog.println(String.format("  OK      %s jobs %s (%.1f s)", result.getTarget(),
+                        result.getImportJobIds(), result.elapsedNanos / 1_000_000_000.0));
+            } else {
+                failed++;
+                EventLog.println(String.format("  FAILED  %s jobs %s (%.1f s): %s", result.getTarget(),
+                        result.getImportJobIds(), result.elapsedNanos / 1_000_000_000.0, result.getError()));
+            }
+        }
+        EventLog.println("Imported into " + (results.size() - failed) + " of " + results.size() + " orgs, "
+                + failed + " failed.");
+        return failed == 0;
+    }
+}
@@ -0,0 +1,455 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+// Shared HTTP client for one IICS base URL (a login region or an org's serverUrl).
+// All REST calls go through a client so they share the JDK keep-alive pool: responses are always read to
+// the end and closed instead of disconnected, which lets the next request reuse the same TCP/TLS
+// connection. Every connection gets connect and read timeouts. For HTTPS the client counts the sockets it
+// actually opens, so the reuse rate can be reported at the end of a run.
+// HttpURLConnection speaks HTTP/1.1 only; multiplexing would need the Java 11 HttpClient, which this
+// utility does not require.
+// Requests to each base URL pass an OrgThrottle (rate limit, Retry-After pause, circuit breaker). send and
+// sendForFields retry throttled or failed calls with jittered exponential backoff: 429 and 503 are retried
+// for every call, because the server refused the request without acting on it, while other server errors
+// and broken connections are retried only for calls that are safe to repeat.
+public class IicsHttpClient {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 30_000;
+    private static final int READ_TIMEOUT_MILLIS = 300_000;
+    private static final int MAX_IDLE_CONNECTIONS_PER_HOST = 20;
+    private static final long BACKOFF_BASE_MILLIS = 500;
+    private static final long BACKOFF_MAX_MILLIS = 30_000;
+    private static final long RETRY_AFTER_MAX_MILLIS = 300_000;
+
+    // POST calls that only read or replace state, so repeating them after a failure does no harm
+    private static final Set<String> IDEMPOTENT_POSTS = new HashSet<>(Arrays.asList("/ma/api/v2/user/login",
+            "/ma/api/v2/user/logout", "/ma/api/v2/user/validSessionId", "/public/core/v3/lookup"));
+
+    private static volatile double requestsPerSecond = 20;
+    private static volatile int maxRetries = 5;
+
+    private static final Map<String, IicsHttpClient> CLIENTS = new ConcurrentHashMap<>();
+
+    // Every request that has not been read to the end yet, for the latency metrics and the circuit breaker
+    private static final Map<HttpURLConnection, Call> IN_FLIGHT = new ConcurrentHashMap<>();
+
+    static {
+        // The JDK keeps only 5 idle connections per host by default; allow more for concurrent polling
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", String.valueOf(MAX_IDLE_CONNECTIONS_PER_HOST));
+        }
+    }
+
+    private final String baseUrl;
+    private final CountingSocketFactory socketFactory;
+    private final OrgThrottle throttle;
+    private final AtomicLong requests = new AtomicLong();
+
+    // Start time and org of a request in flight
+    private static class Call {
+        private final long startNanos = System.nanoTime();
+        private final OrgThrottle throttle;
+
+        Call(OrgThrottle throttle) {
+            this.throttle = throttle;
+        }
+    }
+
+    // Status code and either the body or the requested JSON fields of a fully read response
+    public static class Response {
+        private final int code;
+        private final String body;
+        private final Map<String, String> fields;
+
+        public Response(int code, String body) {
+            this(code, body, Collections.<String, String>emptyMap());
+        }
+
+        public Response(int code, String body, Map<String, String> fields) {
+            this.code = code;
+            this.body = body;
+            this.fields = fields;
+        }
+
+        public int getCode() {
+            return code;
+        }
+
+        public String getBody() {
+            return body;
+        }
+
+        // Value of a JSON field requested with sendForFields, e.g. "status.state"
+        public String getField(String path) {
+            return fields.get(path);
+        }
+
+        public boolean isOk() {
+            return code == HttpURLConnection.HTTP_OK;
+        }
+    }
+
+    private IicsHttpClient(String baseUrl) {
+        this.baseUrl = baseUrl;
+        this.socketFactory = baseUrl.startsWith("https:")
+                ? new CountingSocketFactory(HttpsURLConnection.getDefaultSSLSocketFactory())
+                : null;
+        this.throttle = new OrgThrottle(baseUrl, requestsPerSecond);
+    }
+
+    // Method to set the request rate per org (0 for no limit) and the retries per call. Clients created
+    // before the call keep their rate limit, so this belongs at the start of a run.
+    public static void configure(double requestsPerSecondPerOrg, int retriesPerCall) {
+        requestsPerSecond = requestsPerSecondPerOrg;
+        maxRetries = retriesPerCall;
+    }
+
+    // Method to get the shared client for a base URL, e.g. https://dm-us.informaticacloud.com
+    public static IicsHttpClient forServer(String baseUrl) {
+        String normalized = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        return CLIENTS.computeIfAbsent(normalized, IicsHttpClient::new);
+    }
+
+    // Method to get the shared client for a login region, e.g. dm-us.informaticacloud.com. A region given
+    // as a full URL (e.g. http://localhost:8080 for a stub server) is used as is.
+    public static IicsHttpClient forRegion(String regionUrl) {
+        boolean hasScheme = regionUrl.startsWith("https://") || regionUrl.startsWith("http://");
+        return forServer(hasScheme ? regionUrl : "https://" + regionUrl);
+    }
+
+    // Method to open a connection for an API path. A non-null session ID is sent as INFA-SESSION-ID.
+    // Waits first when the org's rate limit, a Retry-After pause or an open circuit breaker asks for it.
+    public HttpURLConnection open(String method, String path, String sessionId) throws IOException {
+        long waitedNanos = throttle.acquire();
+        if (waitedNanos > TimeUnit.MILLISECONDS.toNanos(1)) {
+            Metrics.recordThrottleWait(baseUrl, waitedNanos);
+        }
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        if (socketFactory != null && connection instanceof HttpsURLConnection) {
+            ((HttpsURLConnection) connection).setSSLSocketFactory(socketFactory);
+        }
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        connection.setRequestMethod(method);
+        if (sessionId != null) {
+            connection.setRequestProperty("INFA-SESSION-ID", sessionId);
+        }
+        requests.incrementAndGet();
+        IN_FLIGHT.put(connection, new Call(throttle));
+        return connection;
+    }
+
+    // Method to send a request with an optional JSON body and read the whole response, retrying as allowed
+    public Response send(String method, String path, String sessionId, String jsonBody) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            Response response;
+            try {
+                response = execute(open(method, path, sessionId), jsonBody);
+            } catch (IOException e) {
+                if (!retryAfterFailure(method, path, -1, e, attempt)) {
+                    throw e;
+                }
+                continue;
+            }
+            if (!retryAfterFailure(method, path, response.getCode(), null, attempt)) {
+                return response;
+            }
+        }
+    }
+
+    // Method to send an opened connection with an optional JSON body and read the whole response
+    public Response execute(HttpURLConnection connection, String jsonBody) throws IOException {
+        try {
+            writeJson(connection, jsonBody);
+            int responseCode = connection.getResponseCode();
+            return new Response(responseCode, readBody(connection));
+        } catch (IOException e) {
+            recordCall(connection, -1);
+            throw e;
+        }
+    }
+
+    // Method to send a request and pull only the given JSON fields (full paths such as "status.state")
+    // from a successful response in one pass over the stream. Error responses are read as text.
+    public Response sendForFields(String method, String path, String sessionId, String jsonBody,
+            String... fieldPaths) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            Response response;
+            try {
+                response = executeForFields(open(method, path, sessionId), jsonBody, fieldPaths);
+            } catch (IOException e) {
+                if (!retryAfterFailure(method, path, -1, e, attempt)) {
+                    throw e;
+                }
+                continue;
+            }
+            if (!retryAfterFailure(method, path, response.getCode(), null, attempt)) {
+                return response;
+            }
+        }
+    }
+
+    // Method to send an opened connection with an optional JSON body and pull the given JSON fields
+    public Response executeForFields(HttpURLConnection connection, String jsonBody, String... fieldPaths)
+            throws IOException {
+        try {
+            writeJson(connection, jsonBody);
+        } catch (IOException e) {
+            recordCall(connection, -1);
+            throw e;
+        }
+        return readFields(connection, fieldPaths);
+    }
+
+    // Method to decide whether a call that got the given response code (or -1 with the error) is tried again.
+    // When it is, the backoff is slept here and true is returned; a Retry-After from the server has already
+    // paused the org, so the next open waits for it.
+    public boolean retryAfterFailure(String method, String path, int responseCode, IOException error, int attempt)
+            throws InterruptedIOException {
+        if (attempt > maxRetries || !isRetryable(method, path, responseCode, error)) {
+            return false;
+        }
+        String reason = responseCode >= 0 ? "HTTP " + responseCode : error.getClass().getSimpleName();
+        Metrics.recordRetry(baseUrl, reason);
+        long delayMillis = ThreadLocalRandom.current()
+                .nextLong(Math.min(BACKOFF_MAX_MILLIS, BACKOFF_BASE_MILLIS << Math.min(attempt - 1, 16)) + 1);
+        EventLog.warn(null, null, method + " " + path + " failed (" + reason + "), retry " + attempt + " of "
+                + maxRetries + " in " + delayMillis + " ms.");
+        try {
+            Thread.sleep(delayMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry " + method + " " + path);
+        }
+        return true;
+    }
+
+    static boolean isRetryable(String method, String path, int responseCode, IOException error) {
+        if (responseCode == 429 || responseCode == 503 || error instanceof ConnectException) {
+            // The server did not act on the request
+            return true;
+        }
+        if (error instanceof InterruptedIOException && !(error instanceof SocketTimeoutException)) {
+            return false;
+        }
+        boolean idempotent = "GET".equals(method) || "HEAD".equals(method) || IDEMPOTENT_POSTS.contains(path);
+        return idempotent && (error != null || responseCode == 500 || responseCode == 502 || responseCode == 504);
+    }
+
+    // Method to read the given JSON fields from the response of an already sent connection
+    public static Response readFields(HttpURLConnection connection, String... fieldPaths) throws IOException {
+        int responseCode = -1;
+        try {
+            responseCode = connection.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                return new Response(responseCode, readBody(connection));
+            }
+            try (InputStream in = connection.getInputStream()) {
+                Map<String, String> fields = JsonPullReader.readFields(in, fieldPaths);
+                // Consume whatever follows the last wanted field so the connection can be reused
+                byte[] buffer = new byte[8192];
+                while (in.read(buffer) != -1) {
+                    // discard
+                }
+                return new Response(responseCode, null, fields);
+            }
+        } finally {
+            recordCall(connection, responseCode);
+        }
+    }
+
+    private static void writeJson(HttpURLConnection connection, String jsonBody) throws IOException {
+        if (jsonBody == null) {
+            return;
+        }
+        byte[] input = jsonBody.getBytes(StandardCharsets.UTF_8);
+        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(input.length);
+        try (OutputStream outputStream = connection.getOutputStream()) {
+            outputStream.write(input);
+        }
+    }
+
+    // Method to read the response (or error) body to the end and close it, keeping the connection reusable
+    public static String readBody(HttpURLConnection connection) throws IOException {
+        int responseCode = -1;
+        InputStream in = null;
+        try {
+            responseCode = connection.getResponseCode();
+            in = responseCode >= 400 ? connection.getErrorStream() : connection.getInputStream();
+            if (in == null) {
+                return "";
+            }
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                body.write(buffer, 0, bytesRead);
+            }
+            return new String(body.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            if (in != null) {
+                in.close();
+            }
+            recordCall(connection, responseCode);
+        }
+    }
+
+    // Method to record the latency of a request once its response has been read to the end (or failed).
+    // Callers that stream a response themselves call this when they are done; later calls are ignored.
+    // The response code also feeds the org's circuit breaker, and a 429 or 503 pauses the org for as long
+    // as its Retry-After header asks.
+    public static void recordCall(HttpURLConnection connection, int responseCode) {
+        Call call = IN_FLIGHT.remove(connection);
+        if (call == null) {
+            return;
+        }
+        Metrics.recordApiCall(connection.getRequestMethod(), connection.getURL().getPath(), responseCode,
+                System.nanoTime() - call.startNanos);
+        call.throttle.onResponse(responseCode);
+        if (responseCode == 429 || responseCode == 503) {
+            long retryAfterMillis = retryAfterMillis(connection.getHeaderField("Retry-After"));
+            if (retryAfterMillis > 0) {
+                call.throttle.pause(TimeUnit.MILLISECONDS.toNanos(retryAfterMillis));
+            }
+        }
+    }
+
+    // Method to read a Retry-After value, given either in seconds or as an HTTP date; 0 when absent or invalid
+    static long retryAfterMillis(String retryAfter) {
+        if (retryAfter == null || retryAfter.trim().isEmpty()) {
+            return 0;
+        }
+        long millis;
+        try {
+            millis = Long.parseLong(retryAfter.trim()) * 1000;
+        } catch (NumberFormatException e) {
+            try {
+                ZonedDateTime until = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                millis = Duration.between(ZonedDateTime.now(until.getZone()), until).toMillis();
+            } catch (DateTimeParseException notADate) {
+                return 0;
+            }
+        }
+        return Math.max(0, Math.min(RETRY_AFTER_MAX_MILLIS, millis));
+    }
+
+    // Method to discard whatever is left of a response so the connection goes back to the pool
+    public static void release(HttpURLConnection connection) {
+        try {
+            readBody(connection);
+        } catch (IOException e) {
+            // The connection is broken and will not be reused anyway
+            connection.disconnect();
+        }
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    // Number of TCP/TLS connections opened, or -1 when it cannot be observed (plain HTTP)
+    public long getConnectionCount() {
+        return socketFactory == null ? -1 : socketFactory.created.get();
+    }
+
+    // Method to print request and connection reuse counts for every client used in this run
+    public static void printStats() {
+        if (CLIENTS.isEmpty()) {
+            return;
+        }
+        EventLog.println("======= HTTP connection summary =======");
+        for (IicsHttpClient client : CLIENTS.values()) {
+            long connections = client.getConnectionCount();
+            EventLog.println(String.format("  %-60s %5d requests  %s", client.baseUrl, client.getRequestCount(),
+                    connections < 0 ? "connections n/a"
+                            : connections + " connections (" + Math.max(0, client.getRequestCount() - connections)
+                                    + " reused)"));
+        }
+    }
+
+    // SSL socket factory that counts the sockets it creates. The same instance must be used for every
+    // request to a host, because the JDK only reuses pooled connections made by the same factory.
+    private static class CountingSocketFactory extends SSLSocketFactory {
+        private final SSLSocketFactory delegate;
+        private final AtomicLong created = new AtomicLong();
+
+        CountingSocketFactory(SSLSocketFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return delegate.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return delegate.getSupportedCipherSuites();
+        }
+
+        @Override
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+            created.incrementAndGet();
+            return delegate.createSocket(socket, host, port, autoClose);
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            created.incrementAndGet();
+            return delegate.createSocket();
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            created.incrementAndGet();
+            return delegate.createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            created.incrementAndGet();
+            return delegate.createSocket(host, port, localHost, localPort);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            created.incrementAndGet();
+            return delegate.createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+                throws IOException {
+            created.incrementAndGet();
+            return delegate.createSocket(address, port, localAddress, localPort);
+        }
+    }
+}
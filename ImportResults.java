@@ -0,0 +1,359 @@
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Per-object results of a finished import job.
+// Asked for with ?expand=objects, the import status response lists every object of the package with its own
+// state and message; without it, only the state of the job comes back. The response is pulled one object at
+// a time straight from the stream and each result is written to the report as soon as it is read, so neither
+// the body nor the list of results is ever held in memory; only the count per state and the first failed
+// objects are kept for the summary. With --import-report, every finished import gets a CSV or JSON report
+// named after its job ID; without it, the results are fetched only for an import that did not succeed, to
+// print which objects failed.
+public class ImportResults {
+
+    private static final int MAX_PRINTED_FAILURES = 20;
+
+    private static volatile Path reportDirectory;
+    private static volatile boolean json;
+
+    // Result of one object, refilled for every object of the response
+    public static class ObjectResult {
+        private String name;
+        private String path;
+        private String type;
+        private String sourceId;
+        private String targetId;
+        private String state;
+        private String message;
+
+        private void clear() {
+            name = null;
+            path = null;
+            type = null;
+            sourceId = null;
+            targetId = null;
+            state = null;
+            message = null;
+        }
+
+        public boolean isSuccessful() {
+            return "SUCCESSFUL".equalsIgnoreCase(state);
+        }
+
+        @Override
+        public String toString() {
+            return (path == null ? "" : path + "/") + name + " (" + type + ")";
+        }
+    }
+
+    // Counts per object state and the first objects that did not succeed
+    public static class Summary {
+        private final String importJobId;
+        private final String state;
+        private final Map<String, Integer> counts = new TreeMap<>();
+        private final List<String> failures = new ArrayList<>();
+        private int objects;
+        private int failed;
+        private Path report;
+
+        Summary(String importJobId, String state) {
+            this.importJobId = importJobId;
+            this.state = state;
+        }
+
+        private void add(ObjectResult result) {
+            objects++;
+            counts.merge(result.state == null ? "UNKNOWN" : result.state.toUpperCase(), 1, Integer::sum);
+            if (!result.isSuccessful()) {
+                failed++;
+                if (failures.size() < MAX_PRINTED_FAILURES) {
+                    failures.add(result.state + "  " + result
+                            + (result.message == null || result.message.isEmpty() ? "" : ": " + result.message));
+                }
+            }
+        }
+
+        public int getObjects() {
+            return objects;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        public Map<String, Integer> getCounts() {
+            return counts;
+        }
+
+        // Report file of the import, or null when no report was written
+        public Path getReport() {
+            return report;
+        }
+
+        @Override
+        public String toString() {
+            return "Import " + importJobId + " (" + state + "): " + objects + " objects " + counts;
+        }
+    }
+
+    // Method to write a report for every finished import into the directory (null for none), as JSON
+    // instead of CSV when asked
+    public static void configure(Path directory, boolean jsonFormat) throws IOException {
+        if (directory != null) {
+            Files.createDirectories(directory);
+        }
+        reportDirectory = directory;
+        json = jsonFormat;
+    }
+
+    // Method to fetch the per-object results of an import that finished in the given state, write its report
+    // and print the objects that failed. Returns null when there was nothing to fetch or the results could
+    // not be read; the import itself is not affected.
+    public static Summary collect(OrgSession target, String importJobId, String state) {
+        if (reportDirectory == null && "SUCCESSFUL".equalsIgnoreCase(state)) {
+            return null;
+        }
+        try {
+            Summary summary = fetch(target, importJobId, state);
+            EventLog.info("import", importJobId, summary
+                    + (summary.report == null ? "" : ". Report: " + summary.report));
+            for (String failure : summary.failures) {
+                EventLog.warn("import", importJobId, "  " + failure);
+            }
+            if (summary.failed > summary.failures.size()) {
+                EventLog.warn("import", importJobId, "  ... and " + (summary.failed - summary.failures.size())
+                        + " more objects that did not succeed");
+            }
+            return summary;
+        } catch (IOException e) {
+            EventLog.warn("import", importJobId, "Could not read the object results of import " + importJobId
+                    + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Method to stream the object results of an import job into a summary and, when configured, a report.
+    // A failed or broken response is retried like any other GET, starting the report over.
+    public static Summary fetch(OrgSession target, String importJobId, String state) throws IOException {
+        IicsHttpClient client = IicsHttpClient.forServer(target.getServerUrl());
+        String path = "/public/core/v3/import/" + importJobId + "?expand=objects";
+        for (int attempt = 1; ; attempt++) {
+            HttpURLConnection connection = client.open("GET", path, target.getIcSessionId());
+            int responseCode = -1;
+            String errorBody;
+            try {
+                responseCode = connection.getResponseCode();
+                if (responseCode == HttpURLConnection.HTTP_OK) {
+                    return read(connection.getInputStream(), target, importJobId, state);
+                }
+                errorBody = IicsHttpClient.readBody(connection);
+            } catch (IOException e) {
+                IicsHttpClient.recordCall(connection, -1);
+                if (!client.retryAfterFailure("GET", path, -1, e, attempt)) {
+                    throw e;
+                }
+                continue;
+            } finally {
+                IicsHttpClient.recordCall(connection, responseCode);
+            }
+            if (!client.retryAfterFailure("GET", path, responseCode, null, attempt)) {
+                throw new IOException("Failed to fetch the import results. HTTP Error Code: " + responseCode
+                        + ". Response Body: " + EventLog.body(errorBody));
+            }
+        }
+    }
+
+    // Method to read the objects array of an import status response, passing each object on as it is read
+    static Summary read(InputStream in, OrgSession target, String importJobId, String state) throws IOException {
+        Summary summary = new Summary(importJobId, state);
+        Path report = reportDirectory == null ? null
+                : reportDirectory.resolve("import-" + importJobId.replaceAll("[^A-Za-z0-9._-]", "_")
+                        + (json ? ".json" : ".csv"));
+        Path partial = report == null ? null : report.resolveSibling(report.getFileName() + ".part");
+
+        try (InputStream stream = in;
+                ReportWriter writer = partial == null ? null : new ReportWriter(partial, json)) {
+            if (writer != null) {
+                writer.begin(target, importJobId, state);
+            }
+            JsonPullReader reader = new JsonPullReader(stream);
+            ObjectResult result = new ObjectResult();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!"objects".equals(reader.nextName()) || reader.peek() != JsonPullReader.Token.BEGIN_ARRAY) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    readObject(reader, result);
+                    summary.add(result);
+                    if (writer != null) {
+                        writer.write(result);
+                    }
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+
+            // Consume whatever follows the document so the connection can be reused
+            byte[] buffer = new byte[8192];
+            while (stream.read(buffer) != -1) {
+                // discard
+            }
+            if (writer != null) {
+                writer.end(summary);
+            }
+        } catch (IOException | RuntimeException e) {
+            if (partial != null) {
+                Files.deleteIfExists(partial);
+            }
+            throw e;
+        }
+        if (report != null) {
+            Files.move(partial, report, StandardCopyOption.REPLACE_EXISTING);
+            summary.report = report;
+        }
+        return summary;
+    }
+
+    // Method to read one entry of the objects array: its source and target object and its status
+    private static void readObject(JsonPullReader reader, ObjectResult result) throws IOException {
+        result.clear();
+        if (reader.peek() != JsonPullReader.Token.BEGIN_OBJECT) {
+            reader.skipValue();
+            return;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() != JsonPullReader.Token.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String field = reader.nextName();
+                if (reader.peek() == JsonPullReader.Token.BEGIN_OBJECT
+                        || reader.peek() == JsonPullReader.Token.BEGIN_ARRAY) {
+                    reader.skipValue();
+                    continue;
+                }
+                String value = reader.nextString();
+                if ("status".equals(name)) {
+                    if ("state".equals(field)) {
+                        result.state = value;
+                    } else if ("message".equals(field)) {
+                        result.message = value;
+                    }
+                } else if ("sourceObject".equals(name) || "targetObject".equals(name)) {
+                    boolean source = "sourceObject".equals(name);
+                    // The source object names the result; the target object fills in what it leaves out
+                    if ("id".equals(field)) {
+                        if (source) {
+                            result.sourceId = value;
+                        } else {
+                            result.targetId = value;
+                        }
+                    } else if ("name".equals(field) && (source || result.name == null)) {
+                        result.name = value;
+                    } else if ("path".equals(field) && (source || result.path == null)) {
+                        result.path = value;
+                    } else if ("type".equals(field) && (source || result.type == null)) {
+                        result.type = value;
+                    }
+                }
+            }
+            reader.endObject();
+        }
+        reader.endObject();
+    }
+
+    // Writes the report of one import as CSV rows or as one JSON document, row by row
+    private static class ReportWriter implements Closeable {
+        private static final String[] COLUMNS = { "name", "path", "type", "sourceId", "targetId", "state",
+                "message" };
+
+        private final Writer out;
+        private final boolean json;
+        private boolean first = true;
+
+        ReportWriter(Path file, boolean json) throws IOException {
+            this.out = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8), 64 * 1024);
+            this.json = json;
+        }
+
+        void begin(OrgSession target, String importJobId, String state) throws IOException {
+            if (json) {
+                out.write("{\"importJobId\":" + quote(importJobId) + ",\"target\":" + quote(target.getRegionUrl())
+                        + ",\"username\":" + quote(target.getUsername()) + ",\"state\":" + quote(state)
+                        + ",\"objects\":[");
+            } else {
+                out.write(String.join(",", COLUMNS));
+                out.write('\n');
+            }
+        }
+
+        void write(ObjectResult result) throws IOException {
+            String[] values = { result.name, result.path, result.type, result.sourceId, result.targetId,
+                    result.state, result.message };
+            if (json) {
+                out.write(first ? "\n{" : ",\n{");
+                for (int i = 0; i < COLUMNS.length; i++) {
+                    out.write((i == 0 ? "\"" : ",\"") + COLUMNS[i] + "\":" + quote(values[i]));
+                }
+                out.write('}');
+            } else {
+                for (int i = 0; i < values.length; i++) {
+                    if (i > 0) {
+                        out.write(',');
+                    }
+                    out.write(csv(values[i]));
+                }
+                out.write('\n');
+            }
+            first = false;
+        }
+
+        void end(Summary summary) throws IOException {
+            if (json) {
+                out.write("\n],\"objectCount\":" + summary.objects + ",\"failedCount\":" + summary.failed + "}\n");
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+        private static String quote(String value) {
+            return value == null ? "null" : Json.quote(value);
+        }
+
+        // Helper function quoting a CSV value when it holds a separator, a quote or a line break
+        private static String csv(String value) {
+            if (value == null) {
+                return "";
+            }
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                    return '"' + value.replace("\"", "\"\"") + '"';
+                }
+            }
+            return value;
+        }
+    }
+}
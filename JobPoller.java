@@ -0,0 +1,360 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Shared status poller for export and import jobs.
+// A single scheduler thread decides when each watched job is due; the status requests themselves run on a
+// separate pool, because they block, wait for their org's rate limit or circuit breaker and retry, and one
+// slow or paused org must not hold up the polls of the others. Each job gets a fast first poll, then the
+// delay grows exponentially (with jitter) up to a ceiling, and drops back to the first-poll delay whenever
+// the reported state changes. The time each job took to reach a terminal state is recorded.
+// Jobs watched with a batch fetcher are grouped (e.g. all imports of one org session) and the whole group is
+// checked with one list request whenever any of its jobs is due, and each waiting caller's future is completed
+// from that answer. The first request of a group doubles as the probe: when it fails, or the org answers it
+// with an error or without any of the jobs asked for, the group falls back to polling its jobs one by one for
+// good. A failed batch request never counts against the jobs themselves.
+public class JobPoller {
+
+    private static final double BACKOFF_MULTIPLIER = 2.0;
+    private static final double JITTER_RATIO = 0.2;
+    private static final int MAX_CONSECUTIVE_FAILURES = 5;
+
+    private static volatile JobPoller shared = new JobPoller(500, 10000);
+
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService fetchers;
+    private final List<JobTiming> timings = new ArrayList<>();
+    private final Map<String, JobGroup> groups = new HashMap<>();
+
+    // Written on the scheduler thread only
+    private volatile long batchRequests;
+    private volatile long batchedPolls;
+
+    // Fetches the current state of a job, e.g. IN_PROGRESS or SUCCESSFUL
+    public interface StatusFetcher {
+        String fetchState() throws Exception;
+    }
+
+    // Fetches the states of several jobs in one request, keyed by job ID; returns null when the org has no
+    // such query. Jobs missing from the answer are polled one by one.
+    public interface BatchStatusFetcher {
+        Map<String, String> fetchStates(List<String> jobIds) throws Exception;
+    }
+
+    // Time-to-terminal-state record for one job
+    public static class JobTiming {
+        private final String jobName;
+        private final String finalState;
+        private final int polls;
+        private final long elapsedMillis;
+
+        JobTiming(String jobName, String finalState, int polls, long elapsedMillis) {
+            this.jobName = jobName;
+            this.finalState = finalState;
+            this.polls = polls;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public String getJobName() {
+            return jobName;
+        }
+
+        public String getFinalState() {
+            return finalState;
+        }
+
+        public int getPolls() {
+            return polls;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+    }
+
+    // Polling state of one watched job; touched by one thread at a time, handed over through the executors
+    private static class PolledJob {
+        private final String name;
+        private final StatusFetcher fetcher;
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+        private final long startNanos = System.nanoTime();
+        private String jobId;
+        private String lastState;
+        private long delayMillis;
+        private long dueNanos;
+        private int polls;
+        private int consecutiveFailures;
+
+        PolledJob(String name, StatusFetcher fetcher, long delayMillis) {
+            this.name = name;
+            this.fetcher = fetcher;
+            this.delayMillis = delayMillis;
+        }
+
+        // Phase the job belongs to, from its name, e.g. "export" for "Export 0a1b2c"
+        private String phase() {
+            int space = name.indexOf(' ');
+            return (space > 0 ? name.substring(0, space) : name).toLowerCase();
+        }
+    }
+
+    // Jobs checked together with one list request; only touched from the scheduler thread
+    private static class JobGroup {
+        private final String key;
+        private final BatchStatusFetcher fetcher;
+        private final Map<String, PolledJob> jobs = new LinkedHashMap<>();
+        private boolean unsupported;
+        private boolean fetching;
+        private ScheduledFuture<?> nextPoll;
+        private long nextPollNanos;
+
+        JobGroup(String key, BatchStatusFetcher fetcher) {
+            this.key = key;
+            this.fetcher = fetcher;
+        }
+    }
+
+    public JobPoller(long initialDelayMillis, long maxDelayMillis) {
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = Math.max(initialDelayMillis, maxDelayMillis);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "job-poller");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger threadCounter = new AtomicInteger();
+        this.fetchers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "job-poller-fetch-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static JobPoller shared() {
+        return shared;
+    }
+
+    // Method to replace the shared poller with one using the given backoff curve
+    public static void configureShared(long initialDelayMillis, long maxDelayMillis) {
+        shared = new JobPoller(initialDelayMillis, maxDelayMillis);
+    }
+
+    // Method to start watching a job; the future completes with its terminal state
+    public CompletableFuture<String> watch(String jobName, StatusFetcher fetcher) {
+        PolledJob job = new PolledJob(jobName, fetcher, initialDelayMillis);
+        schedulePoll(job, initialDelayMillis);
+        return job.result;
+    }
+
+    // Method to start watching a job that can be checked together with the other jobs of its group, e.g.
+    // "import <serverUrl> <session>"; fetcher is used when the group cannot be checked in one request, and
+    // always when batchFetcher is null
+    public CompletableFuture<String> watch(String jobName, String groupKey, String jobId,
+            BatchStatusFetcher batchFetcher, StatusFetcher fetcher) {
+        PolledJob job = new PolledJob(jobName, fetcher, initialDelayMillis);
+        job.jobId = jobId;
+        scheduler.execute(() -> join(groupKey, batchFetcher, job));
+        return job.result;
+    }
+
+    // Method to add a job to its group, or poll it on its own once the group is known to be unsupported
+    private void join(String groupKey, BatchStatusFetcher batchFetcher, PolledJob job) {
+        JobGroup group = batchFetcher == null ? null
+                : groups.computeIfAbsent(groupKey, k -> new JobGroup(k, batchFetcher));
+        if (group == null || group.unsupported) {
+            schedulePoll(job, initialDelayMillis);
+            return;
+        }
+        job.dueNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(initialDelayMillis);
+        group.jobs.put(job.jobId, job);
+        scheduleGroup(group);
+    }
+
+    // Method to make sure the group is checked when its earliest job is due; a group whose request is still
+    // out is scheduled again once the answer is in
+    private void scheduleGroup(JobGroup group) {
+        if (group.jobs.isEmpty() || group.fetching) {
+            return;
+        }
+        long dueNanos = Long.MAX_VALUE;
+        for (PolledJob job : group.jobs.values()) {
+            dueNanos = Math.min(dueNanos, job.dueNanos);
+        }
+        if (group.nextPoll != null) {
+            if (group.nextPollNanos - dueNanos <= 0) {
+                return;
+            }
+            group.nextPoll.cancel(false);
+        }
+        long delayNanos = Math.max(0, dueNanos - System.nanoTime());
+        group.nextPollNanos = dueNanos;
+        group.nextPoll = scheduler.schedule(() -> pollGroup(group), delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    // Method to check every job of the group with one request, sent from the fetch pool
+    private void pollGroup(JobGroup group) {
+        group.nextPoll = null;
+        if (group.jobs.isEmpty()) {
+            return;
+        }
+        List<String> jobIds = new ArrayList<>(group.jobs.keySet());
+        group.fetching = true;
+        fetchers.execute(() -> {
+            try {
+                Map<String, String> states = group.fetcher.fetchStates(jobIds);
+                scheduler.execute(() -> groupAnswered(group, jobIds, states, null));
+            } catch (Exception e) {
+                scheduler.execute(() -> groupAnswered(group, jobIds, null, e.getMessage()));
+            }
+        });
+    }
+
+    // Method run on the scheduler thread to hand the answer of a group request to the waiting callers
+    private void groupAnswered(JobGroup group, List<String> jobIds, Map<String, String> states, String reason) {
+        group.fetching = false;
+        if (states == null || states.isEmpty()) {
+            // The org cannot list these jobs; poll them, and every later job of the group, one by one
+            EventLog.info("poll", null, "No batch status query for " + group.key
+                    + (reason == null ? "" : " (" + reason + ")") + ", checking jobs one by one.");
+            group.unsupported = true;
+            for (PolledJob job : group.jobs.values()) {
+                fetchers.execute(() -> poll(job));
+            }
+            group.jobs.clear();
+            return;
+        }
+
+        batchRequests++;
+        long now = System.nanoTime();
+        for (String jobId : jobIds) {
+            PolledJob job = group.jobs.get(jobId);
+            String state = states.get(jobId);
+            if (state == null) {
+                // Not in the answer, e.g. too new for the list yet; check it on its own
+                group.jobs.remove(jobId);
+                fetchers.execute(() -> poll(job));
+                continue;
+            }
+            job.polls++;
+            batchedPolls++;
+            if (update(job, state)) {
+                group.jobs.remove(jobId);
+            } else {
+                job.dueNanos = now + TimeUnit.MILLISECONDS.toNanos(withJitter(job.delayMillis));
+            }
+        }
+        scheduleGroup(group);
+    }
+
+    // Method to have the scheduler hand the job's next poll to the fetch pool once the delay is up
+    private void schedulePoll(PolledJob job, long delayMillis) {
+        scheduler.schedule(() -> fetchers.execute(() -> poll(job)), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Method run on the fetch pool to poll a job once and schedule the next poll if it is not finished
+    private void poll(PolledJob job) {
+        job.polls++;
+        try {
+            if (update(job, job.fetcher.fetchState())) {
+                return;
+            }
+        } catch (Exception e) {
+            if (failed(job, e)) {
+                return;
+            }
+        }
+
+        schedulePoll(job, withJitter(job.delayMillis));
+    }
+
+    // Method to take in a job's current state; returns true when the job is finished and its caller told
+    private boolean update(PolledJob job, String state) {
+        job.consecutiveFailures = 0;
+        if (!Objects.equals(state, job.lastState)) {
+            // State changed, so poll quickly again
+            EventLog.info(job.phase(), job.jobId, job.name + " status: " + state);
+            job.lastState = state;
+            job.delayMillis = initialDelayMillis;
+        } else {
+            job.delayMillis = nextDelay(job.delayMillis);
+        }
+
+        if (isTerminal(state)) {
+            record(job, state);
+            job.result.complete(state);
+            return true;
+        }
+        return false;
+    }
+
+    // Method to count a failed status check; returns true when the job was given up on
+    private boolean failed(PolledJob job, Exception e) {
+        job.consecutiveFailures++;
+        EventLog.warn(job.phase(), job.jobId, "Failed to check status of " + job.name + " (attempt "
+                + job.consecutiveFailures + "): " + e.getMessage());
+        if (job.consecutiveFailures >= MAX_CONSECUTIVE_FAILURES) {
+            record(job, "ERROR");
+            job.result.completeExceptionally(e);
+            return true;
+        }
+        job.delayMillis = nextDelay(job.delayMillis);
+        return false;
+    }
+
+    public static boolean isTerminal(String state) {
+        return "SUCCESSFUL".equalsIgnoreCase(state) || "FAILED".equalsIgnoreCase(state);
+    }
+
+    private long nextDelay(long delayMillis) {
+        return Math.min(maxDelayMillis, (long) (delayMillis * BACKOFF_MULTIPLIER));
+    }
+
+    private static long withJitter(long delayMillis) {
+        double factor = 1.0 + ThreadLocalRandom.current().nextDouble(-JITTER_RATIO, JITTER_RATIO);
+        return Math.max(1, (long) (delayMillis * factor));
+    }
+
+    private void record(PolledJob job, String finalState) {
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - job.startNanos);
+        synchronized (timings) {
+            timings.add(new JobTiming(job.name, finalState, job.polls, elapsedMillis));
+        }
+        Metrics.recordJob(job.name, finalState, job.polls, elapsedMillis);
+    }
+
+    public List<JobTiming> getTimings() {
+        synchronized (timings) {
+            return new ArrayList<>(timings);
+        }
+    }
+
+    // Method to print the time-to-terminal-state of every finished job
+    public void printTimings() {
+        List<JobTiming> finished = getTimings();
+        if (finished.isEmpty()) {
+            return;
+        }
+        EventLog.println("======= Job polling summary =======");
+        for (JobTiming timing : finished) {
+            EventLog.println(String.format("  %-40s %-10s %6.1f s  %3d polls", timing.getJobName(),
+                    timing.getFinalState(), timing.getElapsedMillis() / 1000.0, timing.getPolls()));
+        }
+        if (batchRequests > 0) {
+            EventLog.println("  " + batchedPolls + " status checks answered by " + batchRequests
+                    + " batch requests.");
+        }
+    }
+}
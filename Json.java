@@ -0,0 +1,68 @@
+import java.io.IOException;
+import java.util.Map;
+
+// JSON writing helpers shared by every class that emits or rewrites JSON, to go with JsonPullReader for
+// reading it: quoting a string as a JSON literal and copying a value from a reader to an output.
+public class Json {
+
+    // Method to copy one JSON value; the scalar fields of a top-level object are captured when asked
+    static void copyValue(JsonPullReader reader, Appendable out, Map<String, String> captureFields)
+            throws IOException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                reader.beginObject();
+                out.append('{');
+                boolean first = true;
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    out.append(first ? "" : ",").append(quote(name)).append(':');
+                    first = false;
+                    JsonPullReader.Token token = reader.peek();
+                    if (captureFields != null && token != JsonPullReader.Token.BEGIN_OBJECT
+                            && token != JsonPullReader.Token.BEGIN_ARRAY) {
+                        String value = reader.nextString();
+                        captureFields.put(name, value);
+                        out.append(token == JsonPullReader.Token.STRING ? quote(value) : String.valueOf(value));
+                    } else {
+                        copyValue(reader, out, null);
+                    }
+                }
+                reader.endObject();
+                out.append('}');
+                break;
+            case BEGIN_ARRAY:
+                reader.beginArray();
+                out.append('[');
+                for (boolean firstElement = true; reader.hasNext(); firstElement = false) {
+                    out.append(firstElement ? "" : ",");
+                    copyValue(reader, out, null);
+                }
+                reader.endArray();
+                out.append(']');
+                break;
+            case STRING:
+                out.append(quote(reader.nextString()));
+                break;
+            default:
+                // Numbers and booleans keep their JSON spelling; null comes back as null
+                out.append(String.valueOf(reader.nextString()));
+                break;
+        }
+    }
+
+    // Method to write a string as a JSON string literal, escaping quotes, backslashes and control characters
+    static String quote(String value) {
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -0,0 +1,446 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+// Small dependency-free streaming JSON reader.
+// Tokens are pulled one at a time straight from the response stream through a fixed 8 KB buffer, so a
+// response is never held in memory as a whole. Values are addressed by their full path from the root
+// (e.g. "status.state" or "objects[0].id"), so a nested "id" or "state" is never mistaken for the
+// top-level one. Numbers, booleans, null and escaped strings are all handled.
+public class JsonPullReader implements Closeable {
+
+    // Kinds of token the reader can return
+    public enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    // What the reader expects next in the current container
+    private static final int DOCUMENT_START = 0;
+    private static final int DOCUMENT_END = 1;
+    private static final int OBJECT_START = 2;
+    private static final int OBJECT_AFTER_NAME = 3;
+    private static final int OBJECT_AFTER_VALUE = 4;
+    private static final int ARRAY_START = 5;
+    private static final int ARRAY_AFTER_VALUE = 6;
+
+    private final Reader in;
+    private final char[] buffer = new char[8192];
+    private int pos;
+    private int limit;
+
+    private int[] stack = new int[32];
+    private int depth = 1;
+
+    private Token peeked;
+    private String peekedValue;
+    private boolean peekedValuePending;
+
+    private final StringBuilder text = new StringBuilder();
+
+    public JsonPullReader(Reader in) {
+        this.in = in;
+        stack[0] = DOCUMENT_START;
+    }
+
+    public JsonPullReader(InputStream in) {
+        this(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    // Method to read the scalar values at the given paths in a single pass over the stream.
+    // Reading stops as soon as every path has been found; missing paths are absent from the result.
+    public static Map<String, String> readFields(InputStream in, String... paths) throws IOException {
+        JsonPullReader reader = new JsonPullReader(in);
+        Map<String, String> found = new HashMap<>();
+        reader.collect("", new HashSet<>(Arrays.asList(paths)), prefixesOf(paths), found);
+        return found;
+    }
+
+    // Every container path that leads to one of the wanted paths, including the root ""
+    private static Set<String> prefixesOf(String[] paths) {
+        Set<String> prefixes = new HashSet<>();
+        prefixes.add("");
+        for (String path : paths) {
+            for (int i = 0; i < path.length(); i++) {
+                char c = path.charAt(i);
+                if (c == '.' || c == '[') {
+                    prefixes.add(path.substring(0, i));
+                }
+            }
+        }
+        return prefixes;
+    }
+
+    // Method to walk the value at the current position; returns true once all wanted paths are found
+    private boolean collect(String path, Set<String> wanted, Set<String> prefixes, Map<String, String> found)
+            throws IOException {
+        switch (peek()) {
+            case BEGIN_OBJECT:
+                if (!prefixes.contains(path)) {
+                    skipValue();
+                    return false;
+                }
+                beginObject();
+                while (hasNext()) {
+                    String name = nextName();
+                    if (collect(path.isEmpty() ? name : path + "." + name, wanted, prefixes, found)) {
+                        return true;
+                    }
+                }
+                endObject();
+                return false;
+            case BEGIN_ARRAY:
+                if (!prefixes.contains(path)) {
+                    skipValue();
+                    return false;
+                }
+                beginArray();
+                for (int index = 0; hasNext(); index++) {
+                    if (collect(path + "[" + index + "]", wanted, prefixes, found)) {
+                        return true;
+                    }
+                }
+                endArray();
+                return false;
+            default:
+                if (!wanted.contains(path)) {
+                    skipValue();
+                    return false;
+                }
+                found.put(path, nextString());
+                return found.size() == wanted.size();
+        }
+    }
+
+    // Method to look at the next token without consuming it
+    public Token peek() throws IOException {
+        if (peeked != null) {
+            return peeked;
+        }
+
+        int c;
+        switch (stack[depth - 1]) {
+            case DOCUMENT_START:
+                stack[depth - 1] = DOCUMENT_END;
+                return peekValue(nextNonWhitespace());
+            case DOCUMENT_END:
+                c = nextNonWhitespace();
+                if (c != -1) {
+                    throw syntaxError("Unexpected data after the end of the document");
+                }
+                return peeked = Token.END_DOCUMENT;
+            case ARRAY_START:
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return peeked = Token.END_ARRAY;
+                }
+                stack[depth - 1] = ARRAY_AFTER_VALUE;
+                return peekValue(c);
+            case ARRAY_AFTER_VALUE:
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return peeked = Token.END_ARRAY;
+                }
+                if (c != ',') {
+                    throw syntaxError("Expected ',' or ']'");
+                }
+                return peekValue(nextNonWhitespace());
+            case OBJECT_START:
+            case OBJECT_AFTER_VALUE:
+                c = nextNonWhitespace();
+                if (c == '}') {
+                    return peeked = Token.END_OBJECT;
+                }
+                if (stack[depth - 1] == OBJECT_AFTER_VALUE) {
+                    if (c != ',') {
+                        throw syntaxError("Expected ',' or '}'");
+                    }
+                    c = nextNonWhitespace();
+                }
+                if (c != '"') {
+                    throw syntaxError("Expected a property name");
+                }
+                stack[depth - 1] = OBJECT_AFTER_NAME;
+                peekedValuePending = true;
+                return peeked = Token.NAME;
+            case OBJECT_AFTER_NAME:
+                if (nextNonWhitespace() != ':') {
+                    throw syntaxError("Expected ':'");
+                }
+                stack[depth - 1] = OBJECT_AFTER_VALUE;
+                return peekValue(nextNonWhitespace());
+            default:
+                throw new IllegalStateException("Unknown reader state");
+        }
+    }
+
+    // Method to classify a value from its first character; string contents are read lazily
+    private Token peekValue(int c) throws IOException {
+        switch (c) {
+            case '{':
+                return peeked = Token.BEGIN_OBJECT;
+            case '[':
+                return peeked = Token.BEGIN_ARRAY;
+            case '"':
+                peekedValuePending = true;
+                return peeked = Token.STRING;
+            case 't':
+                expectLiteral("rue");
+                peekedValue = "true";
+                return peeked = Token.BOOLEAN;
+            case 'f':
+                expectLiteral("alse");
+                peekedValue = "false";
+                return peeked = Token.BOOLEAN;
+            case 'n':
+                expectLiteral("ull");
+                peekedValue = null;
+                return peeked = Token.NULL;
+            case -1:
+                throw syntaxError("Unexpected end of input");
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    peekedValue = readNumber((char) c);
+                    return peeked = Token.NUMBER;
+                }
+                throw syntaxError("Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    public boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    public void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        push(OBJECT_START);
+    }
+
+    public void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        depth--;
+    }
+
+    public void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        push(ARRAY_START);
+    }
+
+    public void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        depth--;
+    }
+
+    public String nextName() throws IOException {
+        expect(Token.NAME);
+        return readString();
+    }
+
+    // Method to read a scalar value as text; numbers and booleans keep their JSON spelling, null is null
+    public String nextString() throws IOException {
+        Token token = peek();
+        switch (token) {
+            case STRING:
+                peeked = null;
+                return readString();
+            case NUMBER:
+            case BOOLEAN:
+            case NULL:
+                peeked = null;
+                return peekedValue;
+            default:
+                throw syntaxError("Expected a value but was " + token);
+        }
+    }
+
+    // Method to skip the next value, including everything nested inside it, without building strings
+    public void skipValue() throws IOException {
+        int nesting = 0;
+        do {
+            Token token = peek();
+            peeked = null;
+            switch (token) {
+                case BEGIN_OBJECT:
+                    push(OBJECT_START);
+                    nesting++;
+                    break;
+                case BEGIN_ARRAY:
+                    push(ARRAY_START);
+                    nesting++;
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    depth--;
+                    nesting--;
+                    break;
+                case NAME:
+                case STRING:
+                    skipString();
+                    break;
+                case END_DOCUMENT:
+                    return;
+                default:
+                    break;
+            }
+        } while (nesting > 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void expect(Token expected) throws IOException {
+        Token token = peek();
+        if (token != expected) {
+            throw syntaxError("Expected " + expected + " but was " + token);
+        }
+        peeked = null;
+    }
+
+    private void push(int scope) {
+        if (depth == stack.length) {
+            stack = Arrays.copyOf(stack, depth * 2);
+        }
+        stack[depth++] = scope;
+    }
+
+    // Method to read the rest of a string whose opening quote was already consumed
+    private String readString() throws IOException {
+        peekedValuePending = false;
+        text.setLength(0);
+        while (true) {
+            int start = pos;
+            while (pos < limit) {
+                char c = buffer[pos++];
+                if (c == '"') {
+                    text.append(buffer, start, pos - 1 - start);
+                    return text.toString();
+                }
+                if (c == '\\') {
+                    text.append(buffer, start, pos - 1 - start);
+                    text.append(readEscape());
+                    start = pos;
+                }
+            }
+            text.append(buffer, start, pos - start);
+            if (!fill()) {
+                throw syntaxError("Unterminated string");
+            }
+        }
+    }
+
+    private void skipString() throws IOException {
+        if (!peekedValuePending) {
+            return;
+        }
+        peekedValuePending = false;
+        while (true) {
+            while (pos < limit) {
+                char c = buffer[pos++];
+                if (c == '"') {
+                    return;
+                }
+                if (c == '\\') {
+                    readEscape();
+                }
+            }
+            if (!fill()) {
+                throw syntaxError("Unterminated string");
+            }
+        }
+    }
+
+    private char readEscape() throws IOException {
+        int c = read();
+        switch (c) {
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit < 0) {
+                        throw syntaxError("Invalid unicode escape");
+                    }
+                    value = (value << 4) | digit;
+                }
+                return (char) value;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case '"':
+            case '\\':
+            case '/':
+                return (char) c;
+            default:
+                throw syntaxError("Invalid escape sequence");
+        }
+    }
+
+    private String readNumber(char first) throws IOException {
+        text.setLength(0);
+        text.append(first);
+        while (true) {
+            if (pos == limit && !fill()) {
+                break;
+            }
+            char c = buffer[pos];
+            if ((c >= '0' && c <= '9') || c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+                text.append(c);
+                pos++;
+            } else {
+                break;
+            }
+        }
+        return text.toString();
+    }
+
+    private void expectLiteral(String rest) throws IOException {
+        for (int i = 0; i < rest.length(); i++) {
+            if (read() != rest.charAt(i)) {
+                throw syntaxError("Invalid literal");
+            }
+        }
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        while (true) {
+            int c = read();
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+        }
+    }
+
+    private int read() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buffer[pos++];
+    }
+
+    private boolean fill() throws IOException {
+        int count = in.read(buffer, 0, buffer.length);
+        pos = 0;
+        limit = Math.max(count, 0);
+        return count > 0;
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException("Malformed JSON: " + message);
+    }
+}
@@ -0,0 +1,154 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+// Micro-benchmark comparing the old "read the whole body, then extractValue" parsing with JsonPullReader
+// on login, export status and multi-MB import status payloads shaped like the real IICS responses.
+// Run with: javac JsonReaderBenchmark.java && java -Xms1g -Xmx1g JsonReaderBenchmark
+public class JsonReaderBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASURED_ITERATIONS = 10;
+    private static final long ITERATION_NANOS = 1_000_000_000L;
+
+    // Keeps results alive so the JIT cannot drop the work being measured
+    private static volatile Object sink;
+
+    // A parsing strategy under test
+    private interface Parser {
+        Object parse(byte[] payload) throws IOException;
+    }
+
+    public static void main(String[] args) throws IOException {
+        byte[] login = loginPayload();
+        byte[] exportStatus = exportStatusPayload(50);
+        byte[] importStatus = importStatusPayload(20_000);
+
+        System.out.println(String.format("Payload sizes: login %d B, export status %d B, import status %.1f MB",
+                login.length, exportStatus.length, importStatus.length / (1024.0 * 1024.0)));
+        System.out.println(String.format("%-36s %14s %16s", "Benchmark", "avg time/op", "allocated/op"));
+
+        run("login / extractValue", login,
+                payload -> extractAll(readAsString(payload), "serverUrl", "icSessionId"));
+        run("login / JsonPullReader", login,
+                payload -> JsonPullReader.readFields(new ByteArrayInputStream(payload), "serverUrl", "icSessionId"));
+        run("export status / extractValue", exportStatus,
+                payload -> extractAll(readAsString(payload), "state"));
+        run("export status / JsonPullReader", exportStatus,
+                payload -> JsonPullReader.readFields(new ByteArrayInputStream(payload), "status.state"));
+        run("import status / extractValue", importStatus,
+                payload -> extractAll(readAsString(payload), "state"));
+        run("import status / JsonPullReader", importStatus,
+                payload -> JsonPullReader.readFields(new ByteArrayInputStream(payload), "status.state"));
+    }
+
+    // Method to warm up and then measure one parser on one payload
+    private static void run(String name, byte[] payload, Parser parser) throws IOException {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            measure(payload, parser);
+        }
+        double totalNanosPerOp = 0;
+        double totalBytesPerOp = 0;
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            double[] result = measure(payload, parser);
+            totalNanosPerOp += result[0];
+            totalBytesPerOp += result[1];
+        }
+        System.out.println(String.format("%-36s %11.1f us %13.1f KB", name,
+                totalNanosPerOp / MEASURED_ITERATIONS / 1000.0, totalBytesPerOp / MEASURED_ITERATIONS / 1024.0));
+    }
+
+    // Method to run the parser repeatedly for one iteration; returns {nanos per op, bytes allocated per op}
+    private static double[] measure(byte[] payload, Parser parser) throws IOException {
+        long startBytes = allocatedBytes();
+        long start = System.nanoTime();
+        long operations = 0;
+        long elapsed;
+        do {
+            sink = parser.parse(payload);
+            operations++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < ITERATION_NANOS);
+        long bytes = allocatedBytes() - startBytes;
+        return new double[] { (double) elapsed / operations, (double) bytes / operations };
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    // The way responses were parsed before JsonPullReader: buffer every line, then search with indexOf
+    private static String readAsString(byte[] payload) throws IOException {
+        StringBuilder responseBody = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new ByteArrayInputStream(payload), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                responseBody.append(line);
+            }
+        }
+        return responseBody.toString();
+    }
+
+    private static Object extractAll(String response, String... keys) {
+        String[] values = new String[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            values[i] = CrossProdAssetExportUtility.extractValue(response, keys[i]);
+        }
+        return values;
+    }
+
+    private static byte[] loginPayload() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"@type\":\"user\",\"id\":\"0000010300000000001A\",\"orgId\":\"000001\",")
+                .append("\"orgUuid\":\"4Q8rTz1ZcWmdB0sLk5p2vY\",\"name\":\"release.bot@example.com\",")
+                .append("\"description\":\"CI promotion user\",\"createTime\":\"2024-01-11T09:12:44.000Z\",")
+                .append("\"updateTime\":\"2024-06-02T17:45:10.000Z\",\"createdBy\":\"admin\",\"updatedBy\":\"admin\",")
+                .append("\"firstName\":\"Release\",\"lastName\":\"Bot\",\"title\":\"Automation\",")
+                .append("\"timezone\":\"America/Los_Angeles\",\"roles\":[");
+        for (int i = 0; i < 6; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"id\":\"role").append(i)
+                    .append("\",\"name\":\"Designer\",\"description\":\"Role with \\\"quoted\\\" text\"}");
+        }
+        json.append("],\"icSessionId\":\"1H9dRkQzVbXpTn3eYw6sLmA\",")
+                .append("\"serverUrl\":\"https://na1.dm-us.informaticacloud.com/saas\",")
+                .append("\"spiUrl\":\"https://na1.dm-us.informaticacloud.com/spi\",\"uuid\":\"2b7d\",")
+                .append("\"forceChangePassword\":false,\"usernameLocked\":false}");
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] exportStatusPayload(int objectCount) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"id\":\"7evG9CjTaZfcs4GSOKoRXd\",\"createTime\":\"2024-06-02T17:45:10.000Z\",")
+                .append("\"name\":\"UtilityExport\",\"objects\":[");
+        appendObjects(json, objectCount);
+        json.append("],\"status\":{\"state\":\"SUCCESSFUL\",\"message\":\"Export completed successfully\"}}");
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] importStatusPayload(int objectCount) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"id\":\"9Pq2xLmT0aR5sVbNc8dEfG\",\"name\":\"UtilityImport\",\"objects\":[");
+        appendObjects(json, objectCount);
+        json.append("],\"status\":{\"state\":\"SUCCESSFUL\",\"message\":\"Import completed successfully\"}}");
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void appendObjects(StringBuilder json, int objectCount) {
+        for (int i = 0; i < objectCount; i++) {
+            json.append(i == 0 ? "" : ",")
+                    .append("{\"sourceObject\":{\"id\":\"src").append(i).append("\",\"name\":\"m_load_").append(i)
+                    .append("\",\"path\":\"/Explore/Sales/Loads\",\"type\":\"MTT\",\"description\":\"\"},")
+                    .append("\"targetObject\":{\"id\":\"tgt").append(i).append("\",\"name\":\"m_load_").append(i)
+                    .append("\",\"path\":\"/Explore/Sales/Loads\",\"type\":\"MTT\"},")
+                    .append("\"status\":{\"state\":\"SUCCESSFUL\",\"message\":\"Imported\"}}");
+        }
+    }
+}
@@ -0,0 +1,109 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+// Helpers for the files the utility keeps between runs (session cache, promotion fingerprints, export cache,
+// downloaded packages, daemon token): writing a file so a reader never sees it half written, limiting it to
+// its owner, removing working directories, and the SHA-256 hashes used for package checks and for file and
+// key names.
+public class LocalStore {
+
+    // Writes the content of a file to the stream it is given
+    public interface Content {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    // Method to write a file through a temporary file next to it that replaces it in one step, readable by
+    // its owner only when asked. The temporary file is removed when writing fails.
+    public static void writeAtomically(Path file, String tempPrefix, boolean ownerOnly, Content content)
+            throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path tempFile = Files.createTempFile(directory, tempPrefix, ".tmp");
+        try {
+            if (ownerOnly) {
+                restrictToOwner(tempFile);
+            }
+            try (OutputStream out = Files.newOutputStream(tempFile)) {
+                content.writeTo(out);
+            }
+            moveIntoPlace(tempFile, file);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    // Method to replace the target by the source in one step where the file system can
+    public static void moveIntoPlace(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // Method to make a file readable and writable by its owner only
+    public static void restrictToOwner(Path file) throws IOException {
+        try {
+            Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException e) {
+            // Not a POSIX file system, fall back to the basic owner-only flags
+            file.toFile().setReadable(false, false);
+            file.toFile().setReadable(true, true);
+            file.toFile().setWritable(false, false);
+            file.toFile().setWritable(true, true);
+        }
+    }
+
+    // Method to delete a directory and everything in it; a directory that does not exist is left alone
+    public static void deleteRecursively(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        List<Path> paths = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(directory)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(paths::add);
+        }
+        for (Path path : paths) {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    public static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    // Helper function writing bytes as lower-case hex
+    public static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    public static String sha256Hex(String value) {
+        return hex(sha256().digest(value.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    // Name for a file or entry of one user on one region, hashed so region and user names are not kept in
+    // clear text
+    public static String userKey(String regionUrl, String username) {
+        return sha256Hex(regionUrl.toLowerCase() + "|" + username.toLowerCase()).substring(0, 32);
+    }
+}
@@ -0,0 +1,390 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Run-wide instrumentation: API call latencies per endpoint, time spent per phase, transfer sizes and
+// rates, poll counts per job, and retries and throttling per org. Recording is cheap (a synchronized
+// update of a few counters), so it stays on in every run. Latency percentiles come from a fixed-size
+// random sample per endpoint, which keeps memory flat however long the run polls. At the end of a run
+// the figures can be written as JSON and as Prometheus text format for a node exporter textfile
+// collector or any scraper on the runner.
+public class Metrics {
+
+    private static final int SAMPLE_SIZE = 2048;
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99 };
+
+    private static final Map<String, Latency> API_CALLS = new TreeMap<>();
+    private static final Map<String, Latency> PHASES = new TreeMap<>();
+    private static final Map<String, Transfer> TRANSFERS = new TreeMap<>();
+    private static final Map<String, JobPolls> JOBS = new TreeMap<>();
+    private static final Map<String, Throttling> THROTTLING = new TreeMap<>();
+
+    // Count, sum, maximum and a bounded sample of durations for one endpoint or phase
+    private static class Latency {
+        private final long[] sample = new long[SAMPLE_SIZE];
+        private long count;
+        private long errors;
+        private long totalNanos;
+        private long maxNanos;
+
+        void add(long nanos, boolean error) {
+            // Reservoir sampling keeps every duration equally likely to be in the sample
+            if (count < SAMPLE_SIZE) {
+                sample[(int) count] = nanos;
+            } else {
+                long slot = ThreadLocalRandom.current().nextLong(count + 1);
+                if (slot < SAMPLE_SIZE) {
+                    sample[(int) slot] = nanos;
+                }
+            }
+            count++;
+            errors += error ? 1 : 0;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        double quantileSeconds(double quantile) {
+            int size = (int) Math.min(count, SAMPLE_SIZE);
+            if (size == 0) {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf(sample, size);
+            Arrays.sort(sorted);
+            return sorted[Math.min(size - 1, (int) Math.ceil(quantile * size) - 1)] / 1e9;
+        }
+    }
+
+    // Bytes and busy time of all transfers in one direction
+    private static class Transfer {
+        private long count;
+        private long bytes;
+        private long nanos;
+
+        double megabytesPerSecond() {
+            return nanos == 0 ? 0 : (bytes / (1024.0 * 1024.0)) / (nanos / 1e9);
+        }
+    }
+
+    // Poll count, duration and final state of one export or import job
+    private static class JobPolls {
+        private final String kind;
+        private final String state;
+        private final int polls;
+        private final long millis;
+
+        JobPolls(String kind, String state, int polls, long millis) {
+            this.kind = kind;
+            this.state = state;
+            this.polls = polls;
+            this.millis = millis;
+        }
+    }
+
+    // Retries, time spent waiting for the rate limit or a pause, and circuit breaker trips of one org
+    private static class Throttling {
+        private final Map<String, Long> retries = new TreeMap<>();
+        private long waits;
+        private long waitNanos;
+        private long circuitOpens;
+
+        long totalRetries() {
+            long total = 0;
+            for (long count : retries.values()) {
+                total += count;
+            }
+            return total;
+        }
+    }
+
+    private Metrics() {
+    }
+
+    // Method to record one REST call, e.g. ("GET", "/saas/public/core/v3/export/7evG9Cj.../package", 200)
+    public static void recordApiCall(String method, String path, int statusCode, long nanos) {
+        String endpoint = method + " " + normalize(path);
+        synchronized (API_CALLS) {
+            API_CALLS.computeIfAbsent(endpoint, k -> new Latency()).add(nanos, statusCode < 200 || statusCode >= 300);
+        }
+    }
+
+    // Method to record time spent in a phase such as login, export, download, upload or import
+    public static void recordPhase(String phase, long nanos) {
+        synchronized (PHASES) {
+            PHASES.computeIfAbsent(phase, k -> new Latency()).add(nanos, false);
+        }
+    }
+
+    // Method to record a package transfer; the transfer time also counts towards the phase of that name
+    public static void recordTransfer(String direction, long bytes, long nanos) {
+        synchronized (TRANSFERS) {
+            Transfer transfer = TRANSFERS.computeIfAbsent(direction, k -> new Transfer());
+            transfer.count++;
+            transfer.bytes += bytes;
+            transfer.nanos += nanos;
+        }
+        recordPhase(direction, nanos);
+    }
+
+    // Method to record a polled job once it reaches a final state; its time counts towards the phase named
+    // by the first word of the job name ("Export ..." or "Import ...")
+    public static void recordJob(String jobName, String finalState, int polls, long millis) {
+        String kind = jobName.split(" ", 2)[0].toLowerCase();
+        synchronized (JOBS) {
+            JOBS.put(jobName, new JobPolls(kind, finalState, polls, millis));
+        }
+        recordPhase(kind, millis * 1_000_000L);
+    }
+
+    // Method to record a retried call to an org and why, e.g. ("https://na1.dm-us.informaticacloud.com/saas",
+    // "HTTP 429")
+    public static void recordRetry(String org, String reason) {
+        synchronized (THROTTLING) {
+            THROTTLING.computeIfAbsent(org, k -> new Throttling()).retries.merge(reason, 1L, Long::sum);
+        }
+    }
+
+    // Method to record time a request waited for the org's rate limit, a Retry-After pause or an open circuit
+    public static void recordThrottleWait(String org, long nanos) {
+        synchronized (THROTTLING) {
+            Throttling throttling = THROTTLING.computeIfAbsent(org, k -> new Throttling());
+            throttling.waits++;
+            throttling.waitNanos += nanos;
+        }
+    }
+
+    // Method to record that the circuit breaker of an org opened
+    public static void recordCircuitOpen(String org) {
+        synchronized (THROTTLING) {
+            THROTTLING.computeIfAbsent(org, k -> new Throttling()).circuitOpens++;
+        }
+    }
+
+    // IDs in paths would give every job its own endpoint; "/export/7evG9CjTaZfcs4GSOKoRXd" becomes "/export/{id}"
+    static String normalize(String path) {
+        StringBuilder normalized = new StringBuilder();
+        for (String segment : path.split("/")) {
+            if (segment.isEmpty()) {
+                continue;
+            }
+            boolean id = segment.length() >= 12 && segment.matches("[A-Za-z0-9]+") && segment.matches(".*[0-9].*");
+            normalized.append('/').append(id ? "{id}" : segment);
+        }
+        return normalized.length() == 0 ? "/" : normalized.toString();
+    }
+
+    // Method to print the phase and transfer totals of this run
+    public static void printSummary() {
+        synchronized (PHASES) {
+            if (PHASES.isEmpty()) {
+                return;
+            }
+            EventLog.println("======= Phase summary =======");
+            for (Map.Entry<String, Latency> phase : PHASES.entrySet()) {
+                EventLog.println(String.format(Locale.ROOT, "  %-10s %6.1f s total  %4d times", phase.getKey(),
+                        phase.getValue().totalNanos / 1e9, phase.getValue().count));
+            }
+        }
+        synchronized (TRANSFERS) {
+            for (Map.Entry<String, Transfer> transfer : TRANSFERS.entrySet()) {
+                EventLog.println(String.format(Locale.ROOT, "  %-10s %9.2f MB at %.2f MB/s", transfer.getKey(),
+                        transfer.getValue().bytes / (1024.0 * 1024.0), transfer.getValue().megabytesPerSecond()));
+            }
+        }
+        synchronized (THROTTLING) {
+            for (Map.Entry<String, Throttling> entry : THROTTLING.entrySet()) {
+                Throttling throttling = entry.getValue();
+                EventLog.println(String.format(Locale.ROOT,
+                        "  %s: %d retries %s, throttled %.1f s, circuit opened %d times", entry.getKey(),
+                        throttling.totalRetries(), throttling.retries, throttling.waitNanos / 1e9,
+                        throttling.circuitOpens));
+            }
+        }
+    }
+
+    // Method to write metrics.json and metrics.prom into the directory
+    public static void writeReports(Path directory) {
+        try {
+            Files.createDirectories(directory);
+            Path json = directory.resolve("metrics.json");
+            Path prometheus = directory.resolve("metrics.prom");
+            Files.write(json, toJson().getBytes(StandardCharsets.UTF_8));
+            // Write then rename, so a scraper never reads a half-written file
+            Path tempFile = directory.resolve("metrics.prom.tmp");
+            Files.write(tempFile, toPrometheus().getBytes(StandardCharsets.UTF_8));
+            Files.move(tempFile, prometheus, StandardCopyOption.REPLACE_EXISTING);
+            EventLog.println("Metrics written to " + json + " and " + prometheus + ".");
+        } catch (IOException e) {
+            EventLog.println("Could not write metrics to " + directory + ": " + e.getMessage());
+        }
+    }
+
+    // Method to render the metrics as a JSON document
+    public static String toJson() {
+        StringBuilder json = new StringBuilder("{\n  \"apiCalls\": {");
+        synchronized (API_CALLS) {
+            appendLatencies(json, API_CALLS);
+        }
+        json.append("},\n  \"phases\": {");
+        synchronized (PHASES) {
+            appendLatencies(json, PHASES);
+        }
+        json.append("},\n  \"transfers\": {");
+        synchronized (TRANSFERS) {
+            String separator = "";
+            for (Map.Entry<String, Transfer> entry : TRANSFERS.entrySet()) {
+                Transfer transfer = entry.getValue();
+                json.append(separator).append("\n    ").append(Json.quote(entry.getKey()))
+                        .append(String.format(Locale.ROOT,
+                                ": {\"count\": %d, \"bytes\": %d, \"seconds\": %.3f, \"megabytesPerSecond\": %.3f}",
+                                transfer.count, transfer.bytes, transfer.nanos / 1e9, transfer.megabytesPerSecond()));
+                separator = ",";
+            }
+        }
+        json.append("},\n  \"jobs\": {");
+        synchronized (JOBS) {
+            String separator = "";
+            for (Map.Entry<String, JobPolls> entry : JOBS.entrySet()) {
+                JobPolls job = entry.getValue();
+                json.append(separator).append("\n    ").append(Json.quote(entry.getKey()))
+                        .append(String.format(Locale.ROOT,
+                                ": {\"kind\": %s, \"state\": %s, \"polls\": %d, \"seconds\": %.3f}",
+                                Json.quote(job.kind), job.state == null ? "null" : Json.quote(job.state), job.polls,
+                                job.millis / 1000.0));
+                separator = ",";
+            }
+        }
+        json.append("},\n  \"throttling\": {");
+        synchronized (THROTTLING) {
+            String separator = "";
+            for (Map.Entry<String, Throttling> entry : THROTTLING.entrySet()) {
+                Throttling throttling = entry.getValue();
+                json.append(separator).append("\n    ").append(Json.quote(entry.getKey())).append(": {\"retries\": {");
+                String reasonSeparator = "";
+                for (Map.Entry<String, Long> retry : throttling.retries.entrySet()) {
+                    json.append(reasonSeparator).append(Json.quote(retry.getKey())).append(": ")
+                            .append(retry.getValue());
+                    reasonSeparator = ", ";
+                }
+                json.append(String.format(Locale.ROOT,
+                        "}, \"throttleWaits\": %d, \"throttleSeconds\": %.3f, \"circuitOpens\": %d}",
+                        throttling.waits, throttling.waitNanos / 1e9, throttling.circuitOpens));
+                separator = ",";
+            }
+        }
+        return json.append("}\n}\n").toString();
+    }
+
+    private static void appendLatencies(StringBuilder json, Map<String, Latency> latencies) {
+        String separator = "";
+        for (Map.Entry<String, Latency> entry : latencies.entrySet()) {
+            Latency latency = entry.getValue();
+            json.append(separator).append("\n    ").append(Json.quote(entry.getKey()))
+                    .append(String.format(Locale.ROOT,
+                            ": {\"count\": %d, \"errors\": %d, \"totalSeconds\": %.3f, \"maxSeconds\": %.3f",
+                            latency.count, latency.errors, latency.totalNanos / 1e9, latency.maxNanos / 1e9));
+            for (double quantile : QUANTILES) {
+                json.append(String.format(Locale.ROOT, ", \"p%d\": %.3f", Math.round(quantile * 100),
+                        latency.quantileSeconds(quantile)));
+            }
+            json.append('}');
+            separator = ",";
+        }
+    }
+
+    // Method to render the metrics in the Prometheus text exposition format
+    public static String toPrometheus() {
+        StringBuilder text = new StringBuilder();
+        synchronized (API_CALLS) {
+            text.append("# HELP iics_api_call_duration_seconds Latency of IICS REST calls.\n")
+                    .append("# TYPE iics_api_call_duration_seconds summary\n");
+            appendSummary(text, "iics_api_call_duration_seconds", "endpoint", API_CALLS);
+            text.append("# HELP iics_api_call_errors_total IICS REST calls answered with a non-2xx status.\n")
+                    .append("# TYPE iics_api_call_errors_total counter\n");
+            for (Map.Entry<String, Latency> entry : API_CALLS.entrySet()) {
+                text.append("iics_api_call_errors_total{endpoint=").append(label(entry.getKey())).append("} ")
+                        .append(entry.getValue().errors).append('\n');
+            }
+        }
+        synchronized (PHASES) {
+            text.append("# HELP iics_phase_duration_seconds Time spent per promotion phase.\n")
+                    .append("# TYPE iics_phase_duration_seconds summary\n");
+            appendSummary(text, "iics_phase_duration_seconds", "phase", PHASES);
+        }
+        synchronized (TRANSFERS) {
+            text.append("# HELP iics_transfer_bytes_total Package bytes transferred.\n")
+                    .append("# TYPE iics_transfer_bytes_total counter\n");
+            for (Map.Entry<String, Transfer> entry : TRANSFERS.entrySet()) {
+                text.append("iics_transfer_bytes_total{direction=").append(label(entry.getKey())).append("} ")
+                        .append(entry.getValue().bytes).append('\n');
+            }
+            text.append("# HELP iics_transfer_megabytes_per_second Average package transfer rate.\n")
+                    .append("# TYPE iics_transfer_megabytes_per_second gauge\n");
+            for (Map.Entry<String, Transfer> entry : TRANSFERS.entrySet()) {
+                text.append("iics_transfer_megabytes_per_second{direction=").append(label(entry.getKey())).append("} ")
+                        .append(String.format(Locale.ROOT, "%.3f", entry.getValue().megabytesPerSecond())).append('\n');
+            }
+        }
+        synchronized (JOBS) {
+            text.append("# HELP iics_job_polls Status polls needed per job.\n")
+                    .append("# TYPE iics_job_polls gauge\n");
+            for (Map.Entry<String, JobPolls> entry : JOBS.entrySet()) {
+                JobPolls job = entry.getValue();
+                text.append("iics_job_polls{job=").append(label(entry.getKey()))
+                        .append(",kind=").append(label(job.kind))
+                        .append(",state=").append(label(job.state)).append("} ").append(job.polls).append('\n');
+            }
+        }
+        synchronized (THROTTLING) {
+            text.append("# HELP iics_retries_total IICS REST calls retried after throttling or a failure.\n")
+                    .append("# TYPE iics_retries_total counter\n");
+            for (Map.Entry<String, Throttling> entry : THROTTLING.entrySet()) {
+                for (Map.Entry<String, Long> retry : entry.getValue().retries.entrySet()) {
+                    text.append("iics_retries_total{org=").append(label(entry.getKey()))
+                            .append(",reason=").append(label(retry.getKey())).append("} ").append(retry.getValue())
+                            .append('\n');
+                }
+            }
+            text.append("# HELP iics_throttle_wait_seconds_total Time requests waited for rate limits and pauses.\n")
+                    .append("# TYPE iics_throttle_wait_seconds_total counter\n");
+            for (Map.Entry<String, Throttling> entry : THROTTLING.entrySet()) {
+                text.append("iics_throttle_wait_seconds_total{org=").append(label(entry.getKey())).append("} ")
+                        .append(String.format(Locale.ROOT, "%.6f", entry.getValue().waitNanos / 1e9)).append('\n');
+            }
+            text.append("# HELP iics_circuit_opens_total Times the circuit breaker of an org opened.\n")
+                    .append("# TYPE iics_circuit_opens_total counter\n");
+            for (Map.Entry<String, Throttling> entry : THROTTLING.entrySet()) {
+                text.append("iics_circuit_opens_total{org=").append(label(entry.getKey())).append("} ")
+                        .append(entry.getValue().circuitOpens).append('\n');
+            }
+        }
+        return text.toString();
+    }
+
+    private static void appendSummary(StringBuilder text, String name, String label, Map<String, Latency> latencies) {
+        for (Map.Entry<String, Latency> entry : latencies.entrySet()) {
+            String labelValue = label(entry.getKey());
+            Latency latency = entry.getValue();
+            for (double quantile : QUANTILES) {
+                text.append(name).append('{').append(label).append('=').append(labelValue).append(",quantile=\"")
+                        .append(quantile).append("\"} ")
+                        .append(String.format(Locale.ROOT, "%.6f", latency.quantileSeconds(quantile))).append('\n');
+            }
+            text.append(name).append("_sum{").append(label).append('=').append(labelValue).append("} ")
+                    .append(String.format(Locale.ROOT, "%.6f", latency.totalNanos / 1e9)).append('\n');
+            text.append(name).append("_count{").append(label).append('=').append(labelValue).append("} ")
+                    .append(latency.count).append('\n');
+        }
+    }
+
+    // Quotes a Prometheus label value; a missing value is written as an empty one
+    private static String label(String value) {
+        return Json.quote(value == null ? "" : value);
+    }
+}
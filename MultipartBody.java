@@ -0,0 +1,71 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Helper to write a single-file multipart/form-data body as a stream.
+// The header and trailer are small and prepared up front, so the total Content-Length is known
+// before any bytes are sent and the file itself never has to be held in memory.
+public class MultipartBody {
+
+    private final String boundary;
+    private final byte[] header;
+    private final byte[] trailer;
+
+    public MultipartBody(String fieldName, String fileName, String contentType) {
+        // Create a boundary
+        this.boundary = "Boundary-" + System.currentTimeMillis();
+
+        // Create the multipart body header
+        StringBuilder headerBuilder = new StringBuilder();
+        headerBuilder.append("--").append(boundary).append("\r\n");
+        headerBuilder.append("Content-Disposition: form-data; name=\"").append(fieldName)
+                .append("\"; filename=\"").append(fileName).append("\"\r\n");
+        headerBuilder.append("Content-Type: ").append(contentType).append("\r\n\r\n");
+        this.header = headerBuilder.toString().getBytes(StandardCharsets.UTF_8);
+
+        // Create the closing boundary
+        this.trailer = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Value for the Content-Type request header
+    public String getContentType() {
+        return "multipart/form-data; boundary=" + boundary;
+    }
+
+    // Total body length for a file part of the given size
+    public long getContentLength(long partLength) {
+        return header.length + partLength + trailer.length;
+    }
+
+    public void writeHeader(OutputStream outputStream) throws IOException {
+        outputStream.write(header);
+    }
+
+    public void writeTrailer(OutputStream outputStream) throws IOException {
+        outputStream.write(trailer);
+        outputStream.flush();
+    }
+
+    // Method to write the complete body for a file, copying it straight from its FileChannel
+    // to the connection stream. Returns the number of file bytes written.
+    public long writeFile(OutputStream outputStream, Path file) throws IOException {
+        writeHeader(outputStream);
+
+        long position = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(outputStream);
+            long size = channel.size();
+            while (position < size) {
+                position += channel.transferTo(position, size - position, target);
+            }
+        }
+
+        writeTrailer(outputStream);
+        return position;
+    }
+}
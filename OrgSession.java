@@ -0,0 +1,31 @@
+// Authenticated session for one IICS org: where to send API calls and the session ID to send with them
+public class OrgSession {
+
+    private final String regionUrl;
+    private final String username;
+    private final String serverUrl;
+    private final String icSessionId;
+
+    public OrgSession(String regionUrl, String username, String serverUrl, String icSessionId) {
+        this.regionUrl = regionUrl;
+        this.username = username;
+        this.serverUrl = serverUrl;
+        this.icSessionId = icSessionId;
+    }
+
+    public String getRegionUrl() {
+        return regionUrl;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getServerUrl() {
+        return serverUrl;
+    }
+
+    public String getIcSessionId() {
+        return icSessionId;
+    }
+}
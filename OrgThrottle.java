@@ -0,0 +1,131 @@
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+// Admission control for the requests to one org (one IicsHttpClient base URL).
+// A token bucket spreads requests out to at most the configured rate. Bursts are kept to a fifth of the
+// rate, so a server counting requests in fixed one-second windows never sees much more than the rate.
+// A 429 or 503 answer with Retry-After pauses all traffic to the org until that time has passed, instead of
+// letting every other thread run into the same throttle. A circuit breaker pauses traffic after several
+// consecutive server errors or connection failures; once the cool-down is over a single probe request is let
+// through, and the breaker closes again on success or reopens with twice the cool-down on failure. A probe
+// that gets no answer within the read timeout is given up on and the next request probes instead.
+// Callers never fail here: they wait, and the retry limits of the callers bound how long that can go on.
+public class OrgThrottle {
+
+    private static final int FAILURES_TO_OPEN = 5;
+    private static final long INITIAL_COOL_DOWN_NANOS = TimeUnit.SECONDS.toNanos(15);
+    private static final long MAX_COOL_DOWN_NANOS = TimeUnit.MINUTES.toNanos(5);
+    private static final long PROBE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+    private static final long PROBE_TIMEOUT_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    private final String name;
+    private final double requestsPerSecond;
+    private final double burst;
+
+    // Token bucket; tokens go negative when requests reserve future capacity
+    private double tokens;
+    private long lastRefillNanos = System.nanoTime();
+
+    // Retry-After pause and circuit breaker state
+    private long pausedUntilNanos;
+    private int consecutiveFailures;
+    private long openUntilNanos;
+    private long coolDownNanos = INITIAL_COOL_DOWN_NANOS;
+    private boolean probing;
+    private long probeStartedNanos;
+
+    // requestsPerSecond of 0 or less turns the rate limit off
+    public OrgThrottle(String name, double requestsPerSecond) {
+        this.name = name;
+        this.requestsPerSecond = requestsPerSecond;
+        this.burst = Math.max(1, Math.floor(requestsPerSecond / 5));
+        this.tokens = burst;
+    }
+
+    // Method to wait until a request may be sent; returns the nanoseconds spent waiting
+    public long acquire() throws InterruptedIOException {
+        long start = System.nanoTime();
+        try {
+            long wait;
+            while ((wait = gateDelayNanos()) > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            wait = reserveToken();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to send a request to " + name);
+        }
+        return System.nanoTime() - start;
+    }
+
+    // Time left until the org accepts traffic again, or 0 when it does now
+    private synchronized long gateDelayNanos() {
+        long now = System.nanoTime();
+        if (now - pausedUntilNanos < 0) {
+            return pausedUntilNanos - now;
+        }
+        if (consecutiveFailures >= FAILURES_TO_OPEN) {
+            if (now - openUntilNanos < 0) {
+                return openUntilNanos - now;
+            }
+            // Half open: let one probe through and hold the rest until it has an answer
+            if (probing && now - probeStartedNanos < PROBE_TIMEOUT_NANOS) {
+                return Math.min(PROBE_WAIT_NANOS, probeStartedNanos + PROBE_TIMEOUT_NANOS - now);
+            }
+            probing = true;
+            probeStartedNanos = now;
+        }
+        return 0;
+    }
+
+    // Method to take a token, returning how long the caller must wait before the token becomes valid
+    private synchronized long reserveToken() {
+        if (requestsPerSecond <= 0) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefillNanos) / 1e9 * requestsPerSecond);
+        lastRefillNanos = now;
+        tokens -= 1;
+        return tokens >= 0 ? 0 : (long) (-tokens / requestsPerSecond * 1e9);
+    }
+
+    // Method to pause all requests to the org for the given time, e.g. from a Retry-After header
+    public synchronized void pause(long nanos) {
+        long until = System.nanoTime() + nanos;
+        if (until - pausedUntilNanos > 0) {
+            pausedUntilNanos = until;
+        }
+    }
+
+    // Method to feed the answer (or -1 for a broken connection) of a request into the circuit breaker.
+    // Rate limiting (429) says nothing about the health of the org and is left to the Retry-After pause.
+    public synchronized void onResponse(int responseCode) {
+        probing = false;
+        if (responseCode == 429) {
+            return;
+        }
+        if (responseCode >= 0 && responseCode < 500) {
+            if (consecutiveFailures >= FAILURES_TO_OPEN) {
+                EventLog.info("throttle", name, "Requests to " + name + " succeed again, resuming traffic.");
+            }
+            consecutiveFailures = 0;
+            coolDownNanos = INITIAL_COOL_DOWN_NANOS;
+            return;
+        }
+
+        consecutiveFailures++;
+        long now = System.nanoTime();
+        if (consecutiveFailures >= FAILURES_TO_OPEN && now - openUntilNanos >= 0) {
+            openUntilNanos = now + coolDownNanos;
+            EventLog.warn("throttle", name, consecutiveFailures + " failed requests in a row to " + name
+                    + ", pausing traffic for "
+                    + TimeUnit.NANOSECONDS.toSeconds(coolDownNanos) + " s.");
+            Metrics.recordCircuitOpen(name);
+            coolDownNanos = Math.min(MAX_COOL_DOWN_NANOS, coolDownNanos * 2);
+        }
+    }
+}
@@ -0,0 +1,313 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+// Differential promotion: works out which objects of an export package differ from what production
+// already has, and writes a reduced package holding only those.
+// An IICS export package holds one nested zip per object, named "<path>/<name>.<TYPE>.zip" (e.g.
+// "Explore/Sales/Loads/m_load.MTT.zip"), next to exportMetadata.v2.json, which lists the exported objects,
+// and exportPackage.chksum. Each object is hashed over the names and contents of the files inside its
+// nested zip, so re-exporting an unchanged object gives the same hash even though the zip timestamps
+// differ. An object is changed when its hash differs from the production fingerprint or production has
+// never seen it. The reduced package keeps the changed objects plus the project and folder entries that
+// contain them; unchanged dependencies are already in production and are resolved there on import.
+public class PackageDiff {
+
+    static final String METADATA_ENTRY = "exportMetadata.v2.json";
+    static final String CHECKSUM_ENTRY = "exportPackage.chksum";
+
+    // Result of comparing a package against the production fingerprint
+    public static class Plan {
+        private final Path packagePath;
+        private final Map<String, String> objectHashes;
+        private final Set<String> changed;
+        private final Set<String> kept;
+
+        Plan(Path packagePath, Map<String, String> objectHashes, Set<String> changed, Set<String> kept) {
+            this.packagePath = packagePath;
+            this.objectHashes = objectHashes;
+            this.changed = changed;
+            this.kept = kept;
+        }
+
+        public Path getPackagePath() {
+            return packagePath;
+        }
+
+        public Set<String> getChanged() {
+            return changed;
+        }
+
+        public Set<String> getKept() {
+            return kept;
+        }
+
+        public int getObjectCount() {
+            return objectHashes.size();
+        }
+
+        // True when production already has every object in the package
+        public boolean isUnchanged() {
+            return changed.isEmpty();
+        }
+
+        // True when every object has to be imported, so the original package can be used as is
+        public boolean isComplete() {
+            return kept.size() == objectHashes.size();
+        }
+
+        // Hashes of the objects in the reduced package, to record once their import succeeds
+        public Map<String, String> getKeptHashes() {
+            Map<String, String> keptHashes = new HashMap<>();
+            for (String entryName : kept) {
+                keptHashes.put(entryName, objectHashes.get(entryName));
+            }
+            return keptHashes;
+        }
+    }
+
+    // Method to compare the package with the production fingerprint
+    public static Plan plan(Path packagePath, PromotionFingerprint fingerprint) throws IOException {
+        Map<String, String> objectHashes = hashObjects(packagePath);
+
+        Set<String> changed = new HashSet<>();
+        for (Map.Entry<String, String> object : objectHashes.entrySet()) {
+            if (!object.getValue().equals(fingerprint.get(object.getKey()))) {
+                changed.add(object.getKey());
+            }
+        }
+
+        // Index the container objects (projects and folders) by the directory they stand for
+        Map<String, Set<String>> containers = new HashMap<>();
+        for (String entryName : objectHashes.keySet()) {
+            containers.computeIfAbsent(baseName(entryName), k -> new HashSet<>()).add(entryName);
+        }
+
+        Set<String> kept = new HashSet<>(changed);
+        for (String entryName : changed) {
+            for (int slash = entryName.indexOf('/'); slash > 0; slash = entryName.indexOf('/', slash + 1)) {
+                Set<String> container = containers.get(entryName.substring(0, slash));
+                if (container != null) {
+                    kept.addAll(container);
+                }
+            }
+        }
+        return new Plan(packagePath, objectHashes, changed, kept);
+    }
+
+    // Method to hash every object in a package, keyed by its entry name
+    public static Map<String, String> hashObjects(Path packagePath) throws IOException {
+        Map<String, String> objectHashes = new LinkedHashMap<>();
+        try (ZipFile zip = new ZipFile(packagePath.toFile())) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (isObject(entry)) {
+                    objectHashes.put(entry.getName(), hashObject(zip, entry));
+                }
+            }
+        }
+        return objectHashes;
+    }
+
+    // Method to write the package with only the kept objects. The reduced package gets its own .sha256
+    // file like a downloaded one.
+    public static Path writeReducedPackage(Plan plan, Path target) throws IOException {
+        return writeSubset(plan.getPackagePath(), plan.getKept(), target);
+    }
+
+    // Method to write a copy of the package with only the given object entries, rewriting the metadata and
+    // checksum entries to match, and give it a .sha256 file
+    public static Path writeSubset(Path packagePath, Set<String> kept, Path target) throws IOException {
+        Set<String> dropped = new HashSet<>();
+        Path partFile = target.resolveSibling(target.getFileName() + ".part");
+        try (ZipFile zip = new ZipFile(packagePath.toFile());
+                ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(partFile))) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (isObject(entry) && !kept.contains(entry.getName())) {
+                    dropped.add(entry.getName());
+                }
+            }
+
+            entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (dropped.contains(entry.getName())) {
+                    continue;
+                }
+                out.putNextEntry(new ZipEntry(entry.getName()));
+                try (InputStream in = zip.getInputStream(entry)) {
+                    if (METADATA_ENTRY.equals(entry.getName())) {
+                        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+                        filterMetadata(new JsonPullReader(in), writer, dropped);
+                        writer.flush();
+                    } else if (CHECKSUM_ENTRY.equals(entry.getName())) {
+                        filterChecksums(in, out, dropped);
+                    } else {
+                        copy(in, out);
+                    }
+                }
+                out.closeEntry();
+            }
+        }
+        LocalStore.moveIntoPlace(partFile, target);
+        PackageDownloader.writeStoredSha256(target, PackageDownloader.sha256(target));
+        return target;
+    }
+
+    // Object entries are the nested zips; the metadata and checksum files are not objects
+    static boolean isObject(ZipEntry entry) {
+        return !entry.isDirectory() && entry.getName().endsWith(".zip");
+    }
+
+    // "Explore/Sales/Loads.Folder.zip" stands for the directory "Explore/Sales/Loads"
+    static String baseName(String entryName) {
+        String withoutZip = entryName.substring(0, entryName.length() - ".zip".length());
+        int dot = withoutZip.lastIndexOf('.');
+        return dot > withoutZip.lastIndexOf('/') ? withoutZip.substring(0, dot) : withoutZip;
+    }
+
+    // Method to hash the files inside a nested object zip, or the raw bytes if it is not a zip
+    static String hashObject(ZipFile zip, ZipEntry entry) throws IOException {
+        MessageDigest digest = LocalStore.sha256();
+        byte[] buffer = new byte[64 * 1024];
+        boolean nested = false;
+        try (ZipInputStream in = new ZipInputStream(zip.getInputStream(entry))) {
+            ZipEntry file;
+            while ((file = in.getNextEntry()) != null) {
+                nested = true;
+                digest.update(file.getName().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                int bytesRead;
+                while ((bytesRead = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, bytesRead);
+                }
+            }
+        }
+        if (!nested) {
+            digest.reset();
+            try (InputStream in = zip.getInputStream(entry)) {
+                int bytesRead;
+                while ((bytesRead = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, bytesRead);
+                }
+            }
+        }
+        return LocalStore.hex(digest.digest());
+    }
+
+    // Method to copy the metadata document, leaving out the exportedObjects whose entries were dropped
+    private static void filterMetadata(JsonPullReader reader, Writer out, Set<String> dropped) throws IOException {
+        reader.beginObject();
+        out.write('{');
+        boolean first = true;
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            out.write(first ? "" : ",");
+            first = false;
+            out.write(Json.quote(name));
+            out.write(':');
+            if (!"exportedObjects".equals(name) || reader.peek() != JsonPullReader.Token.BEGIN_ARRAY) {
+                Json.copyValue(reader, out, null);
+                continue;
+            }
+
+            reader.beginArray();
+            out.write('[');
+            boolean firstObject = true;
+            while (reader.hasNext()) {
+                StringBuilder element = new StringBuilder();
+                Map<String, String> fields = new HashMap<>();
+                Json.copyValue(reader, element, fields);
+                if (dropped.contains(entryName(fields))) {
+                    continue;
+                }
+                out.write(firstObject ? "" : ",");
+                firstObject = false;
+                out.append(element);
+            }
+            reader.endArray();
+            out.write(']');
+        }
+        reader.endObject();
+        out.write('}');
+    }
+
+    // Package entry name of an exportedObjects element, or null if it does not describe one
+    static String entryName(Map<String, String> fields) {
+        String path = fields.get("path");
+        String name = fields.get("objectName");
+        String type = fields.get("objectType");
+        if (path == null || name == null || type == null) {
+            return null;
+        }
+        String directory = path.startsWith("/") ? path.substring(1) : path;
+        return (directory.isEmpty() ? "" : directory + "/") + name + "." + type + ".zip";
+    }
+
+    // Method to copy the checksum list without the lines of dropped entries
+    private static void filterChecksums(InputStream in, OutputStream out, Set<String> dropped) throws IOException {
+        ByteArrayOutputStream filtered = new ByteArrayOutputStream();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String named = checksumEntryName(line);
+            if (named == null || !dropped.contains(named)) {
+                filtered.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        filtered.writeTo(out);
+    }
+
+    // Helper function returning the entry name of a "<entry name>=<checksum>" line, or null for a header or
+    // comment line. The name is the whole key with its escapes undone, so "PreSales/m.MTT.zip" is never
+    // taken for "Sales/m.MTT.zip".
+    static String checksumEntryName(String line) {
+        String trimmed = line.trim();
+        if (trimmed.isEmpty() || trimmed.startsWith("#") || trimmed.startsWith("!")) {
+            return null;
+        }
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < trimmed.length(); i++) {
+            char c = trimmed.charAt(i);
+            if (c == '\\' && i + 1 < trimmed.length()) {
+                name.append(trimmed.charAt(++i));
+            } else if (c == '=') {
+                return name.toString().trim();
+            } else {
+                name.append(c);
+            }
+        }
+        return null;
+    }
+
+    static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        int bytesRead;
+        while ((bytesRead = in.read(buffer)) != -1) {
+            out.write(buffer, 0, bytesRead);
+        }
+    }
+
+}
@@ -0,0 +1,341 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+// Downloads export packages safely.
+// The package is written to "<target>.part". If the connection drops, the download resumes from the last
+// byte written with an HTTP Range request (when the server answers 206; otherwise it starts over). Once
+// complete, the file must open as a zip (which requires the central directory at its end) before being
+// atomically renamed to the target. Its SHA-256 is computed while the bytes arrive and written next to the
+// package as "<target>.sha256" so later steps can verify the file they upload.
+// The response is read in 256 KB chunks, hashed straight from the chunk, and gathered into a large direct
+// buffer that is written to a FileChannel a few megabytes at a time, instead of many small stream writes
+// that each go through a temporary native copy. Chunks and buffers are borrowed from a small pool and given
+// back after each download, since promotions run on short-lived threads that would never reuse them. When
+// asked, and when the server sends a Content-Length, the part file is sized up front and cut back to the
+// bytes received if the download fails.
+public class PackageDownloader {
+
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long RETRY_DELAY_MILLIS = 2000;
+    private static final int CHUNK_BYTES = 256 * 1024;
+    private static final int BUFFER_BYTES = 4 * 1024 * 1024;
+    private static final long PROGRESS_INTERVAL_NANOS = 5_000_000_000L;
+
+    private static final int DEFAULT_POOLED_BUFFERS = 8;
+
+    // Read chunks and direct write buffers kept for reuse, as many as downloads run at the same time. A
+    // download that finds the pool empty allocates its own; what does not fit back is left to the GC.
+    private static volatile BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(DEFAULT_POOLED_BUFFERS);
+    private static volatile BlockingQueue<ByteBuffer> buffers = new ArrayBlockingQueue<>(DEFAULT_POOLED_BUFFERS);
+
+    private static volatile boolean preallocate;
+
+    // A verified package on disk
+    public static class DownloadedPackage {
+        private final Path path;
+        private final long size;
+        private final String sha256;
+
+        public DownloadedPackage(Path path, long size, String sha256) {
+            this.path = path;
+            this.size = size;
+            this.sha256 = sha256;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public String getSha256() {
+            return sha256;
+        }
+    }
+
+    // Method to keep buffers for the given number of downloads running at the same time
+    public static void configureBuffers(int concurrentDownloads) {
+        chunks = new ArrayBlockingQueue<>(Math.max(1, concurrentDownloads));
+        buffers = new ArrayBlockingQueue<>(Math.max(1, concurrentDownloads));
+    }
+
+    // Method to size part files up front from Content-Length (off by default)
+    public static void setPreallocate(boolean enabled) {
+        preallocate = enabled;
+    }
+
+    // Method to download the package of a finished export to the target file
+    public static DownloadedPackage download(String serverUrl, String sessionId, String exportId, Path target)
+            throws IOException {
+        EventLog.Scope scope = EventLog.scope("download", exportId);
+        try {
+            return downloadInScope(serverUrl, sessionId, exportId, target);
+        } finally {
+            scope.close();
+        }
+    }
+
+    // Method to download with the export ID on every event logged on the way
+    private static DownloadedPackage downloadInScope(String serverUrl, String sessionId, String exportId,
+            Path target) throws IOException {
+        Path partFile = target.resolveSibling(target.getFileName() + ".part");
+        Files.deleteIfExists(partFile);
+        String packagePath = "/public/core/v3/export/" + exportId + "/package";
+        IicsHttpClient client = IicsHttpClient.forServer(serverUrl);
+
+        long start = System.nanoTime();
+        String sha256;
+        for (int attempt = 1; ; attempt++) {
+            long offset = Files.exists(partFile) ? Files.size(partFile) : 0;
+            try {
+                sha256 = fetch(client, packagePath, sessionId, partFile, offset);
+                break;
+            } catch (IOException e) {
+                if (attempt >= MAX_ATTEMPTS) {
+                    throw new IOException("Download of export " + exportId + " failed after " + attempt
+                            + " attempts: " + e.getMessage(), e);
+                }
+                EventLog.warn(null, null, "Download interrupted at "
+                        + (Files.exists(partFile) ? Files.size(partFile) : 0) + " bytes (" + e.getMessage()
+                        + "), resuming...");
+                sleep(RETRY_DELAY_MILLIS * attempt);
+            }
+        }
+        long size = Files.size(partFile);
+        long elapsedNanos = System.nanoTime() - start;
+        CrossProdAssetExportUtility.printTransferRate("Downloaded", size, elapsedNanos);
+        Metrics.recordTransfer("download", size, elapsedNanos);
+
+        verifyZip(partFile);
+        LocalStore.moveIntoPlace(partFile, target);
+        writeStoredSha256(target, sha256);
+        EventLog.info(null, null, "Verified package " + target + ".", "sha256", sha256);
+        return new DownloadedPackage(target, size, sha256);
+    }
+
+    // Method to fetch the package, or the rest of it from the given offset, into the part file; returns the
+    // SHA-256 of the complete file
+    private static String fetch(IicsHttpClient client, String packagePath, String sessionId, Path partFile,
+            long offset) throws IOException {
+        HttpURLConnection connection = client.open("GET", packagePath, sessionId);
+        // Every way out reports the answer to the org's throttle; a call never reported would hold a circuit
+        // breaker probe forever
+        int responseCode = -1;
+        byte[] chunk = borrowChunk();
+        ByteBuffer buffer = null;
+        try {
+            if (offset > 0) {
+                connection.setRequestProperty("Range", "bytes=" + offset + "-");
+            }
+
+            responseCode = connection.getResponseCode();
+            boolean append;
+            if (responseCode == HttpURLConnection.HTTP_PARTIAL && offset > 0) {
+                // Content-Range looks like "bytes 1048576-52428799/52428800"
+                String contentRange = connection.getHeaderField("Content-Range");
+                if (contentRange == null || !contentRange.startsWith("bytes " + offset + "-")) {
+                    IicsHttpClient.release(connection);
+                    Files.deleteIfExists(partFile);
+                    throw new IOException("Server returned an unexpected range " + contentRange
+                            + ", starting over");
+                }
+                append = true;
+            } else if (responseCode == HttpURLConnection.HTTP_OK) {
+                // The server ignored the range, so start from the beginning
+                append = false;
+            } else if (IicsHttpClient.isRetryable("GET", packagePath, responseCode, null)) {
+                // Throttled or a passing server error: retry like a dropped connection
+                IicsHttpClient.release(connection);
+                throw new IOException("HTTP " + responseCode);
+            } else {
+                IicsHttpClient.release(connection);
+                // Not an I/O failure: retrying with the same request will not help
+                throw new RuntimeException("Failed to download export package. HTTP Error Code: "
+                        + responseCode);
+            }
+
+            long expected = connection.getContentLengthLong();
+            long start = append ? offset : 0;
+            MessageDigest digest = LocalStore.sha256();
+            if (append) {
+                // The hash covers the whole file, so take in what the earlier attempts wrote
+                hashPrefix(partFile, offset, digest, chunk);
+            }
+
+            long received = 0;
+            boolean complete = false;
+            try (InputStream in = connection.getInputStream();
+                    FileChannel out = FileChannel.open(partFile, StandardOpenOption.CREATE,
+                            StandardOpenOption.WRITE)) {
+                if (!append) {
+                    out.truncate(0);
+                    if (preallocate && expected > 0) {
+                        // Reserve the final size now; cut back below if the download does not complete
+                        out.write(ByteBuffer.wrap(new byte[1]), expected - 1);
+                    }
+                }
+                out.position(start);
+
+                buffer = borrowBuffer();
+                long lastProgress = System.nanoTime();
+                long transferStart = lastProgress;
+                int bytesRead;
+                while ((bytesRead = in.read(chunk)) != -1) {
+                    digest.update(chunk, 0, bytesRead);
+                    if (buffer.remaining() < bytesRead) {
+                        received += drain(buffer, out);
+                    }
+                    buffer.put(chunk, 0, bytesRead);
+
+                    long now = System.nanoTime();
+                    if (now - lastProgress >= PROGRESS_INTERVAL_NANOS) {
+                        printProgress(start + received, expected >= 0 ? start + expected : -1, received,
+                                now - transferStart);
+                        lastProgress = now;
+                    }
+                }
+                received += drain(buffer, out);
+                complete = expected < 0 || received == expected;
+            } finally {
+                if (!complete && Files.exists(partFile) && Files.size(partFile) > start + received) {
+                    // Drop the preallocated tail so a resume continues from the last byte actually written
+                    try (FileChannel out = FileChannel.open(partFile, StandardOpenOption.WRITE)) {
+                        out.truncate(start + received);
+                    }
+                }
+            }
+
+            if (!complete) {
+                throw new IOException("Connection closed after " + received + " of " + expected + " bytes");
+            }
+            return LocalStore.hex(digest.digest());
+        } finally {
+            IicsHttpClient.recordCall(connection, responseCode);
+            chunks.offer(chunk);
+            if (buffer != null) {
+                buffers.offer(buffer);
+            }
+        }
+    }
+
+    private static byte[] borrowChunk() {
+        byte[] chunk = chunks.poll();
+        return chunk != null ? chunk : new byte[CHUNK_BYTES];
+    }
+
+    private static ByteBuffer borrowBuffer() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(BUFFER_BYTES);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    // Method to write out and empty the buffer; returns the number of bytes written
+    private static int drain(ByteBuffer buffer, FileChannel out) throws IOException {
+        buffer.flip();
+        int bytes = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+        return bytes;
+    }
+
+    // Method to print how far a download has come and how fast it is going
+    private static void printProgress(long bytesDone, long bytesTotal, long bytesThisTransfer, long nanos) {
+        double megabytesPerSecond = (bytesThisTransfer / (1024.0 * 1024.0)) / (nanos / 1e9);
+        if (bytesTotal > 0) {
+            EventLog.info(null, null, String.format("Downloading... %d%% (%.1f of %.1f MB) at %.2f MB/s",
+                    bytesDone * 100 / bytesTotal, bytesDone / (1024.0 * 1024.0), bytesTotal / (1024.0 * 1024.0),
+                    megabytesPerSecond));
+        } else {
+            EventLog.info(null, null, String.format("Downloading... %.1f MB at %.2f MB/s",
+                    bytesDone / (1024.0 * 1024.0), megabytesPerSecond));
+        }
+    }
+
+    // Method to feed the first bytes of a file into a digest
+    private static void hashPrefix(Path file, long length, MessageDigest digest, byte[] chunk) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.wrap(chunk);
+            long remaining = length;
+            while (remaining > 0) {
+                buffer.clear();
+                buffer.limit((int) Math.min(chunk.length, remaining));
+                int bytesRead = channel.read(buffer);
+                if (bytesRead < 0) {
+                    throw new IOException("Part file " + file + " is shorter than " + length + " bytes");
+                }
+                digest.update(chunk, 0, bytesRead);
+                remaining -= bytesRead;
+            }
+        }
+    }
+
+    // Method to check that the file is a complete zip; ZipFile refuses files without a central directory
+    public static void verifyZip(Path file) throws IOException {
+        try (ZipFile zip = new ZipFile(file.toFile())) {
+            if (zip.size() == 0) {
+                throw new IOException("Package " + file + " is an empty zip");
+            }
+        } catch (ZipException e) {
+            throw new IOException("Package " + file + " is not a complete zip file: " + e.getMessage(), e);
+        }
+    }
+
+    // Method to compute the SHA-256 of a file as lowercase hex
+    public static String sha256(Path file) throws IOException {
+        MessageDigest digest = LocalStore.sha256();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(1024 * 1024);
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return LocalStore.hex(digest.digest());
+    }
+
+    // Method to read the hash stored next to a package by an earlier download, or null if there is none
+    public static String readStoredSha256(Path packagePath) throws IOException {
+        Path hashFile = packagePath.resolveSibling(packagePath.getFileName() + ".sha256");
+        if (!Files.exists(hashFile)) {
+            return null;
+        }
+        String content = new String(Files.readAllBytes(hashFile), StandardCharsets.UTF_8).trim();
+        int space = content.indexOf(' ');
+        return space > 0 ? content.substring(0, space) : content;
+    }
+
+    // Method to record the hash of a package next to it, in the format of the sha256sum tool
+    public static void writeStoredSha256(Path packagePath, String sha256) throws IOException {
+        Files.write(packagePath.resolveSibling(packagePath.getFileName() + ".sha256"),
+                (sha256 + "  " + packagePath.getFileName() + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void sleep(long millis) throws IOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Download was interrupted", e);
+        }
+    }
+}
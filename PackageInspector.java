@@ -0,0 +1,438 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+// Looks inside an export package before it is uploaded, without extracting it.
+// Opening the zip reads only its central directory (the index at the end of the file), which already gives
+// the name and sizes of every entry; the only entry actually read is exportMetadata.v2.json. That is enough
+// to list the objects with their types, paths and sizes in milliseconds, even for multi-GB packages, and to
+// catch broken packages before a slow upload and import: objects the metadata lists but the package does
+// not hold (a missing dependency), object entries the metadata does not list, and a missing metadata entry.
+// Optional rules from a properties file add checks such as the object types allowed, the folders objects
+// must live in, objects that must be present, size limits and a required checksum entry.
+// Run on its own with: java PackageInspector <package.zip> [rules.properties]
+public class PackageInspector {
+
+    // Problems printed when a package fails inspection during a run; the standalone inspector prints all
+    private static final int MAX_PRINTED_PROBLEMS = 20;
+
+    // One object of a package: a nested "<path>/<name>.<TYPE>.zip" entry and/or a metadata element
+    public static class PackageObject {
+        private final String entryName;
+        private String name;
+        private String type;
+        private String path;
+        private long size = -1;
+        private long compressedSize = -1;
+        private boolean listed;
+        private boolean present;
+
+        PackageObject(String entryName) {
+            this.entryName = entryName;
+        }
+
+        public String getEntryName() {
+            return entryName;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        // Folder of the object without a leading slash, e.g. "Explore/Sales"
+        public String getPath() {
+            return path;
+        }
+
+        // Uncompressed size of the nested zip, or -1 when the package does not hold it
+        public long getSize() {
+            return size;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        // True when exportMetadata.v2.json lists the object
+        public boolean isListed() {
+            return listed;
+        }
+
+        // True when the package holds the object's entry
+        public boolean isPresent() {
+            return present;
+        }
+    }
+
+    // What the inspection found
+    public static class Report {
+        private final Path packagePath;
+        private final long packageBytes;
+        private final List<PackageObject> objects;
+        private final boolean hasMetadata;
+        private final boolean hasChecksum;
+        private final long elapsedNanos;
+
+        Report(Path packagePath, long packageBytes, List<PackageObject> objects, boolean hasMetadata,
+                boolean hasChecksum, long elapsedNanos) {
+            this.packagePath = packagePath;
+            this.packageBytes = packageBytes;
+            this.objects = objects;
+            this.hasMetadata = hasMetadata;
+            this.hasChecksum = hasChecksum;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public Path getPackagePath() {
+            return packagePath;
+        }
+
+        public long getPackageBytes() {
+            return packageBytes;
+        }
+
+        public List<PackageObject> getObjects() {
+            return objects;
+        }
+
+        public boolean hasMetadata() {
+            return hasMetadata;
+        }
+
+        public boolean hasChecksum() {
+            return hasChecksum;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        // Number of objects per type, e.g. {MTT=12, TASKFLOW=1}
+        public Map<String, Integer> getTypeCounts() {
+            Map<String, Integer> counts = new TreeMap<>();
+            for (PackageObject object : objects) {
+                counts.merge(String.valueOf(object.getType()), 1, Integer::sum);
+            }
+            return counts;
+        }
+    }
+
+    // Validation rules, read from a properties file:
+    //   allowedTypes=MTT,DTEMPLATE,TASKFLOW      object types the package may contain (default any)
+    //   forbiddenTypes=Project                   object types it must not contain
+    //   allowedPaths=Explore/Sales,Explore/Shared  folders every object must be in or below (default any)
+    //   requiredObjects=Explore/Sales/m_load.MTT  objects that must be present, as <path>/<name>.<TYPE>
+    //   maxObjects=500, maxPackageMb=2048, maxObjectMb=512
+    //   requireChecksum=true                     the package must carry exportPackage.chksum
+    public static class Rules {
+        private Set<String> allowedTypes = Collections.emptySet();
+        private Set<String> forbiddenTypes = Collections.emptySet();
+        private List<String> allowedPaths = Collections.emptyList();
+        private List<String> requiredObjects = Collections.emptyList();
+        private long maxObjects;
+        private long maxPackageBytes;
+        private long maxObjectBytes;
+        private boolean requireChecksum;
+
+        // Only the built-in structure checks
+        public static Rules defaults() {
+            return new Rules();
+        }
+
+        // Method to read rules from a properties file
+        public static Rules load(Path rulesFile) throws IOException {
+            Properties properties = new Properties();
+            try (InputStream in = Files.newInputStream(rulesFile)) {
+                properties.load(in);
+            }
+            Rules rules = new Rules();
+            rules.allowedTypes = upperCase(list(properties, "allowedTypes"));
+            rules.forbiddenTypes = upperCase(list(properties, "forbiddenTypes"));
+            rules.allowedPaths = new ArrayList<>();
+            for (String path : list(properties, "allowedPaths")) {
+                rules.allowedPaths.add(trimSlashes(path));
+            }
+            rules.requiredObjects = new ArrayList<>();
+            for (String object : list(properties, "requiredObjects")) {
+                rules.requiredObjects.add(trimSlashes(object));
+            }
+            rules.maxObjects = number(properties, "maxObjects", rulesFile);
+            rules.maxPackageBytes = number(properties, "maxPackageMb", rulesFile) * 1024L * 1024L;
+            rules.maxObjectBytes = number(properties, "maxObjectMb", rulesFile) * 1024L * 1024L;
+            rules.requireChecksum = Boolean.parseBoolean(properties.getProperty("requireChecksum", "false").trim());
+            return rules;
+        }
+
+        private static List<String> list(Properties properties, String key) {
+            List<String> values = new ArrayList<>();
+            for (String value : properties.getProperty(key, "").split(",")) {
+                if (!value.trim().isEmpty()) {
+                    values.add(value.trim());
+                }
+            }
+            return values;
+        }
+
+        private static Set<String> upperCase(List<String> values) {
+            Set<String> upper = new LinkedHashSet<>();
+            for (String value : values) {
+                upper.add(value.toUpperCase());
+            }
+            return upper;
+        }
+
+        private static long number(Properties properties, String key, Path rulesFile) {
+            String value = properties.getProperty(key, "").trim();
+            try {
+                return value.isEmpty() ? 0 : Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(key + " in " + rulesFile + " must be a number: " + value);
+            }
+        }
+    }
+
+    // Method to index the package from its central directory and metadata entry
+    public static Report inspect(Path packagePath) throws IOException {
+        long start = System.nanoTime();
+        Map<String, PackageObject> objects = new LinkedHashMap<>();
+        boolean hasMetadata;
+        boolean hasChecksum;
+        try (ZipFile zip = new ZipFile(packagePath.toFile())) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (!PackageDiff.isObject(entry)) {
+                    continue;
+                }
+                PackageObject object = objects.computeIfAbsent(entry.getName(), PackageObject::new);
+                object.present = true;
+                object.size = entry.getSize();
+                object.compressedSize = entry.getCompressedSize();
+                describeFromEntryName(object);
+            }
+
+            ZipEntry metadata = zip.getEntry(PackageDiff.METADATA_ENTRY);
+            hasMetadata = metadata != null;
+            hasChecksum = zip.getEntry(PackageDiff.CHECKSUM_ENTRY) != null;
+            if (hasMetadata) {
+                try (JsonPullReader reader = new JsonPullReader(zip.getInputStream(metadata))) {
+                    readMetadata(reader, objects);
+                }
+            }
+        }
+        return new Report(packagePath, Files.size(packagePath), new ArrayList<>(objects.values()), hasMetadata,
+                hasChecksum, System.nanoTime() - start);
+    }
+
+    // Method to take name, type and path from an entry name like "Explore/Sales/m_load.MTT.zip"
+    private static void describeFromEntryName(PackageObject object) {
+        String entryName = object.entryName;
+        String withoutZip = entryName.substring(0, entryName.length() - ".zip".length());
+        int slash = withoutZip.lastIndexOf('/');
+        int dot = withoutZip.lastIndexOf('.');
+        if (object.path == null) {
+            object.path = slash >= 0 ? withoutZip.substring(0, slash) : "";
+        }
+        if (object.type == null && dot > slash) {
+            object.type = withoutZip.substring(dot + 1);
+        }
+        if (object.name == null) {
+            object.name = withoutZip.substring(slash + 1, dot > slash ? dot : withoutZip.length());
+        }
+    }
+
+    // Method to mark every object the metadata lists, adding those the package does not hold
+    private static void readMetadata(JsonPullReader reader, Map<String, PackageObject> objects) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!"exportedObjects".equals(reader.nextName()) || reader.peek() != JsonPullReader.Token.BEGIN_ARRAY) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginArray();
+            while (reader.hasNext()) {
+                Map<String, String> fields = new HashMap<>();
+                Json.copyValue(reader, new StringBuilder(), fields);
+                String entryName = PackageDiff.entryName(fields);
+                if (entryName == null) {
+                    continue;
+                }
+                PackageObject object = objects.computeIfAbsent(entryName, PackageObject::new);
+                object.listed = true;
+                object.name = fields.get("objectName");
+                object.type = fields.get("objectType");
+                object.path = trimSlashes(fields.get("path"));
+            }
+            reader.endArray();
+        }
+        reader.endObject();
+    }
+
+    // Method to check the package against the built-in structure checks and the rules; returns the problems
+    public static List<String> validate(Report report, Rules rules) {
+        List<String> problems = new ArrayList<>();
+        if (!report.hasMetadata()) {
+            problems.add("missing " + PackageDiff.METADATA_ENTRY);
+        }
+        if (rules.requireChecksum && !report.hasChecksum()) {
+            problems.add("missing " + PackageDiff.CHECKSUM_ENTRY);
+        }
+        if (report.getObjects().isEmpty()) {
+            problems.add("the package holds no objects");
+        }
+        if (rules.maxPackageBytes > 0 && report.getPackageBytes() > rules.maxPackageBytes) {
+            problems.add(String.format("package is %.1f MB, over the %d MB limit", megabytes(report.getPackageBytes()),
+                    rules.maxPackageBytes / (1024 * 1024)));
+        }
+        if (rules.maxObjects > 0 && report.getObjects().size() > rules.maxObjects) {
+            problems.add(report.getObjects().size() + " objects, over the limit of " + rules.maxObjects);
+        }
+
+        Set<String> present = new LinkedHashSet<>();
+        for (PackageObject object : report.getObjects()) {
+            String type = String.valueOf(object.getType()).toUpperCase();
+            if (object.isPresent()) {
+                // Objects only listed in the metadata do not satisfy requiredObjects
+                present.add(trimSlashes(PackageDiff.baseName(object.getEntryName()) + "." + object.getType()));
+            }
+            if (report.hasMetadata() && object.isListed() && !object.isPresent()) {
+                problems.add(object.getEntryName() + " is listed in the metadata but missing from the package");
+            }
+            if (report.hasMetadata() && !object.isListed()) {
+                problems.add(object.getEntryName() + " is in the package but not listed in the metadata");
+            }
+            if (!rules.allowedTypes.isEmpty() && !rules.allowedTypes.contains(type)) {
+                problems.add(object.getEntryName() + " has type " + object.getType() + ", allowed are "
+                        + rules.allowedTypes);
+            }
+            if (rules.forbiddenTypes.contains(type)) {
+                problems.add(object.getEntryName() + " has forbidden type " + object.getType());
+            }
+            if (!rules.allowedPaths.isEmpty() && !isUnder(object.getPath(), rules.allowedPaths)) {
+                problems.add(object.getEntryName() + " is outside the allowed folders " + rules.allowedPaths);
+            }
+            if (rules.maxObjectBytes > 0 && object.getSize() > rules.maxObjectBytes) {
+                problems.add(String.format("%s is %.1f MB, over the %d MB limit", object.getEntryName(),
+                        megabytes(object.getSize()), rules.maxObjectBytes / (1024 * 1024)));
+            }
+        }
+        for (String required : rules.requiredObjects) {
+            if (!containsIgnoringTypeCase(present, required)) {
+                problems.add("required object " + required + " is not in the package");
+            }
+        }
+        return problems;
+    }
+
+    // Method to inspect and validate a package, failing before anything is sent when a check does not pass
+    public static Report check(Path packagePath, Rules rules) throws IOException {
+        Report report = inspect(packagePath);
+        List<String> problems = validate(report, rules);
+        EventLog.println(String.format("Inspected %s: %d objects %s, %.1f MB, in %.1f ms.",
+                packagePath.getFileName(), report.getObjects().size(), report.getTypeCounts(),
+                megabytes(report.getPackageBytes()), report.getElapsedNanos() / 1e6));
+        if (!problems.isEmpty()) {
+            for (String problem : problems.subList(0, Math.min(problems.size(), MAX_PRINTED_PROBLEMS))) {
+                EventLog.println("  Problem: " + problem);
+            }
+            if (problems.size() > MAX_PRINTED_PROBLEMS) {
+                EventLog.println("  ... and " + (problems.size() - MAX_PRINTED_PROBLEMS) + " more problems.");
+            }
+            throw new RuntimeException("Package " + packagePath + " failed inspection with " + problems.size()
+                    + " problems; nothing was uploaded.");
+        }
+        return report;
+    }
+
+    // Method to print every object of the package
+    public static void printReport(Report report) {
+        EventLog.println(String.format("%-60s %-14s %12s %12s %s", "Object", "Type", "Size", "Compressed",
+                "Metadata"));
+        for (PackageObject object : report.getObjects()) {
+            EventLog.println(String.format("%-60s %-14s %12s %12s %s",
+                    (object.getPath().isEmpty() ? "" : object.getPath() + "/") + object.getName(), object.getType(),
+                    object.isPresent() ? String.valueOf(object.getSize()) : "missing",
+                    object.isPresent() ? String.valueOf(object.getCompressedSize()) : "-",
+                    object.isListed() ? "listed" : "not listed"));
+        }
+        EventLog.println(String.format("%d objects %s, %.1f MB, indexed in %.1f ms", report.getObjects().size(),
+                report.getTypeCounts(), megabytes(report.getPackageBytes()), report.getElapsedNanos() / 1e6));
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            EventLog.println("Usage: java PackageInspector <package.zip> [rules.properties]");
+            return;
+        }
+        Report report = inspect(Paths.get(args[0]));
+        printReport(report);
+        Rules rules = args.length > 1 ? Rules.load(Paths.get(args[1])) : Rules.defaults();
+        List<String> problems = validate(report, rules);
+        for (String problem : problems) {
+            EventLog.println("Problem: " + problem);
+        }
+        EventLog.println(problems.isEmpty() ? "Package passed inspection." : "Package failed inspection.");
+        if (!problems.isEmpty()) {
+            // A non-zero status lets scripts and CI stop on a package that failed
+            System.exit(1);
+        }
+    }
+
+    private static boolean isUnder(String path, List<String> folders) {
+        for (String folder : folders) {
+            if (path.equals(folder) || path.startsWith(folder + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean containsIgnoringTypeCase(Set<String> present, String required) {
+        int dot = required.lastIndexOf('.');
+        for (String object : present) {
+            int objectDot = object.lastIndexOf('.');
+            if (dot > 0 && objectDot > 0 && object.substring(0, objectDot).equals(required.substring(0, dot))
+                    && object.substring(objectDot + 1).equalsIgnoreCase(required.substring(dot + 1))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String trimSlashes(String path) {
+        if (path == null) {
+            return "";
+        }
+        String trimmed = path;
+        while (trimmed.startsWith("/")) {
+            trimmed = trimmed.substring(1);
+        }
+        while (trimmed.endsWith("/")) {
+            trimmed = trimmed.substring(0, trimmed.length() - 1);
+        }
+        return trimmed;
+    }
+
+    private static double megabytes(long bytes) {
+        return bytes / (1024.0 * 1024.0);
+    }
+}
@@ -0,0 +1,256 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+// Combines several export packages into one, so a batch of assets goes through a single upload, import
+// job and status poll sequence instead of one per asset.
+// Every object entry (the nested "<path>/<name>.<TYPE>.zip") is taken from the first package that has it.
+// Assets exported with their dependencies often share connections, runtime environments and mapplets;
+// those entries are written once. When two packages carry the same entry with different contents (an
+// object changed between the exports), the first copy wins and the conflict is reported. The combined
+// exportMetadata.v2.json takes its top-level fields from the first package and lists the exportedObjects
+// of all packages once each; exportPackage.chksum keeps the line of every written entry.
+public class PackageMerger {
+
+    // Outcome of a merge
+    public static class Result {
+        private final Path target;
+        private final int packageCount;
+        private final int objectCount;
+        private final int duplicateCount;
+        private final List<String> conflicts;
+
+        Result(Path target, int packageCount, int objectCount, int duplicateCount, List<String> conflicts) {
+            this.target = target;
+            this.packageCount = packageCount;
+            this.objectCount = objectCount;
+            this.duplicateCount = duplicateCount;
+            this.conflicts = conflicts;
+        }
+
+        public Path getTarget() {
+            return target;
+        }
+
+        public int getPackageCount() {
+            return packageCount;
+        }
+
+        // Number of distinct objects in the combined package
+        public int getObjectCount() {
+            return objectCount;
+        }
+
+        // Number of object entries left out because an earlier package already had them
+        public int getDuplicateCount() {
+            return duplicateCount;
+        }
+
+        // Entries that differed between packages; the first package's copy was used
+        public List<String> getConflicts() {
+            return conflicts;
+        }
+    }
+
+    // Method to merge the packages, in order, into the target file, which gets a .sha256 file like a
+    // downloaded package
+    public static Result merge(List<Path> packagePaths, Path target) throws IOException {
+        if (packagePaths.isEmpty()) {
+            throw new IllegalArgumentException("No packages to merge");
+        }
+        List<ZipFile> zips = new ArrayList<>();
+        Path partFile = target.resolveSibling(target.getFileName() + ".part");
+        try {
+            for (Path packagePath : packagePaths) {
+                zips.add(new ZipFile(packagePath.toFile()));
+            }
+
+            // Decide which package supplies each entry, hashing objects that appear more than once
+            Map<String, Integer> sources = new LinkedHashMap<>();
+            Map<String, String> hashes = new HashMap<>();
+            List<String> conflicts = new ArrayList<>();
+            int duplicates = 0;
+            for (int i = 0; i < zips.size(); i++) {
+                Enumeration<? extends ZipEntry> entries = zips.get(i).entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    String name = entry.getName();
+                    Integer source = sources.get(name);
+                    if (source == null) {
+                        sources.put(name, i);
+                    } else if (PackageDiff.isObject(entry)) {
+                        duplicates++;
+                        String first = hashes.computeIfAbsent(name, k -> hashEntry(zips.get(source), k));
+                        if (!first.equals(PackageDiff.hashObject(zips.get(i), entry)) && !conflicts.contains(name)) {
+                            conflicts.add(name);
+                        }
+                    }
+                }
+            }
+
+            int objects = 0;
+            try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(partFile))) {
+                for (Map.Entry<String, Integer> source : sources.entrySet()) {
+                    String name = source.getKey();
+                    ZipFile zip = zips.get(source.getValue());
+                    ZipEntry entry = zip.getEntry(name);
+                    out.putNextEntry(new ZipEntry(name));
+                    if (PackageDiff.METADATA_ENTRY.equals(name)) {
+                        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+                        writeMetadata(zips, writer);
+                        writer.flush();
+                    } else if (PackageDiff.CHECKSUM_ENTRY.equals(name)) {
+                        writeChecksums(zips, sources, out);
+                    } else {
+                        objects += PackageDiff.isObject(entry) ? 1 : 0;
+                        try (InputStream in = zip.getInputStream(entry)) {
+                            PackageDiff.copy(in, out);
+                        }
+                    }
+                    out.closeEntry();
+                }
+            }
+            Files.move(partFile, target, StandardCopyOption.REPLACE_EXISTING);
+            PackageDownloader.writeStoredSha256(target, PackageDownloader.sha256(target));
+
+            Result result = new Result(target, packagePaths.size(), objects, duplicates, conflicts);
+            EventLog.info("merge", null, "Merged " + packagePaths.size() + " packages into " + target + ": " + objects
+                    + " objects, " + duplicates + " shared entries written once.");
+            for (String conflict : conflicts) {
+                EventLog.warn("merge", null, conflict + " differs between packages; using the first copy.");
+            }
+            return result;
+        } finally {
+            for (ZipFile zip : zips) {
+                zip.close();
+            }
+            Files.deleteIfExists(partFile);
+        }
+    }
+
+    // Helper function to hash an object entry inside a lambda
+    private static String hashEntry(ZipFile zip, String name) {
+        try {
+            return PackageDiff.hashObject(zip, zip.getEntry(name));
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read " + name + " from " + zip.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    // Method to write the first package's metadata with the exportedObjects of every package, each object once
+    private static void writeMetadata(List<ZipFile> zips, Writer out) throws IOException {
+        Map<String, String> fields = new LinkedHashMap<>();
+        Map<String, String> exportedObjects = new LinkedHashMap<>();
+        boolean first = true;
+        for (ZipFile zip : zips) {
+            ZipEntry entry = zip.getEntry(PackageDiff.METADATA_ENTRY);
+            if (entry == null) {
+                continue;
+            }
+            try (JsonPullReader reader = new JsonPullReader(zip.getInputStream(entry))) {
+                readMetadata(reader, first ? fields : null, exportedObjects);
+            }
+            first = false;
+        }
+
+        out.write('{');
+        String separator = "";
+        if (!fields.containsKey("exportedObjects")) {
+            fields.put("exportedObjects", null);
+        }
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            out.write(separator);
+            out.write(Json.quote(field.getKey()));
+            out.write(':');
+            if ("exportedObjects".equals(field.getKey())) {
+                out.write('[');
+                out.write(String.join(",", exportedObjects.values()));
+                out.write(']');
+            } else {
+                out.write(field.getValue());
+            }
+            separator = ",";
+        }
+        out.write('}');
+    }
+
+    // Method to read the top-level fields (as JSON text) of a metadata document, when asked, and add its
+    // exportedObjects elements that are not known yet, keyed by their package entry or GUID
+    private static void readMetadata(JsonPullReader reader, Map<String, String> fields,
+            Map<String, String> exportedObjects) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("exportedObjects".equals(name) && reader.peek() == JsonPullReader.Token.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    StringBuilder element = new StringBuilder();
+                    Map<String, String> objectFields = new HashMap<>();
+                    Json.copyValue(reader, element, objectFields);
+                    String key = PackageDiff.entryName(objectFields);
+                    if (key == null) {
+                        key = objectFields.get("objectGuid") != null ? objectFields.get("objectGuid")
+                                : element.toString();
+                    }
+                    exportedObjects.putIfAbsent(key, element.toString());
+                }
+                reader.endArray();
+                if (fields != null) {
+                    fields.put(name, null);
+                }
+            } else if (fields != null) {
+                StringBuilder value = new StringBuilder();
+                Json.copyValue(reader, value, null);
+                fields.put(name, value.toString());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    // Method to write the checksum lines of every written entry, taken from the package that supplied it.
+    // Lines that name no entry (headers) come from the first package only; lines of entries that were not
+    // written are dropped.
+    private static void writeChecksums(List<ZipFile> zips, Map<String, Integer> sources, ZipOutputStream out)
+            throws IOException {
+        ByteArrayOutputStream merged = new ByteArrayOutputStream();
+        for (int i = 0; i < zips.size(); i++) {
+            ZipEntry entry = zips.get(i).getEntry(PackageDiff.CHECKSUM_ENTRY);
+            if (entry == null) {
+                continue;
+            }
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(zips.get(i).getInputStream(entry), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String named = PackageDiff.checksumEntryName(line);
+                    if (named != null && !sources.containsKey(named)) {
+                        continue;
+                    }
+                    if (named == null ? i == 0 : sources.get(named) == i) {
+                        merged.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+                    }
+                }
+            }
+        }
+        merged.writeTo(out);
+    }
+}
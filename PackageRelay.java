@@ -0,0 +1,165 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// Relays an export package from the NON - PROD download straight into the PROD import upload without
+// touching the disk. A background thread reads the download into a fixed pool of chunks; the calling
+// thread writes filled chunks into the multipart upload as soon as they arrive. When the upload falls
+// behind, the pool runs dry and the download blocks (backpressure), so memory stays at
+// CHUNK_SIZE * CHUNK_COUNT whatever the package size. If either side fails, the other side is torn down
+// and the upload is aborted before its body completes, so PROD never receives a truncated package.
+public class PackageRelay {
+
+    private static final int CHUNK_SIZE = 256 * 1024;
+    private static final int CHUNK_COUNT = 16;
+
+    // A reusable buffer travelling between the download and upload threads
+    private static class Chunk {
+        private final byte[] data = new byte[CHUNK_SIZE];
+        private int length;
+    }
+
+    // Marks the end of the download; carries the failure if the download did not complete
+    private static final Chunk END_OF_STREAM = new Chunk();
+
+    private final BlockingQueue<Chunk> free = new ArrayBlockingQueue<>(CHUNK_COUNT);
+    private final BlockingQueue<Chunk> filled = new ArrayBlockingQueue<>(CHUNK_COUNT + 1);
+    private volatile Exception downloadFailure;
+    private volatile boolean cancelled;
+
+    private PackageRelay() {
+        for (int i = 0; i < CHUNK_COUNT; i++) {
+            free.add(new Chunk());
+        }
+    }
+
+    // Method to relay the package of a finished export to the PROD import endpoint.
+    // Returns the response of the upload request; the caller checks it for the import job ID.
+    public static IicsHttpClient.Response relay(String sourceServerUrl, String sourceSessionId, String exportId,
+            String targetServerUrl, String targetSessionId) throws IOException {
+        return new PackageRelay().run(sourceServerUrl, sourceSessionId, exportId, targetServerUrl, targetSessionId);
+    }
+
+    private IicsHttpClient.Response run(String sourceServerUrl, String sourceSessionId, String exportId,
+            String targetServerUrl, String targetSessionId) throws IOException {
+        // Start the download first so its size is known before the upload request is built
+        HttpURLConnection download = IicsHttpClient.forServer(sourceServerUrl)
+                .open("GET", "/public/core/v3/export/" + exportId + "/package", sourceSessionId);
+        // Until the download thread takes it over, every way out reports the download to the org's throttle
+        int downloadCode = -1;
+        HttpURLConnection upload;
+        try {
+            downloadCode = download.getResponseCode();
+            if (downloadCode != HttpURLConnection.HTTP_OK) {
+                IicsHttpClient.release(download);
+                throw new RuntimeException("Failed to download export package. HTTP Error Code: " + downloadCode);
+            }
+            upload = IicsHttpClient.forServer(targetServerUrl)
+                    .open("POST", "/public/core/v3/import/package", targetSessionId);
+        } catch (IOException | RuntimeException e) {
+            download.disconnect();
+            IicsHttpClient.recordCall(download, downloadCode);
+            throw e;
+        }
+        long packageSize = download.getContentLengthLong();
+
+        MultipartBody body = new MultipartBody("package", "export_package_" + exportId + ".zip", "application/zip");
+        upload.setRequestProperty("Content-Type", body.getContentType());
+        upload.setDoOutput(true);
+        if (packageSize >= 0) {
+            upload.setFixedLengthStreamingMode(body.getContentLength(packageSize));
+        } else {
+            upload.setChunkedStreamingMode(CHUNK_SIZE);
+        }
+
+        int answeredCode = downloadCode;
+        Thread downloader = new Thread(() -> pump(download, answeredCode), "package-relay-download");
+        downloader.setDaemon(true);
+        downloader.start();
+
+        long start = System.nanoTime();
+        long bytesRelayed = 0;
+        try {
+            OutputStream outputStream = upload.getOutputStream();
+            body.writeHeader(outputStream);
+            while (true) {
+                Chunk chunk = filled.take();
+                if (chunk == END_OF_STREAM) {
+                    break;
+                }
+                outputStream.write(chunk.data, 0, chunk.length);
+                bytesRelayed += chunk.length;
+                free.put(chunk);
+            }
+
+            if (downloadFailure != null) {
+                throw new IOException("Download failed after " + bytesRelayed + " bytes: "
+                        + downloadFailure.getMessage(), downloadFailure);
+            }
+            if (packageSize >= 0 && bytesRelayed != packageSize) {
+                throw new IOException("Download ended after " + bytesRelayed + " of " + packageSize + " bytes");
+            }
+
+            body.writeTrailer(outputStream);
+            outputStream.close();
+        } catch (IOException | RuntimeException e) {
+            abort(downloader, download, upload);
+            throw e;
+        } catch (InterruptedException e) {
+            abort(downloader, download, upload);
+            Thread.currentThread().interrupt();
+            throw new IOException("Package relay was interrupted", e);
+        }
+
+        long elapsedNanos = System.nanoTime() - start;
+        CrossProdAssetExportUtility.printTransferRate("Relayed", bytesRelayed, elapsedNanos);
+        Metrics.recordTransfer("relay", bytesRelayed, elapsedNanos);
+        return IicsHttpClient.readFields(upload, "jobId");
+    }
+
+    // Method run on the download thread: fills free chunks from the download stream until it ends
+    private void pump(HttpURLConnection download, int downloadCode) {
+        try (InputStream in = download.getInputStream()) {
+            while (!cancelled) {
+                Chunk chunk = free.take();
+                chunk.length = readFully(in, chunk.data);
+                if (chunk.length == 0) {
+                    break;
+                }
+                filled.put(chunk);
+            }
+        } catch (Exception e) {
+            downloadFailure = e;
+            download.disconnect();
+        } finally {
+            IicsHttpClient.recordCall(download, downloadCode);
+            filled.offer(END_OF_STREAM);
+        }
+    }
+
+    // Method to fill the buffer as far as the stream allows; returns 0 only at the end of the stream
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int bytesRead = in.read(buffer, total, buffer.length - total);
+            if (bytesRead == -1) {
+                break;
+            }
+            total += bytesRead;
+        }
+        return total;
+    }
+
+    // Method to stop both transfers; disconnecting mid-body makes sure PROD never sees a complete request.
+    // The upload never got an answer, so it is reported to its org's throttle as a broken connection.
+    private void abort(Thread downloader, HttpURLConnection download, HttpURLConnection upload) {
+        cancelled = true;
+        downloader.interrupt();
+        download.disconnect();
+        upload.disconnect();
+        IicsHttpClient.recordCall(upload, -1);
+    }
+}
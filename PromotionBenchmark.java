@@ -0,0 +1,165 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// End-to-end benchmark of the full promotion flow against StubIicsServer.
+// For every package size and concurrency level it starts a stub org, runs CrossProdAssetExportUtility in
+// batch mode over a manifest of N assets (answering the interactive prompts through System.in), and
+// reports wall time, peak heap use and package throughput (bytes downloaded plus bytes uploaded).
+// Run with: java -Xmx512m PromotionBenchmark [--sizes-mb 1,16,64] [--concurrency 1,4,8] [--assets 8]
+//           [--export-ms 500] [--import-ms 500] [--error-rate 0.0]
+public class PromotionBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int[] sizesMegabytes = { 1, 16, 64 };
+        int[] concurrencyLevels = { 1, 4, 8 };
+        int assets = 8;
+        long exportMillis = 500;
+        long importMillis = 500;
+        double errorRate = 0;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--sizes-mb":
+                    sizesMegabytes = parseList(value);
+                    break;
+                case "--concurrency":
+                    concurrencyLevels = parseList(value);
+                    break;
+                case "--assets":
+                    assets = Integer.parseInt(value);
+                    break;
+                case "--export-ms":
+                    exportMillis = Long.parseLong(value);
+                    break;
+                case "--import-ms":
+                    importMillis = Long.parseLong(value);
+                    break;
+                case "--error-rate":
+                    errorRate = Double.parseDouble(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        System.out.println(String.format("%d assets per run, export %d ms, import %d ms, error rate %.2f", assets,
+                exportMillis, importMillis, errorRate));
+        System.out.println(String.format("%8s %11s %10s %12s %14s %10s %9s", "size MB", "concurrency", "wall s",
+                "peak heap MB", "throughput MB/s", "requests", "imported"));
+        for (int sizeMegabytes : sizesMegabytes) {
+            for (int concurrency : concurrencyLevels) {
+                StubIicsServer.Config config = new StubIicsServer.Config()
+                        .exportMillis(exportMillis)
+                        .importMillis(importMillis)
+                        .packageBytes(sizeMegabytes * 1024L * 1024L)
+                        .errorRate(errorRate);
+                run(config, sizeMegabytes, concurrency, assets);
+            }
+        }
+    }
+
+    // Method to run one promotion of the given number of assets and print its row of the report
+    private static void run(StubIicsServer.Config config, int sizeMegabytes, int concurrency, int assets)
+            throws IOException, InterruptedException {
+        StubIicsServer stub = new StubIicsServer(0, config);
+        stub.start();
+        Path workDir = Files.createTempDirectory("promotion-benchmark");
+        try {
+            Path manifest = workDir.resolve("assets.txt");
+            StringBuilder lines = new StringBuilder();
+            for (int i = 0; i < assets; i++) {
+                lines.append("BenchAsset").append(i).append(",true\n");
+            }
+            Files.write(manifest, lines.toString().getBytes(StandardCharsets.UTF_8));
+
+            // Region, username and password for NON - PROD, then the same for PROD
+            String answers = stub.getBaseUrl() + "\nbench\nbench\n" + stub.getBaseUrl() + "\nbench\nbench\n";
+            String[] utilityArgs = { "--manifest", manifest.toString(), "--concurrency", String.valueOf(concurrency),
+                    "--output-dir", workDir.resolve("packages").toString(), "--poll-initial-ms", "100",
+                    "--poll-max-ms", "1000" };
+
+            HeapSampler sampler = new HeapSampler();
+            InputStream originalIn = System.in;
+            PrintStream originalOut = System.out;
+            long start = System.nanoTime();
+            sampler.start();
+            try {
+                System.setIn(new ByteArrayInputStream(answers.getBytes(StandardCharsets.UTF_8)));
+                System.setOut(new PrintStream(new OutputStream() {
+                    @Override
+                    public void write(int b) {
+                        // The utility's progress output is not part of the report
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) {
+                        // The utility's progress output is not part of the report
+                    }
+                }));
+                CrossProdAssetExportUtility.main(utilityArgs);
+            } finally {
+                EventLog.flush();
+                System.setIn(originalIn);
+                System.setOut(originalOut);
+                sampler.stop();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            double megabytes = (stub.getBytesServed() + stub.getBytesReceived()) / (1024.0 * 1024.0);
+
+            System.out.println(String.format("%8d %11d %10.2f %12.1f %14.2f %10d %5d/%d", sizeMegabytes, concurrency,
+                    seconds, sampler.peakBytes / (1024.0 * 1024.0), megabytes / seconds, stub.getRequestCount(),
+                    stub.getCompletedImports(), assets));
+        } finally {
+            stub.stop();
+            LocalStore.deleteRecursively(workDir);
+        }
+    }
+
+    // Samples used heap every 10 ms on a background thread and keeps the highest value
+    private static class HeapSampler implements Runnable {
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private final Thread thread = new Thread(this, "heap-sampler");
+        private volatile boolean running = true;
+        private volatile long peakBytes;
+
+        void start() {
+            System.gc();
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void stop() throws InterruptedException {
+            running = false;
+            thread.join();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                peakBytes = Math.max(peakBytes, memory.getHeapMemoryUsage().getUsed());
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static int[] parseList(String value) {
+        String[] parts = value.split(",");
+        int[] numbers = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            numbers[i] = Integer.parseInt(parts[i].trim());
+        }
+        return numbers;
+    }
+}
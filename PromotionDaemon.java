@@ -0,0 +1,668 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Long-running promotion service: stays logged in to the NON - PROD org and the production orgs and takes
+// promotion requests over a local HTTP endpoint, so a promotion only waits for IICS and not for JVM startup,
+// class loading, warm-up and logins. Requests are queued (up to a limit) and run a few at a time on one
+// shared PromotionEngine, which keeps the per-org cap on jobs in flight across all requests. Sessions are
+// checked in the background and before each job, and logged in again when they are about to expire.
+// Every request must carry the bearer token the daemon generates at startup and writes to an owner-only file,
+// name 127.0.0.1:<port> or localhost:<port> as its Host and, for a POST, send application/json; so other
+// local users, web pages posting plain text and DNS-rebound browsers cannot queue promotions or stop it.
+// Endpoints, bound to 127.0.0.1 only:
+//   POST   /promotions       {"assets": [{"asset": "<id or path>", "type": "MTT", "includeDependencies": true}],
+//                             "targets": ["prod"]} - queue a promotion; assets may also be plain ID strings
+//   GET    /promotions       every job the daemon remembers, newest last
+//   GET    /promotions/<id>  one job with the phase, export ID and import job ID of each asset
+//   DELETE /promotions/<id>  cancel a job that has not started
+//   GET    /health           queue length and the state of every org session
+//   POST   /shutdown         finish the running jobs, log out and stop
+public class PromotionDaemon {
+
+    private static final long CHECK_SESSIONS_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final long MIN_REMAINING_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final int MAX_REQUEST_BYTES = 1024 * 1024;
+    private static final int MAX_FINISHED_JOBS = 500;
+    private static final int TOKEN_BYTES = 32;
+
+    // States of a queued promotion request
+    public enum State {
+        QUEUED, RUNNING, SUCCESSFUL, FAILED, CANCELLED
+    }
+
+    // An org the daemon stays logged in to
+    public static class WarmOrg {
+        private final String name;
+        private final String regionUrl;
+        private final String username;
+        private final String password;
+        private volatile OrgSession session;
+        private volatile long loggedInMillis = System.currentTimeMillis();
+        private volatile long checkedMillis = System.currentTimeMillis();
+        private volatile String problem;
+
+        // password may be null when the session came from the session cache; it is then not renewed
+        public WarmOrg(String name, OrgSession session, String password) {
+            this.name = name;
+            this.regionUrl = session.getRegionUrl();
+            this.username = session.getUsername();
+            this.password = password;
+            this.session = session;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        // Method to return a session that was checked recently, renewing it first when it was not
+        public synchronized OrgSession session() throws IOException {
+            if (System.currentTimeMillis() - checkedMillis >= CHECK_SESSIONS_MILLIS) {
+                check();
+            }
+            return session;
+        }
+
+        // Method to ask IICS how long the session has left and log in again when it will not last until the
+        // next check
+        public synchronized void check() throws IOException {
+            long remainingMillis;
+            try {
+                remainingMillis = SessionCache.validate(regionUrl, username, session.getIcSessionId());
+            } catch (IOException e) {
+                problem = "could not check the session: " + e.getMessage();
+                throw e;
+            }
+            if (remainingMillis < MIN_REMAINING_MILLIS) {
+                if (password == null) {
+                    problem = "session expires and no password is known to log in again";
+                    throw new IOException("The session of " + name + " expires and no password is known to log in"
+                            + " again; restart the daemon without --cache-sessions.");
+                }
+                session = CrossProdAssetExportUtility.loginToOrg(regionUrl, username,
+                        CrossProdAssetExportUtility.buildLoginPayload(username, password));
+                loggedInMillis = System.currentTimeMillis();
+                EventLog.info("login", name, "Logged in to " + name + " again.");
+            }
+            checkedMillis = System.currentTimeMillis();
+            problem = null;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    // One promotion request and its progress
+    private static class Job implements Runnable {
+        private final String id;
+        private final List<ExportManifest.Entry> entries;
+        private final List<WarmOrg> targets;
+        private final long submittedMillis = System.currentTimeMillis();
+        private final PromotionDaemon daemon;
+        private volatile State state = State.QUEUED;
+        private volatile List<PromotionEngine.Promotion> promotions = Collections.emptyList();
+        private volatile long startedMillis;
+        private volatile long finishedMillis;
+        private volatile String error;
+
+        Job(String id, List<ExportManifest.Entry> entries, List<WarmOrg> targets, PromotionDaemon daemon) {
+            this.id = id;
+            this.entries = entries;
+            this.targets = targets;
+            this.daemon = daemon;
+        }
+
+        @Override
+        public void run() {
+            daemon.runJob(this);
+        }
+    }
+
+    private final WarmOrg source;
+    private final Map<String, WarmOrg> targets = new LinkedHashMap<>();
+    private final Path outputDir;
+    private final boolean keepPackages;
+    private final int port;
+    private final Path tokenFile;
+    private final String token;
+    private final byte[] expectedAuthorization;
+    private final ExportCache exportCache;
+    private final PromotionEngine engine;
+    private final ThreadPoolExecutor workers;
+    private final ScheduledExecutorService sessionChecker;
+    private final ExecutorService httpThreads;
+    private final Map<String, Job> jobs = new LinkedHashMap<>();
+    // Started from the start time, so a restarted daemon does not reuse the job IDs and directories of an
+    // earlier one
+    private final String jobIdPrefix = "job-" + Long.toString(System.currentTimeMillis(), 36) + "-";
+    private final AtomicInteger jobCounter = new AtomicInteger();
+    private final CountDownLatch shutdownRequested = new CountDownLatch(1);
+    private HttpServer server;
+
+    // jobConcurrency requests run side by side and queueCapacity more wait; orgConcurrency caps the jobs in
+    // flight per org across all of them. The packages of a job are deleted when it finishes unless keepPackages.
+    public PromotionDaemon(WarmOrg source, List<WarmOrg> targets, Path outputDir, boolean keepPackages, int port,
+            int jobConcurrency, int queueCapacity, int orgConcurrency, ExportCache exportCache, Path tokenFile) {
+        this.source = source;
+        for (WarmOrg target : targets) {
+            this.targets.put(target.getName(), target);
+        }
+        this.outputDir = outputDir;
+        this.keepPackages = keepPackages;
+        this.port = port;
+        this.tokenFile = tokenFile;
+        byte[] random = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(random);
+        this.token = LocalStore.hex(random);
+        this.expectedAuthorization = ("Bearer " + token).getBytes(StandardCharsets.UTF_8);
+        this.exportCache = exportCache;
+        this.engine = new PromotionEngine(orgConcurrency, exportCache);
+        AtomicInteger threadCounter = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(jobConcurrency, jobConcurrency, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "daemon-job-" + threadCounter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.sessionChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "daemon-sessions");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Requests only queue work or read state, so two threads are plenty
+        this.httpThreads = Executors.newFixedThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "daemon-http");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Default token file, next to the session cache and the package cache
+    public static Path defaultTokenFile() {
+        return Paths.get(System.getProperty("user.home"), ".iics-asset-export", "daemon.token");
+    }
+
+    // Method to start serving requests and checking the sessions in the background
+    public void start() throws IOException {
+        writeToken();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(httpThreads);
+        server.start();
+        sessionChecker.scheduleWithFixedDelay(this::checkSessions, CHECK_SESSIONS_MILLIS, CHECK_SESSIONS_MILLIS,
+                TimeUnit.MILLISECONDS);
+        EventLog.println("Promotion daemon listening on http://127.0.0.1:" + server.getAddress().getPort()
+                + " with target orgs " + targets.keySet() + ". Send the token in " + tokenFile
+                + " as a bearer token; POST /shutdown to stop.");
+    }
+
+    // Method to write the token to a file only the owner can read, replacing the one of an earlier run
+    private void writeToken() throws IOException {
+        LocalStore.writeAtomically(tokenFile, "daemon", true,
+                out -> out.write((token + System.lineSeparator()).getBytes(StandardCharsets.UTF_8)));
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    // Method to block until a shutdown is requested over HTTP or by the JVM
+    public void awaitShutdown() throws InterruptedException {
+        shutdownRequested.await();
+    }
+
+    public void requestShutdown() {
+        shutdownRequested.countDown();
+    }
+
+    // Method to stop taking requests, cancel the queued jobs and wait for the running ones to finish
+    public void stop() throws InterruptedException {
+        if (server != null) {
+            server.stop(0);
+        }
+        httpThreads.shutdownNow();
+        sessionChecker.shutdownNow();
+        List<Runnable> queued = new ArrayList<>();
+        workers.getQueue().drainTo(queued);
+        for (Runnable runnable : queued) {
+            Job job = (Job) runnable;
+            job.state = State.CANCELLED;
+            job.error = "The daemon shut down before the job started";
+            job.finishedMillis = System.currentTimeMillis();
+        }
+        workers.shutdown();
+        if (!workers.awaitTermination(1, TimeUnit.HOURS)) {
+            EventLog.println("Running jobs did not finish within an hour; stopping anyway.");
+        }
+        engine.shutdown();
+        try {
+            Files.deleteIfExists(tokenFile);
+        } catch (IOException e) {
+            EventLog.println("Could not delete the token file " + tokenFile + ": " + e.getMessage());
+        }
+        EventLog.flush();
+    }
+
+    // Method to log out of every org, or keep the sessions for the next run when they are cached
+    public void closeSessions(SessionCache sessionCache) {
+        List<WarmOrg> orgs = new ArrayList<>(targets.values());
+        orgs.add(0, source);
+        for (WarmOrg org : orgs) {
+            OrgSession session = org.session;
+            if (sessionCache != null) {
+                sessionCache.store(session);
+            } else {
+                EventLog.println("Logging out of " + org + "...");
+                CrossProdAssetExportUtility.logout(org.regionUrl, session.getIcSessionId(), org.username,
+                        org.password);
+            }
+        }
+    }
+
+    // Method run in the background to keep every session valid between jobs
+    private void checkSessions() {
+        List<WarmOrg> orgs = new ArrayList<>(targets.values());
+        orgs.add(0, source);
+        for (WarmOrg org : orgs) {
+            try {
+                org.check();
+            } catch (IOException e) {
+                EventLog.warn("login", org.getName(), "Could not renew the session of " + org + ": "
+                        + e.getMessage());
+            }
+        }
+    }
+
+    // Method run on a worker thread: promote every asset of the job into every target org
+    private void runJob(Job job) {
+        job.state = State.RUNNING;
+        job.startedMillis = System.currentTimeMillis();
+        EventLog.info("daemon", job.id, "Starting job " + job.id + ": " + job.entries.size() + " assets into "
+                + job.targets + " after " + (job.startedMillis - job.submittedMillis) + " ms in the queue.");
+        try {
+            if (exportCache != null) {
+                // Each job sees the references as they are now, not as an earlier job walked them
+                exportCache.forgetDependencies();
+            }
+            OrgSession sourceSession = source.session();
+            List<PromotionEngine.Promotion> promotions = new ArrayList<>();
+            for (WarmOrg target : job.targets) {
+                promotions.addAll(PromotionEngine.plan(job.entries, sourceSession, target.session(),
+                        jobDir(job).resolve(target.getName().replaceAll("[^A-Za-z0-9._-]", "_"))));
+            }
+            job.promotions = promotions;
+            engine.runAll(promotions);
+            int failed = 0;
+            for (PromotionEngine.Promotion promotion : promotions) {
+                if (promotion.getPhase() != PromotionEngine.Phase.SUCCESSFUL) {
+                    failed++;
+                }
+            }
+            if (failed > 0) {
+                job.error = failed + " of " + promotions.size() + " promotions failed";
+            }
+            job.state = failed == 0 ? State.SUCCESSFUL : State.FAILED;
+        } catch (InterruptedException e) {
+            job.error = "Interrupted";
+            job.state = State.FAILED;
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            job.error = e.getMessage();
+            job.state = State.FAILED;
+        } finally {
+            if (!keepPackages) {
+                deleteJobDir(job);
+            }
+            job.finishedMillis = System.currentTimeMillis();
+            EventLog.info("daemon", job.id, "Job " + job.id + " finished as " + job.state + " in "
+                    + (job.finishedMillis - job.startedMillis) + " ms.");
+            forgetOldJobs();
+        }
+    }
+
+    // Directory the packages of the job are downloaded to, one subdirectory per target org
+    private Path jobDir(Job job) {
+        return outputDir.resolve(job.id);
+    }
+
+    // Method to delete the packages of a finished job, so a long-running daemon does not fill the disk
+    private void deleteJobDir(Job job) {
+        try {
+            LocalStore.deleteRecursively(jobDir(job));
+        } catch (IOException e) {
+            EventLog.warn("daemon", job.id, "Could not delete " + jobDir(job) + ": " + e.getMessage());
+        }
+    }
+
+    // Method to keep the memory of finished jobs bounded
+    private void forgetOldJobs() {
+        synchronized (jobs) {
+            int finished = 0;
+            for (Job job : jobs.values()) {
+                if (job.finishedMillis > 0) {
+                    finished++;
+                }
+            }
+            Iterator<Job> iterator = jobs.values().iterator();
+            while (finished > MAX_FINISHED_JOBS && iterator.hasNext()) {
+                if (iterator.next().finishedMillis > 0) {
+                    iterator.remove();
+                    finished--;
+                }
+            }
+        }
+    }
+
+    // Method to route a request to its endpoint
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!accept(exchange)) {
+                return;
+            }
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+            if ("/promotions".equals(path) && "POST".equals(method)) {
+                submit(exchange);
+            } else if ("/promotions".equals(path) && "GET".equals(method)) {
+                StringBuilder json = new StringBuilder("{\"jobs\":[");
+                synchronized (jobs) {
+                    for (Job job : jobs.values()) {
+                        json.append(json.charAt(json.length() - 1) == '[' ? "" : ",").append(toJson(job, false));
+                    }
+                }
+                respond(exchange, 200, json.append("]}").toString());
+            } else if (path.startsWith("/promotions/")) {
+                Job job;
+                synchronized (jobs) {
+                    job = jobs.get(path.substring("/promotions/".length()));
+                }
+                if (job == null) {
+                    respond(exchange, 404, error("No job " + path.substring("/promotions/".length())));
+                } else if ("GET".equals(method)) {
+                    respond(exchange, 200, toJson(job, true));
+                } else if ("DELETE".equals(method)) {
+                    cancel(exchange, job);
+                } else {
+                    respond(exchange, 405, error("Use GET or DELETE on " + path));
+                }
+            } else if ("/health".equals(path) && "GET".equals(method)) {
+                respond(exchange, 200, health());
+            } else if ("/shutdown".equals(path) && "POST".equals(method)) {
+                respond(exchange, 202, "{\"state\":\"STOPPING\"}");
+                requestShutdown();
+            } else {
+                respond(exchange, 404, error("Unknown endpoint " + method + " " + path));
+            }
+        } catch (Exception e) {
+            respond(exchange, 500, error(e.getMessage()));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // Method to check that a request comes from a local client that holds the token, answering it with
+    // the reason when it does not
+    private boolean accept(HttpExchange exchange) throws IOException {
+        String host = exchange.getRequestHeaders().getFirst("Host");
+        int boundPort = server.getAddress().getPort();
+        if (host == null || !(host.equalsIgnoreCase("127.0.0.1:" + boundPort)
+                || host.equalsIgnoreCase("localhost:" + boundPort))) {
+            respond(exchange, 403, error("Host must be 127.0.0.1:" + boundPort + " or localhost:" + boundPort));
+            return false;
+        }
+        // Browsers send an Origin with every cross-site request; command line clients do not
+        if (exchange.getRequestHeaders().getFirst("Origin") != null) {
+            respond(exchange, 403, error("Requests from web pages are not accepted"));
+            return false;
+        }
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization == null || !MessageDigest.isEqual(expectedAuthorization,
+                authorization.trim().getBytes(StandardCharsets.UTF_8))) {
+            exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+            respond(exchange, 401, error("Missing or wrong bearer token; it is in " + tokenFile));
+            return false;
+        }
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        if ("POST".equals(exchange.getRequestMethod()) && (contentType == null
+                || !contentType.trim().toLowerCase().matches("application/json\\s*(;.*)?"))) {
+            respond(exchange, 415, error("Content-Type must be application/json"));
+            return false;
+        }
+        return true;
+    }
+
+    // Method to queue a promotion request
+    private void submit(HttpExchange exchange) throws IOException {
+        byte[] body = readBody(exchange);
+        if (body == null) {
+            respond(exchange, 413, error("Requests are limited to " + MAX_REQUEST_BYTES + " bytes"));
+            return;
+        }
+        List<ExportManifest.Entry> entries = new ArrayList<>();
+        List<String> targetNames = new ArrayList<>();
+        try {
+            parseRequest(new String(body, StandardCharsets.UTF_8), entries, targetNames);
+        } catch (IOException | IllegalArgumentException e) {
+            respond(exchange, 400, error("Unreadable request: " + e.getMessage()));
+            return;
+        }
+        if (entries.isEmpty()) {
+            respond(exchange, 400, error("The request names no assets"));
+            return;
+        }
+        List<WarmOrg> jobTargets = new ArrayList<>();
+        for (String name : targetNames.isEmpty() ? new ArrayList<>(targets.keySet()) : targetNames) {
+            WarmOrg target = targets.get(name);
+            if (target == null) {
+                respond(exchange, 400, error("Unknown target org " + name + "; known are " + targets.keySet()));
+                return;
+            }
+            jobTargets.add(target);
+        }
+
+        Job job = new Job(jobIdPrefix + jobCounter.incrementAndGet(), entries, jobTargets, this);
+        synchronized (jobs) {
+            jobs.put(job.id, job);
+        }
+        try {
+            workers.execute(job);
+        } catch (RejectedExecutionException e) {
+            synchronized (jobs) {
+                jobs.remove(job.id);
+            }
+            respond(exchange, 503, error("The queue is full (" + workers.getQueue().size() + " jobs waiting)"));
+            return;
+        }
+        EventLog.info("daemon", job.id, "Queued job " + job.id + ": " + entries.size() + " assets into "
+                + jobTargets + ".");
+        respond(exchange, 202, toJson(job, false));
+    }
+
+    // Method to cancel a job that is still waiting in the queue
+    private void cancel(HttpExchange exchange, Job job) throws IOException {
+        if (job.state == State.QUEUED && workers.remove(job)) {
+            job.state = State.CANCELLED;
+            job.finishedMillis = System.currentTimeMillis();
+            respond(exchange, 200, toJson(job, false));
+        } else {
+            respond(exchange, 409, error("Job " + job.id + " is " + job.state + " and can no longer be cancelled"));
+        }
+    }
+
+    // Method to read the assets and target org names of a promotion request
+    private static void parseRequest(String body, List<ExportManifest.Entry> entries, List<String> targetNames)
+            throws IOException {
+        try (JsonPullReader reader = new JsonPullReader(new StringReader(body))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if ("assets".equals(name)) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        entries.add(readEntry(reader));
+                    }
+                    reader.endArray();
+                } else if ("targets".equals(name)) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        targetNames.add(reader.nextString());
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+    }
+
+    // Method to read one asset: an ID string, or an object like a manifest line
+    private static ExportManifest.Entry readEntry(JsonPullReader reader) throws IOException {
+        if (reader.peek() != JsonPullReader.Token.BEGIN_OBJECT) {
+            return new ExportManifest.Entry(reader.nextString(), false, null);
+        }
+        Map<String, String> fields = new LinkedHashMap<>();
+        Json.copyValue(reader, new StringBuilder(), fields);
+        String asset = fields.get("asset") != null ? fields.get("asset") : fields.get("id");
+        if (asset == null || asset.trim().isEmpty()) {
+            throw new IllegalArgumentException("an asset has neither \"asset\" nor \"id\"");
+        }
+        ExportManifest.Entry entry = new ExportManifest.Entry(asset.trim(),
+                "true".equalsIgnoreCase(fields.get("includeDependencies")), fields.get("type"));
+        if (entry.isPath() && (entry.getType() == null || entry.getType().isEmpty())) {
+            throw new IllegalArgumentException("path " + asset + " needs a \"type\"");
+        }
+        return entry;
+    }
+
+    // Method to describe a job; with details, every promotion of it is listed
+    private static String toJson(Job job, boolean details) {
+        StringBuilder json = new StringBuilder("{");
+        json.append("\"id\":").append(Json.quote(job.id))
+                .append(",\"state\":").append(Json.quote(job.state.name()))
+                .append(",\"assets\":").append(job.entries.size())
+                .append(",\"targets\":").append(quoteAll(job.targets));
+        long now = System.currentTimeMillis();
+        long started = job.startedMillis > 0 ? job.startedMillis : job.finishedMillis > 0 ? job.finishedMillis : now;
+        json.append(",\"queuedMillis\":").append(started - job.submittedMillis);
+        if (job.startedMillis > 0) {
+            json.append(",\"runMillis\":").append((job.finishedMillis > 0 ? job.finishedMillis : now)
+                    - job.startedMillis);
+        }
+        if (job.error != null) {
+            json.append(",\"error\":").append(Json.quote(job.error));
+        }
+        if (details) {
+            json.append(",\"promotions\":[");
+            List<PromotionEngine.Promotion> promotions = job.promotions;
+            for (int i = 0; i < promotions.size(); i++) {
+                PromotionEngine.Promotion promotion = promotions.get(i);
+                json.append(i > 0 ? "," : "").append("{\"asset\":")
+                        .append(Json.quote(promotion.getEntry().getAsset()))
+                        .append(",\"target\":").append(Json.quote(promotion.getTarget().getUsername() + "@"
+                                + promotion.getTarget().getRegionUrl()))
+                        .append(",\"phase\":").append(Json.quote(promotion.getPhase().name()));
+                appendField(json, "exportId", promotion.getExportId());
+                appendField(json, "importJobId", promotion.getImportJobId());
+                appendField(json, "error", promotion.getError());
+                json.append('}');
+            }
+            json.append(']');
+        }
+        return json.append('}').toString();
+    }
+
+    // Method to describe the queue and the org sessions
+    private String health() {
+        StringBuilder json = new StringBuilder("{\"state\":\"UP\"");
+        json.append(",\"queued\":").append(workers.getQueue().size())
+                .append(",\"running\":").append(workers.getActiveCount())
+                .append(",\"orgs\":[");
+        List<WarmOrg> orgs = new ArrayList<>(targets.values());
+        orgs.add(0, source);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < orgs.size(); i++) {
+            WarmOrg org = orgs.get(i);
+            json.append(i > 0 ? "," : "").append("{\"name\":").append(Json.quote(org.getName()))
+                    .append(",\"role\":").append(Json.quote(org == source ? "source" : "target"))
+                    .append(",\"serverUrl\":").append(Json.quote(org.session.getServerUrl()))
+                    .append(",\"sessionAgeSeconds\":").append((now - org.loggedInMillis) / 1000)
+                    .append(",\"checkedSecondsAgo\":").append((now - org.checkedMillis) / 1000);
+            appendField(json, "problem", org.problem);
+            json.append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    private static void appendField(StringBuilder json, String name, String value) {
+        if (value != null) {
+            json.append(',').append(Json.quote(name)).append(':').append(Json.quote(value));
+        }
+    }
+
+    private static String quoteAll(List<WarmOrg> orgs) {
+        StringBuilder json = new StringBuilder("[");
+        for (WarmOrg org : orgs) {
+            json.append(json.length() > 1 ? "," : "").append(Json.quote(org.getName()));
+        }
+        return json.append(']').toString();
+    }
+
+    private static String error(String message) {
+        return "{\"error\":" + Json.quote(String.valueOf(message)) + "}";
+    }
+
+    // Method to read the request body, or return null when it is larger than allowed
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buffer = new byte[8192];
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                if (body.size() + bytesRead > MAX_REQUEST_BYTES) {
+                    return null;
+                }
+                body.write(buffer, 0, bytesRead);
+            }
+        }
+        return body.toByteArray();
+    }
+
+    private static void respond(HttpExchange exchange, int code, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(code, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,398 @@
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+// Runs many asset promotions side by side, each as an independent task with its own context.
+// A promotion carries its own source and target sessions, so promotions between different orgs can share
+// one engine and nothing depends on the static state of CrossProdAssetExportUtility. Each promotion runs
+// export, download, upload and import on its own thread. On Java 21 and later these are virtual threads,
+// so hundreds of promotions that mostly wait on IICS jobs cost next to nothing; on older JVMs a cached
+// pool of platform threads is used instead. The number of jobs in flight per org is capped: a promotion
+// holds a permit of its source org while exporting and of its target org while importing.
+// With a PromotionJournal, every finished step is journaled and a promotion an earlier run did not finish
+// continues from its last journaled step, re-attaching to the export or import job that run started.
+public class PromotionEngine {
+
+    // Steps a promotion goes through, in order
+    public enum Phase {
+        QUEUED, EXPORTING, DOWNLOADING, UPLOADING, IMPORTING, SUCCESSFUL, FAILED
+    }
+
+    // One asset promotion and everything known about it so far
+    public static class Promotion {
+        private final OrgSession source;
+        private final OrgSession target;
+        private final ExportManifest.Entry entry;
+        private final Path packagePath;
+        private volatile Phase phase = Phase.QUEUED;
+        private volatile String exportId;
+        private volatile String importJobId;
+        private volatile String error;
+        private volatile long elapsedNanos;
+
+        public Promotion(OrgSession source, OrgSession target, ExportManifest.Entry entry, Path packagePath) {
+            this.source = source;
+            this.target = target;
+            this.entry = entry;
+            this.packagePath = packagePath;
+        }
+
+        public OrgSession getSource() {
+            return source;
+        }
+
+        public OrgSession getTarget() {
+            return target;
+        }
+
+        public ExportManifest.Entry getEntry() {
+            return entry;
+        }
+
+        public Path getPackagePath() {
+            return packagePath;
+        }
+
+        public Phase getPhase() {
+            return phase;
+        }
+
+        public String getExportId() {
+            return exportId;
+        }
+
+        public String getImportJobId() {
+            return importJobId;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return entry + " -> " + target.getRegionUrl();
+        }
+    }
+
+    // A step of a promotion that runs while holding an org permit
+    private interface Step {
+        void run() throws Exception;
+    }
+
+    private final int orgConcurrency;
+    private final ExportCache exportCache;
+    private final PromotionJournal journal;
+    private final ExecutorService executor = newPromotionExecutor();
+    private final Map<String, Semaphore> orgPermits = new ConcurrentHashMap<>();
+
+    // orgConcurrency caps the jobs in flight per org; exportCache may be null
+    public PromotionEngine(int orgConcurrency, ExportCache exportCache) {
+        this(orgConcurrency, exportCache, null);
+    }
+
+    // journal may be null to run without resume support
+    public PromotionEngine(int orgConcurrency, ExportCache exportCache, PromotionJournal journal) {
+        this.orgConcurrency = orgConcurrency;
+        this.exportCache = exportCache;
+        this.journal = journal;
+    }
+
+    // Method to build promotions of every manifest entry from the source org into the target org, each
+    // downloading to its own file in the output directory
+    public static List<Promotion> plan(List<ExportManifest.Entry> entries, OrgSession source, OrgSession target,
+            Path outputDir) throws IOException {
+        Files.createDirectories(outputDir);
+        List<Promotion> promotions = new ArrayList<>();
+        Set<String> usedNames = new HashSet<>();
+        for (ExportManifest.Entry entry : entries) {
+            promotions.add(new Promotion(source, target, entry,
+                    outputDir.resolve(BatchExporter.packageFileName(entry, usedNames))));
+        }
+        return promotions;
+    }
+
+    // Method to start a promotion; the future completes when it has succeeded or failed
+    public Future<Promotion> submit(Promotion promotion) {
+        return executor.submit(() -> run(promotion));
+    }
+
+    // Method to run all promotions and wait for every one of them to finish
+    public List<Promotion> runAll(List<Promotion> promotions) throws InterruptedException {
+        EventLog.println("Running " + promotions.size() + " promotions on "
+                + (usesVirtualThreads() ? "virtual" : "platform") + " threads, at most " + orgConcurrency
+                + " jobs per org...");
+        List<Future<Promotion>> futures = new ArrayList<>();
+        for (Promotion promotion : promotions) {
+            futures.add(submit(promotion));
+        }
+        for (Future<Promotion> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                // run records its own failures; nothing else can escape
+            }
+        }
+        return promotions;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    // Method to run one promotion from export to finished import
+    private Promotion run(Promotion promotion) {
+        long start = System.nanoTime();
+        try {
+            PromotionJournal.Record resumed = journal != null ? journal.lookup(journalKey(promotion)) : null;
+            if (resumed != null) {
+                EventLog.info("resume", resumed.getImportJobId() != null ? resumed.getImportJobId()
+                        : resumed.getExportId(), "Resuming " + promotion + " after " + resumed + ".");
+                promotion.exportId = resumed.getExportId();
+                promotion.importJobId = resumed.getImportJobId();
+            }
+            if (resumed != null && resumed.isImported()) {
+                EventLog.info("import", resumed.getImportJobId(), promotion
+                        + " was already imported by an earlier run (import " + resumed.getImportJobId() + ").");
+                promotion.phase = Phase.SUCCESSFUL;
+            } else if (resumed != null && resumed.hasLiveImport()) {
+                withPermit(promotion.target, () -> reattachImport(promotion, resumed));
+            }
+            if (promotion.phase != Phase.SUCCESSFUL) {
+                withPermit(promotion.source, () -> export(promotion, resumed));
+                withPermit(promotion.target, () -> importPackage(promotion));
+            }
+            promotion.phase = Phase.SUCCESSFUL;
+        } catch (ExecutionException e) {
+            fail(promotion, "Status check failed: " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            fail(promotion, "Interrupted");
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            fail(promotion, e.getMessage());
+        } finally {
+            promotion.elapsedNanos = System.nanoTime() - start;
+        }
+        return promotion;
+    }
+
+    // resumed is what an earlier run got done, or null
+    private void export(Promotion promotion, PromotionJournal.Record resumed) throws Exception {
+        ExportManifest.Entry entry = promotion.entry;
+        OrgSession source = promotion.source;
+        if (resumed != null && resumed.hasPackage(promotion.packagePath)) {
+            EventLog.info("download", resumed.getExportId(), "Reusing " + promotion.packagePath
+                    + " downloaded by an earlier run.");
+            return;
+        }
+        if (resumed != null && resumed.hasLiveExport()) {
+            // The export of the earlier run is still there; wait for it instead of exporting again
+            EventLog.info("export", resumed.getExportId(), "Re-attaching to export " + resumed.getExportId()
+                    + " of an earlier run.");
+            try {
+                download(promotion, resumed.getExportId(), null);
+                return;
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                // E.g. IICS purged the export since: journal it as failed so no later run re-attaches to it
+                // either, and export again
+                String error = e instanceof ExecutionException ? e.getCause().getMessage() : e.getMessage();
+                journal(promotion, PromotionJournal.Step.EXPORT_FINISHED, "exportId", resumed.getExportId(),
+                        "exportState", "FAILED");
+                EventLog.warn("export", resumed.getExportId(), "Could not re-attach to export "
+                        + resumed.getExportId() + " (" + error + "), exporting " + promotion + " again.");
+            }
+        }
+
+        String assetId = entry.isPath()
+                ? CrossProdAssetExportUtility.lookupAssetId(source, entry.getAsset(), entry.getType())
+                : entry.getAsset();
+
+        // Reuse the package of an earlier run when the asset has not changed since
+        String cacheKey = null;
+        if (exportCache != null) {
+            cacheKey = exportCache.keyFor(source.getServerUrl(), source.getIcSessionId(), assetId,
+                    entry.isIncludeDependencies());
+            PackageDownloader.DownloadedPackage restored = exportCache.restore(cacheKey, promotion.packagePath);
+            if (restored != null) {
+                journal(promotion, PromotionJournal.Step.DOWNLOADED, "packagePath", promotion.packagePath.toString(),
+                        "sha256", restored.getSha256());
+                return;
+            }
+        }
+
+        promotion.phase = Phase.EXPORTING;
+        String exportId = CrossProdAssetExportUtility.startExport(source,
+                CrossProdAssetExportUtility.buildExportPayload(assetId, entry.isIncludeDependencies()));
+        journal(promotion, PromotionJournal.Step.EXPORT_STARTED, "exportId", exportId);
+        download(promotion, exportId, cacheKey);
+    }
+
+    // Method to wait for an export to finish and download its package
+    private void download(Promotion promotion, String exportId, String cacheKey) throws Exception {
+        OrgSession source = promotion.source;
+        promotion.phase = Phase.EXPORTING;
+        promotion.exportId = exportId;
+        String state = CrossProdAssetExportUtility.watchExport(source, exportId).get();
+        journal(promotion, PromotionJournal.Step.EXPORT_FINISHED, "exportId", exportId, "exportState", state);
+        if (!"SUCCESSFUL".equalsIgnoreCase(state)) {
+            throw new RuntimeException("Export " + exportId + " finished as " + state);
+        }
+
+        promotion.phase = Phase.DOWNLOADING;
+        PackageDownloader.DownloadedPackage downloaded = CrossProdAssetExportUtility.downloadExportPackage(source,
+                exportId, promotion.packagePath);
+        journal(promotion, PromotionJournal.Step.DOWNLOADED, "packagePath", promotion.packagePath.toString(),
+                "sha256", downloaded.getSha256());
+        if (exportCache != null && cacheKey != null) {
+            exportCache.store(cacheKey, downloaded);
+        }
+    }
+
+    private void importPackage(Promotion promotion) throws Exception {
+        OrgSession target = promotion.target;
+        promotion.phase = Phase.UPLOADING;
+        CrossProdAssetExportUtility.verifyPackage(promotion.packagePath);
+        String jobId = CrossProdAssetExportUtility.uploadPackage(target, promotion.packagePath);
+        promotion.importJobId = jobId;
+        journal(promotion, PromotionJournal.Step.UPLOADED, "importJobId", jobId, "importState", "NOT_STARTED");
+
+        promotion.phase = Phase.IMPORTING;
+        CrossProdAssetExportUtility.startImportJob(target, jobId);
+        journal(promotion, PromotionJournal.Step.IMPORT_STARTED, "importJobId", jobId, "importState", "IN_PROGRESS");
+        String state = awaitImport(promotion, jobId);
+        if (!"SUCCESSFUL".equalsIgnoreCase(state)) {
+            throw new RuntimeException("Import " + jobId + " finished as " + state);
+        }
+    }
+
+    // Method to pick up the import job of an earlier run: start it if the upload was the last thing that
+    // happened, then poll it. A failed import leaves the phase as is, so the package is uploaded again.
+    private void reattachImport(Promotion promotion, PromotionJournal.Record resumed) throws Exception {
+        OrgSession target = promotion.target;
+        String jobId = resumed.getImportJobId();
+        promotion.phase = Phase.IMPORTING;
+        String state = CrossProdAssetExportUtility.fetchImportState(target, jobId);
+        if ("NOT_STARTED".equalsIgnoreCase(state)) {
+            EventLog.info("import", jobId, "Starting import " + jobId + " uploaded by an earlier run.");
+            CrossProdAssetExportUtility.startImportJob(target, jobId);
+            journal(promotion, PromotionJournal.Step.IMPORT_STARTED, "importJobId", jobId, "importState",
+                    "IN_PROGRESS");
+        } else {
+            EventLog.info("import", jobId, "Re-attaching to import " + jobId + " of an earlier run (" + state
+                    + ").");
+        }
+
+        state = awaitImport(promotion, jobId);
+        if ("SUCCESSFUL".equalsIgnoreCase(state)) {
+            promotion.phase = Phase.SUCCESSFUL;
+        } else {
+            EventLog.warn("import", jobId, "Import " + jobId + " finished as " + state + ", importing " + promotion
+                    + " again.");
+            promotion.phase = Phase.QUEUED;
+        }
+    }
+
+    // Method to poll an import job until it finishes and journal its final state
+    private String awaitImport(Promotion promotion, String jobId) throws Exception {
+        OrgSession target = promotion.target;
+        String state = CrossProdAssetExportUtility
+                .watchImport(target, "Import " + jobId + " on " + target.getRegionUrl(), jobId).get();
+        journal(promotion, PromotionJournal.Step.IMPORT_FINISHED, "importJobId", jobId, "importState", state);
+        ImportResults.collect(target, jobId, state);
+        return state;
+    }
+
+    private void journal(Promotion promotion, PromotionJournal.Step step, String... values) throws IOException {
+        if (journal != null) {
+            journal.record(journalKey(promotion), promotion.source, promotion.target, step, values);
+        }
+    }
+
+    private static String journalKey(Promotion promotion) {
+        return PromotionJournal.key(promotion.source, promotion.target, promotion.entry);
+    }
+
+    // Method to run a step while holding one of the org's permits
+    private void withPermit(OrgSession org, Step step) throws Exception {
+        Semaphore permits = orgPermits.computeIfAbsent(org.getServerUrl(), k -> new Semaphore(orgConcurrency, true));
+        permits.acquire();
+        try {
+            step.run();
+        } finally {
+            permits.release();
+        }
+    }
+
+    private static void fail(Promotion promotion, String error) {
+        promotion.error = error;
+        promotion.phase = Phase.FAILED;
+    }
+
+    // Method to print one line per promotion; returns the number that failed
+    public static int printSummary(List<Promotion> promotions) {
+        int failed = 0;
+        EventLog.println("======= Promotion summary =======");
+        for (Promotion promotion : promotions) {
+            if (promotion.getPhase() == Phase.SUCCESSFUL) {
+                EventLog.println(String.format("  OK      %s import %s (%.1f s)", promotion,
+                        promotion.getImportJobId(), promotion.getElapsedNanos() / 1_000_000_000.0));
+            } else {
+                failed++;
+                EventLog.println(String.format("  FAILED  %s (%.1f s): %s", promotion,
+                        promotion.getElapsedNanos() / 1_000_000_000.0, promotion.getError()));
+            }
+        }
+        EventLog.println("Promoted " + (promotions.size() - failed) + " of " + promotions.size() + " assets, "
+                + failed + " failed.");
+        return failed;
+    }
+
+    // True when promotions run on virtual threads (Java 21 and later)
+    public static boolean usesVirtualThreads() {
+        return virtualThreadFactory() != null;
+    }
+
+    // Method to create a thread-per-task executor, with virtual threads where the JVM has them.
+    // The method is looked up reflectively so the utility still compiles and runs on Java 8.
+    private static ExecutorService newPromotionExecutor() {
+        Method factory = virtualThreadFactory();
+        if (factory != null) {
+            try {
+                return (ExecutorService) factory.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                // Fall back to platform threads below
+            }
+        }
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "promotion");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static Method virtualThreadFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Properties;
+
+// Content hashes of the objects last promoted to one production org, keyed by their package entry name
+// (e.g. "Explore/Sales/Loads/m_load.MTT.zip"). Entry names are built from the object path, name and type,
+// so they match across orgs even though the object IDs differ.
+// The fingerprint is updated after every successful import, so the next differential promotion only
+// uploads what changed since.
+public class PromotionFingerprint {
+
+    private final Path file;
+    private final Properties hashes = new Properties();
+
+    public PromotionFingerprint(Path file) {
+        this.file = file;
+    }
+
+    // Default fingerprint file for a production org, hashed so the directory does not list region and user
+    // names in clear text
+    public static Path defaultFile(String regionUrl, String username) {
+        return Paths.get(System.getProperty("user.home"), ".iics-asset-export", "fingerprints",
+                LocalStore.userKey(regionUrl, username) + ".properties");
+    }
+
+    // Method to load the fingerprint file, starting empty if it does not exist or cannot be read
+    public static PromotionFingerprint load(Path file) {
+        PromotionFingerprint fingerprint = new PromotionFingerprint(file);
+        if (Files.exists(file)) {
+            try (InputStream in = Files.newInputStream(file)) {
+                fingerprint.hashes.load(in);
+            } catch (IOException e) {
+                EventLog.warn("fingerprint", null, "Ignoring unreadable promotion fingerprint " + file + ": "
+                        + e.getMessage());
+            }
+        }
+        return fingerprint;
+    }
+
+    // Method to add the object hashes of a package exported from the production org itself, e.g. to
+    // seed the fingerprint before the first differential promotion
+    public synchronized void addBaseline(Path prodPackage) throws IOException {
+        Map<String, String> baseline = PackageDiff.hashObjects(prodPackage);
+        hashes.putAll(baseline);
+        EventLog.info("fingerprint", null, "Loaded " + baseline.size() + " object hashes from production package "
+                + prodPackage + ".");
+    }
+
+    // Hash recorded for the entry, or null if it was never promoted
+    public synchronized String get(String entryName) {
+        return hashes.getProperty(entryName);
+    }
+
+    public synchronized int size() {
+        return hashes.size();
+    }
+
+    // Method to record the objects of a successful import and write the file
+    public synchronized void record(Map<String, String> importedHashes) {
+        hashes.putAll(importedHashes);
+        try {
+            LocalStore.writeAtomically(file, "fingerprint", false,
+                    out -> hashes.store(out, "Objects promoted to production"));
+        } catch (IOException e) {
+            EventLog.warn("fingerprint", null, "Could not write promotion fingerprint " + file + ": "
+                    + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,259 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Append-only journal of promotion steps, so an interrupted run can pick up where it stopped.
+// Each step is written as one JSON line the moment it finishes and forced to disk before the promotion
+// moves on: export started (export ID), export finished, package downloaded (path and SHA-256), package
+// uploaded (import job ID), import started and import finished (last known state). Every line also names
+// the source and target org sessions the IDs belong to. A rerun with the same journal replays the lines and
+// each promotion continues from its last durable step: a finished import is not repeated, an export or
+// import that is still running is polled again rather than started anew, and a verified package is uploaded
+// without exporting again. A line torn by a crash mid-write is cut off when the journal is opened. Once all
+// promotions of a run have succeeded, a RUN_COMPLETE line closes the run and the next run starts fresh.
+public class PromotionJournal {
+
+    // Steps recorded for a promotion, in the order they happen
+    public enum Step {
+        EXPORT_STARTED, EXPORT_FINISHED, DOWNLOADED, UPLOADED, IMPORT_STARTED, IMPORT_FINISHED, RUN_COMPLETE
+    }
+
+    // Last durable state of one promotion, merged from all of its journal lines
+    public static class Record {
+        private final Map<String, String> fields = new LinkedHashMap<>();
+
+        public Step getStep() {
+            return Step.valueOf(fields.get("step"));
+        }
+
+        public String getExportId() {
+            return fields.get("exportId");
+        }
+
+        public String getExportState() {
+            return fields.get("exportState");
+        }
+
+        public String getPackagePath() {
+            return fields.get("packagePath");
+        }
+
+        public String getSha256() {
+            return fields.get("sha256");
+        }
+
+        public String getImportJobId() {
+            return fields.get("importJobId");
+        }
+
+        public String getImportState() {
+            return fields.get("importState");
+        }
+
+        // True when the import of an earlier run already went through
+        public boolean isImported() {
+            return "SUCCESSFUL".equalsIgnoreCase(getImportState());
+        }
+
+        // True when an import job exists that can still finish: uploaded, running or done
+        public boolean hasLiveImport() {
+            return getImportJobId() != null && !"FAILED".equalsIgnoreCase(getImportState());
+        }
+
+        // True when an export job exists that can still finish or has finished successfully
+        public boolean hasLiveExport() {
+            return getExportId() != null && !"FAILED".equalsIgnoreCase(getExportState());
+        }
+
+        // True when the package was downloaded to the given file and the file is still that download
+        public boolean hasPackage(Path packagePath) throws IOException {
+            return getSha256() != null && packagePath.toString().equals(getPackagePath()) && Files.exists(packagePath)
+                    && getSha256().equals(PackageDownloader.readStoredSha256(packagePath));
+        }
+
+        @Override
+        public String toString() {
+            switch (getStep()) {
+                case EXPORT_STARTED:
+                    return "export " + getExportId() + " started";
+                case EXPORT_FINISHED:
+                    return "export " + getExportId() + " " + getExportState();
+                case DOWNLOADED:
+                    return "package " + getPackagePath() + " downloaded";
+                case UPLOADED:
+                    return "import job " + getImportJobId() + " uploaded";
+                case IMPORT_STARTED:
+                    return "import " + getImportJobId() + " started";
+                default:
+                    return "import " + getImportJobId() + " " + getImportState();
+            }
+        }
+    }
+
+    private final Path file;
+    private final FileChannel channel;
+    private final Map<String, Record> records = new LinkedHashMap<>();
+
+    private PromotionJournal(Path file, FileChannel channel) {
+        this.file = file;
+        this.channel = channel;
+    }
+
+    // Method to open the journal, replaying the steps of the run it records unless that run completed
+    public static PromotionJournal open(Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        if (directory != null) {
+            Files.createDirectories(directory);
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        PromotionJournal journal = new PromotionJournal(file, channel);
+        try {
+            journal.replay();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        if (!journal.records.isEmpty()) {
+            EventLog.info("journal", null, "Journal " + file + " has " + journal.records.size()
+                    + " unfinished promotions from an earlier run; resuming them.");
+        }
+        return journal;
+    }
+
+    // Method to read every complete line, dropping a torn last line so new lines start on a line of their own
+    private void replay() throws IOException {
+        byte[] content = Files.readAllBytes(file);
+        int end = content.length;
+        while (end > 0 && content[end - 1] != '\n') {
+            end--;
+        }
+        if (end < content.length) {
+            EventLog.warn("journal", null, "Dropping an incomplete last line of journal " + file + ".");
+            channel.truncate(end);
+            channel.force(true);
+        }
+
+        try (BufferedReader reader = new BufferedReader(
+                new StringReader(new String(content, 0, end, StandardCharsets.UTF_8)))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                Map<String, String> fields;
+                try {
+                    fields = parse(line);
+                } catch (IOException | RuntimeException e) {
+                    EventLog.warn("journal", null, "Skipping unreadable line " + lineNumber + " of journal " + file
+                            + ": " + e.getMessage());
+                    continue;
+                }
+                if (Step.RUN_COMPLETE.name().equals(fields.get("step"))) {
+                    records.clear();
+                } else if (fields.get("key") != null && fields.get("step") != null) {
+                    records.computeIfAbsent(fields.get("key"), k -> new Record()).fields.putAll(fields);
+                }
+            }
+        }
+        channel.position(end);
+    }
+
+    // Key of a promotion: the orgs it goes between and the asset it promotes
+    public static String key(OrgSession source, OrgSession target, ExportManifest.Entry entry) {
+        return source.getRegionUrl() + "|" + source.getUsername() + " -> " + target.getRegionUrl() + "|"
+                + target.getUsername() + " : " + entry.getAsset() + "|" + entry.getType() + "|"
+                + entry.isIncludeDependencies();
+    }
+
+    // Method to return what an earlier run of this promotion got done, or null when it has not started
+    public synchronized Record lookup(String key) {
+        Record record = records.get(key);
+        if (record == null) {
+            return null;
+        }
+        Record copy = new Record();
+        copy.fields.putAll(record.fields);
+        return copy;
+    }
+
+    // Method to append a step with its values (name, value pairs) and force it to disk
+    public void record(String key, OrgSession source, OrgSession target, Step step, String... values)
+            throws IOException {
+        Map<String, String> fields = new LinkedHashMap<>();
+        fields.put("time", Instant.now().toString());
+        fields.put("key", key);
+        fields.put("step", step.name());
+        fields.put("sourceRegion", source.getRegionUrl());
+        fields.put("sourceUser", source.getUsername());
+        fields.put("sourceServer", source.getServerUrl());
+        fields.put("targetRegion", target.getRegionUrl());
+        fields.put("targetUser", target.getUsername());
+        fields.put("targetServer", target.getServerUrl());
+        for (int i = 0; i + 1 < values.length; i += 2) {
+            fields.put(values[i], values[i + 1]);
+        }
+        synchronized (this) {
+            append(fields);
+            records.computeIfAbsent(key, k -> new Record()).fields.putAll(fields);
+        }
+    }
+
+    // Method to close the run once every promotion succeeded, so the next run starts fresh
+    public synchronized void complete() throws IOException {
+        Map<String, String> fields = new LinkedHashMap<>();
+        fields.put("time", Instant.now().toString());
+        fields.put("step", Step.RUN_COMPLETE.name());
+        append(fields);
+        records.clear();
+    }
+
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    // Method to write one line in a single write and wait until it is on disk
+    private void append(Map<String, String> fields) throws IOException {
+        StringBuilder line = new StringBuilder("{");
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            if (field.getValue() != null) {
+                line.append(line.length() > 1 ? "," : "").append(Json.quote(field.getKey())).append(':')
+                        .append(Json.quote(field.getValue()));
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(line.append("}\n").toString().getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+    }
+
+    // Method to read the string values of a journal line
+    private static Map<String, String> parse(String line) throws IOException {
+        Map<String, String> fields = new LinkedHashMap<>();
+        try (JsonPullReader reader = new JsonPullReader(new StringReader(line))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() == JsonPullReader.Token.STRING) {
+                    fields.put(name, reader.nextString());
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        return fields;
+    }
+}
@@ -0,0 +1,535 @@
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// Command line options for the utility.
+// Without any options the utility runs the interactive single-asset promotion.
+public class RunOptions {
+
+    private String manifestPath;
+    private int exportConcurrency = 4;
+    private String outputDir = ".";
+    private long pollInitialMillis = 500;
+    private long pollMaxMillis = 10000;
+    private boolean cacheSessions;
+    private boolean relay;
+    private String targetsPath;
+    private boolean exportCache;
+    private Path exportCacheDir = ExportCache.defaultCacheDir();
+    private int exportCacheMaxMegabytes = 2048;
+    private boolean diff;
+    private Path diffFingerprintFile;
+    private Path diffBaseline;
+    private Path metricsDir;
+    private boolean pipeline;
+    private int orgConcurrency = 8;
+    private int rateLimit = 20;
+    private boolean merge;
+    private boolean shareDependencies;
+    private int shardMaxMegabytes;
+    private int shardConcurrency = 4;
+    private int shardRetries = 2;
+    private int maxRetries = 5;
+    private boolean preallocate;
+    private Path journalFile;
+    private boolean inspect;
+    private Path inspectRulesFile;
+    private EventLog.Level logLevel = EventLog.Level.INFO;
+    private boolean logJson;
+    private Path logFile;
+    private boolean batchStatus;
+    private Path importReportDir;
+    private boolean importReportJson;
+    private boolean daemon;
+    private int daemonPort = 8480;
+    private int daemonJobs = 4;
+    private int daemonQueue = 100;
+    private Path daemonTokenFile;
+    private boolean daemonKeepPackages;
+    private Path sessionCacheFile = SessionCache.defaultCacheFile();
+
+    // Method to parse the command line arguments
+    public static RunOptions parse(String[] args) {
+        RunOptions options = new RunOptions();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--manifest":
+                    options.manifestPath = requireValue(args, ++i, arg);
+                    break;
+                case "--concurrency":
+                    options.exportConcurrency = parsePositiveInt(requireValue(args, ++i, arg), arg);
+                    break;
+                case "--output-dir":
+                    options.outputDir = requireValue(args, ++i, arg);
+                    break;
+                case "--poll-initial-ms":
+                    options.pollInitialMillis = parsePositiveInt(requireValue(args, ++i, arg), arg);
+                    break;
+                case "--poll-max-ms":
+                    options.pollMaxMillis = parsePositiveInt(requireValue(args, ++i, arg), arg);
+                    break;
+                case "--cache-sessions":
+                    options.cacheSessions = true;
+                    break;
+                case "--session-cache-file":
+                    options.cacheSessions = true;
+                    options.sessionCacheFile = Paths.get(requireValue(args, ++i, arg));
+                    break;
+                case "--relay":
+                    options.relay = true;
+                    break;
+                case "--targets":
+                    options.targetsPath = requireValue(args, ++i, arg);
+                    break;
+                case "--export-cache":
+                    options.exportCache = true;
+                    break;
+                case "--export-cache-dir":
+                    options.exportCache = true;
+                    options.exportCacheDir = Paths.get(requireValue(args, ++i, arg));
+                    break;
+                case "--export-cache-max-mb":
+                    options.exportCache = true;
+                    options.exportCacheMaxMegabytes = parsePositiveInt(requireValue(args, ++i, arg), arg);
+                    break;
+                case "--diff":
+                    options.diff = true;
+                    break;
+                case "--diff-fingerprint":
+                    options.diff = true;
+                    options.diffFingerprintFile = Paths.get(requireValue(args, ++i, arg));
+                    break;
+                case "--diff-baseline":
+                    options.diff = true;
+                    options.diffBaseline = Paths.get(requireValue(args, ++i, arg));
+                    break;
+                case "--pipeline":
+                    options.pipeline = true;
+                    break;
+                case "--org-concurrency":
+                    options.orgConcurrency = parsePositiveInt(requireValue(args, ++i, arg), arg);
+                    break;
+                case "--share-dependencies":
+                    options.shareDependencies = true;
+                    break;
+                case "--merge":
+                    options.merge = true;
+                    break;
+                case "--shard-max-mb":
+                    options.shardMaxMegabytes = parsePositiveInt(requireValue(args, ++i, arg), arg);
+                    break;
+                case "--shard-concurrency":
+                    options.shardConcurrency = parsePositiveInt(requireValue(args, ++i, arg), arg);
+                    break;
+                case "--shard-retries":
+                    options.shardRetries = parseNonNegativeInt(requireValue(args, ++i, arg), arg);
+                    break;
+                case "--rate-limit":
+                    options.rateLimit = parseNonNegativeInt(requireValue(args, ++i, arg), arg);
+                    break;
+                case "--max-retries":
+                    options.maxRetries = parseNonNegativeInt(requireValue(args, ++i, arg), arg);
+                    break;
+                case "--journal":
+                    options.journalFile = Paths.get(requireValue(args, ++i, arg));
+                    break;
+                case "--preallocate":
+                    options.preallocate = true;
+                    break;
+                case "--inspect":
+                    options.inspect = true;
+                    break;
+                case "--inspect-rules":
+                    options.inspect = true;
+                    options.inspectRulesFile = Paths.get(requireValue(args, ++i, arg));
+                    break;
+                case "--log-level":
+                    options.logLevel = parseLogLevel(requireValue(args, ++i, arg));
+                    break;
+                case "--log-format":
+                    options.logJson = parseLogFormat(requireValue(args, ++i, arg));
+                    break;
+                case "--log-file":
+                    options.logFile = Paths.get(requireValue(args, ++i, arg));
+                    break;
+                case "--batch-status":
+                    options.batchStatus = true;
+                    break;
+                case "--import-report":
+                    options.importReportDir = Paths.get(requireValue(args, ++i, arg));
+                    break;
+                case "--import-report-format":
+                    options.importReportJson = parseReportFormat(requireValue(args, ++i, arg));
+                    break;
+                case "--daemon":
+                    options.daemon = true;
+                    break;
+                case "--daemon-port":
+                    options.daemonPort = parseNonNegativeInt(requireValue(args, ++i, arg), arg);
+                    break;
+                case "--daemon-jobs":
+                    options.daemonJobs = parsePositiveInt(requireValue(args, ++i, arg), arg);
+                    break;
+                case "--daemon-queue":
+                    options.daemonQueue = parsePositiveInt(requireValue(args, ++i, arg), arg);
+                    break;
+                case "--daemon-token-file":
+                    options.daemonTokenFile = Paths.get(requireValue(args, ++i, arg));
+                    break;
+                case "--daemon-keep-packages":
+                    options.daemonKeepPackages = true;
+                    break;
+                case "--metrics-dir":
+                    options.metricsDir = Paths.get(requireValue(args, ++i, arg));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + arg + System.lineSeparator() + usage());
+            }
+        }
+        if (options.relay && options.manifestPath != null) {
+            throw new IllegalArgumentException("--relay cannot be combined with --manifest");
+        }
+        if (options.relay && options.targetsPath != null) {
+            throw new IllegalArgumentException("--relay cannot be combined with --targets");
+        }
+        if (options.diff && (options.relay || options.targetsPath != null)) {
+            throw new IllegalArgumentException("--diff cannot be combined with --relay or --targets");
+        }
+        if (options.shareDependencies && (options.manifestPath == null || options.pipeline)) {
+            throw new IllegalArgumentException(
+                    "--share-dependencies needs a --manifest and cannot be combined with --pipeline");
+        }
+        if (options.daemon && (options.manifestPath != null || options.relay || options.diff || options.merge
+                || options.shardMaxMegabytes > 0 || options.journalFile != null)) {
+            throw new IllegalArgumentException("--daemon takes its assets over HTTP and cannot be combined with"
+                    + " --manifest, --relay, --diff, --merge, --shard-max-mb or --journal");
+        }
+        if (options.journalFile != null && !options.pipeline) {
+            throw new IllegalArgumentException("--journal needs --pipeline");
+        }
+        if (options.merge && (options.manifestPath == null || options.pipeline)) {
+            throw new IllegalArgumentException("--merge needs a --manifest and cannot be combined with --pipeline");
+        }
+        if (options.shardMaxMegabytes > 0
+                && (options.relay || options.targetsPath != null || options.diff || options.pipeline)) {
+            throw new IllegalArgumentException(
+                    "--shard-max-mb cannot be combined with --relay, --targets, --diff or --pipeline");
+        }
+        if (options.pipeline && options.manifestPath == null) {
+            throw new IllegalArgumentException("--pipeline needs a --manifest");
+        }
+        if (options.pipeline && (options.targetsPath != null || options.diff)) {
+            throw new IllegalArgumentException("--pipeline cannot be combined with --targets or --diff");
+        }
+        return options;
+    }
+
+    // Helper function to describe the supported options
+    public static String usage() {
+        return "Usage: java CrossProdAssetExportUtility [options]" + System.lineSeparator()
+                + "  --manifest <file>      export every asset listed in the manifest (batch mode)" + System.lineSeparator()
+                + "  --concurrency <n>      maximum number of export jobs in flight (default 4)" + System.lineSeparator()
+                + "  --output-dir <dir>     directory for downloaded batch packages (default .)" + System.lineSeparator()
+                + "  --poll-initial-ms <n>  delay before the first status poll of a job (default 500)" + System.lineSeparator()
+                + "  --poll-max-ms <n>      ceiling for the status poll backoff (default 10000)" + System.lineSeparator()
+                + "  --cache-sessions       reuse sessions across runs and skip the final logout" + System.lineSeparator()
+                + "  --session-cache-file <file>  session cache location (default ~/.iics-asset-export/sessions.properties)"
+                + System.lineSeparator()
+                + "  --relay                stream the export package straight into the production import (no local file)"
+                + System.lineSeparator()
+                + "  --targets <file>       import into every production org listed in the file, concurrently"
+                + System.lineSeparator()
+                + "  --export-cache         reuse packages of assets that did not change since an earlier run"
+                + System.lineSeparator()
+                + "  --export-cache-dir <dir>     export cache location (default ~/.iics-asset-export/packages)"
+                + System.lineSeparator()
+                + "  --export-cache-max-mb <n>    size limit of the export cache (default 2048)" + System.lineSeparator()
+                + "  --diff                 import only the objects that changed since the last promotion"
+                + System.lineSeparator()
+                + "  --diff-fingerprint <file>    objects known to be in production (default per org in ~/.iics-asset-export)"
+                + System.lineSeparator()
+                + "  --diff-baseline <zip>  package exported from production to compare against" + System.lineSeparator()
+                + "  --metrics-dir <dir>    write metrics.json and metrics.prom (Prometheus) at the end of the run"
+                + System.lineSeparator()
+                + "  --pipeline             promote each manifest asset as its own task (export, then import at once)"
+                + System.lineSeparator()
+                + "  --org-concurrency <n>  maximum number of jobs in flight per org in pipeline mode (default 8)"
+                + System.lineSeparator()
+                + "  --share-dependencies   export dependencies shared by several manifest assets once, imported first"
+                + System.lineSeparator()
+                + "  --merge                combine the manifest's packages into one package and one import job"
+                + System.lineSeparator()
+                + "  --shard-max-mb <n>     import packages larger than n MB as dependency-ordered shards"
+                + System.lineSeparator()
+                + "  --shard-concurrency <n> maximum number of shards imported at the same time (default 4)"
+                + System.lineSeparator()
+                + "  --shard-retries <n>    retries of a failed shard import (default 2)"
+                + System.lineSeparator()
+                + "  --rate-limit <n>       maximum requests per second to each org, 0 for no limit (default 20)"
+                + System.lineSeparator()
+                + "  --max-retries <n>      retries of a throttled or failed call (default 5)"
+                + System.lineSeparator()
+                + "  --journal <file>       record pipeline steps in <file> and resume an interrupted run from it"
+                + System.lineSeparator()
+                + "  --preallocate          size downloaded packages on disk up front from their Content-Length"
+                + System.lineSeparator()
+                + "  --inspect              check each package's objects from its zip index before uploading it"
+                + System.lineSeparator()
+                + "  --inspect-rules <file> also check the packages against the rules in a properties file"
+                + System.lineSeparator()
+                + "  --log-level <level>    lowest level of events written: debug, info, warn or error (default info)"
+                + System.lineSeparator()
+                + "  --log-format <format>  job and transfer events as text or json lines (default text)"
+                + System.lineSeparator()
+                + "  --log-file <file>      append job and transfer events to a file instead of the console"
+                + System.lineSeparator()
+                + "  --batch-status         check the jobs of an org together with one ?ids= list request"
+                + System.lineSeparator()
+                + "  --import-report <dir>  write the result of every imported object to a report per import job"
+                + System.lineSeparator()
+                + "  --import-report-format <format> import reports as csv or json (default csv)"
+                + System.lineSeparator()
+                + "  --daemon               stay logged in and take promotion requests on a local HTTP endpoint"
+                + System.lineSeparator()
+                + "  --daemon-port <n>      port of the daemon endpoint on 127.0.0.1, 0 for any free one (default 8480)"
+                + System.lineSeparator()
+                + "  --daemon-jobs <n>      promotion requests the daemon runs at the same time (default 4)"
+                + System.lineSeparator()
+                + "  --daemon-queue <n>     promotion requests that may wait for a free slot (default 100)"
+                + System.lineSeparator()
+                + "  --daemon-token-file <file> where the daemon writes the bearer token its clients must send"
+                + " (default ~/.iics-asset-export/daemon.token)"
+                + System.lineSeparator()
+                + "  --daemon-keep-packages keep the packages of finished daemon jobs instead of deleting them";
+    }
+
+    private static EventLog.Level parseLogLevel(String value) {
+        try {
+            return EventLog.Level.valueOf(value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("--log-level must be one of debug, info, warn or error: " + value);
+        }
+    }
+
+    private static boolean parseLogFormat(String value) {
+        if (!"text".equalsIgnoreCase(value) && !"json".equalsIgnoreCase(value)) {
+            throw new IllegalArgumentException("--log-format must be text or json: " + value);
+        }
+        return "json".equalsIgnoreCase(value);
+    }
+
+    private static boolean parseReportFormat(String value) {
+        if (!"csv".equalsIgnoreCase(value) && !"json".equalsIgnoreCase(value)) {
+            throw new IllegalArgumentException("--import-report-format must be csv or json: " + value);
+        }
+        return "json".equalsIgnoreCase(value);
+    }
+
+    private static String requireValue(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value for option " + option);
+        }
+        return args[index];
+    }
+
+    private static int parsePositiveInt(String value, String option) {
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed > 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // Fall through to the error below
+        }
+        throw new IllegalArgumentException("Option " + option + " expects a positive number but was: " + value);
+    }
+
+    private static int parseNonNegativeInt(String value, String option) {
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed >= 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // Fall through to the error below
+        }
+        throw new IllegalArgumentException("Option " + option + " expects zero or a positive number but was: "
+                + value);
+    }
+
+    public String getManifestPath() {
+        return manifestPath;
+    }
+
+    public int getExportConcurrency() {
+        return exportConcurrency;
+    }
+
+    public String getOutputDir() {
+        return outputDir;
+    }
+
+    public long getPollInitialMillis() {
+        return pollInitialMillis;
+    }
+
+    public long getPollMaxMillis() {
+        return pollMaxMillis;
+    }
+
+    public boolean isCacheSessions() {
+        return cacheSessions;
+    }
+
+    public Path getSessionCacheFile() {
+        return sessionCacheFile;
+    }
+
+    public boolean isRelay() {
+        return relay;
+    }
+
+    public String getTargetsPath() {
+        return targetsPath;
+    }
+
+    public boolean isExportCache() {
+        return exportCache;
+    }
+
+    public Path getExportCacheDir() {
+        return exportCacheDir;
+    }
+
+    public long getExportCacheMaxBytes() {
+        return exportCacheMaxMegabytes * 1024L * 1024L;
+    }
+
+    public boolean isDiff() {
+        return diff;
+    }
+
+    public Path getDiffFingerprintFile() {
+        return diffFingerprintFile;
+    }
+
+    public Path getDiffBaseline() {
+        return diffBaseline;
+    }
+
+    public Path getMetricsDir() {
+        return metricsDir;
+    }
+
+    public boolean isPipeline() {
+        return pipeline;
+    }
+
+    public int getOrgConcurrency() {
+        return orgConcurrency;
+    }
+
+    public int getRateLimit() {
+        return rateLimit;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public boolean isMerge() {
+        return merge;
+    }
+
+    // Size above which packages are imported in shards, or 0 to import every package whole
+    public long getShardMaxBytes() {
+        return shardMaxMegabytes * 1024L * 1024L;
+    }
+
+    public int getShardConcurrency() {
+        return shardConcurrency;
+    }
+
+    public int getShardRetries() {
+        return shardRetries;
+    }
+
+    public boolean isShareDependencies() {
+        return shareDependencies;
+    }
+
+    public boolean isPreallocate() {
+        return preallocate;
+    }
+
+    // Journal of pipeline steps, or null to run without one
+    public Path getJournalFile() {
+        return journalFile;
+    }
+
+    // True when packages are inspected before they are uploaded
+    public boolean isInspect() {
+        return inspect;
+    }
+
+    // Properties file with package validation rules, or null for the built-in checks only
+    public Path getInspectRulesFile() {
+        return inspectRulesFile;
+    }
+
+    public EventLog.Level getLogLevel() {
+        return logLevel;
+    }
+
+    // True when events are written as JSON lines rather than text
+    public boolean isLogJson() {
+        return logJson;
+    }
+
+    // File the events are appended to, or null for the console
+    public Path getLogFile() {
+        return logFile;
+    }
+
+    // True when in-flight jobs of an org are checked with one list request, an undocumented IICS query
+    public boolean isBatchStatus() {
+        return batchStatus;
+    }
+
+    // Directory the per-object import reports are written to, or null for none
+    public Path getImportReportDir() {
+        return importReportDir;
+    }
+
+    // True when import reports are written as JSON instead of CSV
+    public boolean isImportReportJson() {
+        return importReportJson;
+    }
+
+    // True when the utility runs as a long-lived promotion service
+    public boolean isDaemon() {
+        return daemon;
+    }
+
+    public int getDaemonPort() {
+        return daemonPort;
+    }
+
+    public int getDaemonJobs() {
+        return daemonJobs;
+    }
+
+    public int getDaemonQueue() {
+        return daemonQueue;
+    }
+
+    // File the daemon writes its bearer token to, or null for the default one
+    public Path getDaemonTokenFile() {
+        return daemonTokenFile;
+    }
+
+    // True when the daemon leaves the packages of a finished job in the output directory
+    public boolean isDaemonKeepPackages() {
+        return daemonKeepPackages;
+    }
+}
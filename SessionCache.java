@@ -0,0 +1,146 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+// On-disk cache of IICS sessions keyed by region and user, so repeated runs can skip the login call.
+// IICS sessions expire after 30 minutes without activity. A cached session is only reused when it was
+// last used well inside that window and the server confirms it still has enough time left; otherwise the
+// caller logs in again and stores the fresh session. The cache file is readable by its owner only.
+public class SessionCache {
+
+    private static final long IDLE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(30);
+    private static final long REFRESH_MARGIN_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private final Path cacheFile;
+    private final Properties entries = new Properties();
+
+    public SessionCache(Path cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+
+    // Default cache location in the user's home directory
+    public static Path defaultCacheFile() {
+        return Paths.get(System.getProperty("user.home"), ".iics-asset-export", "sessions.properties");
+    }
+
+    // Method to load the cache file, starting empty if it does not exist or cannot be read
+    public static SessionCache load(Path cacheFile) {
+        SessionCache cache = new SessionCache(cacheFile);
+        if (Files.exists(cacheFile)) {
+            try (InputStream in = Files.newInputStream(cacheFile)) {
+                cache.entries.load(in);
+            } catch (IOException e) {
+                EventLog.warn("session", null, "Ignoring unreadable session cache " + cacheFile + ": "
+                        + e.getMessage());
+            }
+        }
+        return cache;
+    }
+
+    // Method to return a still-valid cached session for the region and user, or null if a login is needed
+    public synchronized OrgSession lookup(String regionUrl, String username) {
+        String key = key(regionUrl, username);
+        String serverUrl = entries.getProperty(key + ".serverUrl");
+        String icSessionId = entries.getProperty(key + ".icSessionId");
+        String lastUsed = entries.getProperty(key + ".lastUsed");
+        if (serverUrl == null || icSessionId == null || lastUsed == null) {
+            return null;
+        }
+
+        // Skip the validation call for sessions that have certainly idled out
+        long idleMillis;
+        try {
+            idleMillis = System.currentTimeMillis() - Long.parseLong(lastUsed);
+        } catch (NumberFormatException e) {
+            EventLog.warn("session", username, "Ignoring unreadable cached session for " + username
+                    + ", logging in again...");
+            return null;
+        }
+        if (idleMillis > IDLE_TIMEOUT_MILLIS - REFRESH_MARGIN_MILLIS) {
+            EventLog.info("session", username, "Cached session for " + username
+                    + " is about to expire, logging in again...");
+            return null;
+        }
+
+        try {
+            long remainingMillis = validate(regionUrl, username, icSessionId);
+            if (remainingMillis <= REFRESH_MARGIN_MILLIS) {
+                EventLog.info("session", username, "Cached session for " + username
+                        + " is about to expire, logging in again...");
+                return null;
+            }
+        } catch (IOException e) {
+            EventLog.warn("session", username, "Could not validate cached session for " + username + ": "
+                    + e.getMessage());
+            return null;
+        }
+
+        EventLog.info("session", username, "Reusing cached session for " + username + " on " + regionUrl + ".");
+        return new OrgSession(regionUrl, username, serverUrl, icSessionId);
+    }
+
+    // Method to store a session and write the cache file
+    public synchronized void store(OrgSession session) {
+        String key = key(session.getRegionUrl(), session.getUsername());
+        entries.setProperty(key + ".serverUrl", session.getServerUrl());
+        entries.setProperty(key + ".icSessionId", session.getIcSessionId());
+        entries.setProperty(key + ".lastUsed", String.valueOf(System.currentTimeMillis()));
+        save();
+    }
+
+    // Method to record that a cached session was just used, which extends its idle timeout on the server.
+    // Sessions that never logged in are skipped.
+    public synchronized void touch(OrgSession session) {
+        if (session.getIcSessionId() == null) {
+            return;
+        }
+        String key = key(session.getRegionUrl(), session.getUsername());
+        if (session.getIcSessionId().equals(entries.getProperty(key + ".icSessionId"))) {
+            entries.setProperty(key + ".lastUsed", String.valueOf(System.currentTimeMillis()));
+            save();
+        }
+    }
+
+    // Method to ask the server how long a session has left, in milliseconds; 0 when it is no longer valid
+    static long validate(String regionUrl, String username, String icSessionId) throws IOException {
+        IicsHttpClient client = IicsHttpClient.forRegion(regionUrl);
+        HttpURLConnection connection = client.open("POST", "/ma/api/v2/user/validSessionId", null);
+        connection.setRequestProperty("icSessionId", icSessionId);
+
+        String jsonPayload = "{ \"@type\": \"validatedToken\", \"userName\": \"" + username
+                + "\", \"icToken\": \"" + icSessionId + "\" }";
+        IicsHttpClient.Response response = client.executeForFields(connection, jsonPayload, "isValidToken",
+                "timeUntilExpire");
+        if (!response.isOk() || !"true".equals(response.getField("isValidToken"))) {
+            return 0;
+        }
+
+        // timeUntilExpire is reported in minutes; an answer without a readable one counts as expired
+        String timeUntilExpire = response.getField("timeUntilExpire");
+        try {
+            return timeUntilExpire == null ? 0 : TimeUnit.MINUTES.toMillis(Long.parseLong(timeUntilExpire.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // Method to write the cache atomically with owner-only permissions
+    private void save() {
+        try {
+            LocalStore.writeAtomically(cacheFile, "sessions", true,
+                    out -> entries.store(out, "IICS session cache - do not share"));
+        } catch (IOException e) {
+            EventLog.warn("session", null, "Could not write session cache " + cacheFile + ": " + e.getMessage());
+        }
+    }
+
+    // Cache keys are hashed so the file does not list region and user names in clear text
+    private static String key(String regionUrl, String username) {
+        return LocalStore.userKey(regionUrl, username);
+    }
+}
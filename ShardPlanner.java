@@ -0,0 +1,353 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+// Splits a large export package into shards that can be imported as separate, smaller import jobs.
+// The dependency graph comes from the package itself: exportMetadata.v2.json gives the GUID (and ID) of every
+// object, and an object depends on every other object whose GUID or ID appears in the files of its nested
+// zip (mappings name their connections, taskflows their tasks, and so on). Objects that are not connected
+// through dependencies form independent groups; groups are packed into shards of up to the size limit, and
+// those shards import side by side. A group larger than the limit is cut in dependency order, so each of its
+// shards only depends on shards before it and imports after them. Objects that depend on each other in a
+// cycle always stay in one shard. Projects and folders are written into every shard that has objects in them.
+public class ShardPlanner {
+
+    // Tokens that may be object GUIDs or IDs, e.g. "3sxTRcWbGvJl6XyMiuhkXa"
+    private static final Pattern ID_TOKEN = Pattern.compile("[A-Za-z0-9_-]{8,}");
+
+    // A part of the package, imported as one job once the shards it depends on are imported
+    public static class Shard {
+        private final int index;
+        private final Set<String> objects = new LinkedHashSet<>();
+        private final Set<Integer> dependsOn = new TreeSet<>();
+        private long bytes;
+        private Path path;
+
+        Shard(int index) {
+            this.index = index;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        // Entry names of the objects in the shard, including its projects and folders
+        public Set<String> getObjects() {
+            return objects;
+        }
+
+        // Indexes of the shards that must be imported first
+        public Set<Integer> getDependsOn() {
+            return dependsOn;
+        }
+
+        // Compressed size of the shard's objects, not counting projects and folders
+        public long getBytes() {
+            return bytes;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        @Override
+        public String toString() {
+            return "shard " + (index + 1);
+        }
+    }
+
+    // Method to plan the shards of a package; every shard except oversized dependency cycles stays within
+    // maxShardBytes of compressed object data
+    public static List<Shard> plan(Path packagePath, long maxShardBytes) throws IOException {
+        Map<String, Long> sizes = new LinkedHashMap<>();
+        Map<String, Set<String>> dependencies = new HashMap<>();
+        Set<String> containers = new LinkedHashSet<>();
+        try (ZipFile zip = new ZipFile(packagePath.toFile())) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (PackageDiff.isObject(entry)) {
+                    sizes.put(entry.getName(), Math.max(0, entry.getCompressedSize()));
+                }
+            }
+            // A project or folder entry stands for a directory that other objects live in
+            Set<String> directories = new HashSet<>();
+            for (String name : sizes.keySet()) {
+                for (int slash = name.indexOf('/'); slash > 0; slash = name.indexOf('/', slash + 1)) {
+                    directories.add(name.substring(0, slash));
+                }
+            }
+            for (String name : sizes.keySet()) {
+                if (directories.contains(PackageDiff.baseName(name))) {
+                    containers.add(name);
+                }
+            }
+
+            Map<String, String> entriesById = readObjectIds(zip);
+            for (String name : sizes.keySet()) {
+                if (!containers.contains(name)) {
+                    dependencies.put(name, findReferences(zip, zip.getEntry(name), entriesById, containers));
+                }
+            }
+        }
+
+        List<List<String>> groups = connectedGroups(dependencies);
+        List<Shard> shards = new ArrayList<>();
+        Map<String, Shard> shardOf = new HashMap<>();
+
+        // Groups within the limit are independent of each other: pack the largest first into the first shard
+        // with room (first fit decreasing)
+        List<List<String>> small = new ArrayList<>();
+        for (List<String> group : groups) {
+            if (size(group, sizes) <= maxShardBytes) {
+                small.add(group);
+            }
+        }
+        small.sort(Comparator.comparingLong((List<String> group) -> size(group, sizes)).reversed());
+        for (List<String> group : small) {
+            long groupBytes = size(group, sizes);
+            Shard target = null;
+            for (int i = 0; i < shards.size() && target == null; i++) {
+                if (shards.get(i).bytes + groupBytes <= maxShardBytes) {
+                    target = shards.get(i);
+                }
+            }
+            if (target == null) {
+                target = new Shard(shards.size());
+                shards.add(target);
+            }
+            addAll(target, group, sizes, shardOf);
+        }
+
+        // Larger groups are cut in dependency order into consecutive shards
+        for (List<String> group : groups) {
+            if (size(group, sizes) <= maxShardBytes) {
+                continue;
+            }
+            Shard current = null;
+            for (List<String> unit : dependencyOrder(group, dependencies)) {
+                long unitBytes = size(unit, sizes);
+                if (current == null || (current.bytes > 0 && current.bytes + unitBytes > maxShardBytes)) {
+                    current = new Shard(shards.size());
+                    shards.add(current);
+                }
+                addAll(current, unit, sizes, shardOf);
+            }
+        }
+
+        for (Map.Entry<String, Set<String>> object : dependencies.entrySet()) {
+            Shard shard = shardOf.get(object.getKey());
+            for (String dependency : object.getValue()) {
+                Shard other = shardOf.get(dependency);
+                if (other != shard) {
+                    shard.dependsOn.add(other.index);
+                }
+            }
+        }
+
+        // Every shard carries the projects and folders its objects live in; empty ones go to the first shard
+        if (shards.isEmpty()) {
+            shards.add(new Shard(0));
+        }
+        Map<String, List<String>> containersByDirectory = new HashMap<>();
+        for (String container : containers) {
+            containersByDirectory.computeIfAbsent(PackageDiff.baseName(container), k -> new ArrayList<>())
+                    .add(container);
+        }
+        Set<String> placed = new HashSet<>();
+        for (Shard shard : shards) {
+            for (String name : new ArrayList<>(shard.objects)) {
+                for (int slash = name.indexOf('/'); slash > 0; slash = name.indexOf('/', slash + 1)) {
+                    List<String> found = containersByDirectory.get(name.substring(0, slash));
+                    if (found != null) {
+                        shard.objects.addAll(found);
+                        placed.addAll(found);
+                    }
+                }
+            }
+        }
+        for (String container : containers) {
+            if (!placed.contains(container)) {
+                shards.get(0).objects.add(container);
+            }
+        }
+        return shards;
+    }
+
+    // Method to write every shard as its own package next to the original, e.g. "export_package.shard1.zip"
+    public static void writeShards(Path packagePath, List<Shard> shards, Path directory) throws IOException {
+        Files.createDirectories(directory);
+        String fileName = packagePath.getFileName().toString();
+        String stem = fileName.endsWith(".zip") ? fileName.substring(0, fileName.length() - 4) : fileName;
+        for (Shard shard : shards) {
+            shard.path = PackageDiff.writeSubset(packagePath, shard.objects,
+                    directory.resolve(stem + ".shard" + (shard.index + 1) + ".zip"));
+        }
+    }
+
+    // Method to map the GUID and ID of every exported object to its package entry
+    private static Map<String, String> readObjectIds(ZipFile zip) throws IOException {
+        Map<String, String> entriesById = new HashMap<>();
+        ZipEntry metadata = zip.getEntry(PackageDiff.METADATA_ENTRY);
+        if (metadata == null) {
+            return entriesById;
+        }
+        try (JsonPullReader reader = new JsonPullReader(zip.getInputStream(metadata))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (!"exportedObjects".equals(name) || reader.peek() != JsonPullReader.Token.BEGIN_ARRAY) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    Map<String, String> fields = new HashMap<>();
+                    Json.copyValue(reader, new StringBuilder(), fields);
+                    String entryName = PackageDiff.entryName(fields);
+                    if (entryName == null) {
+                        continue;
+                    }
+                    for (String idField : new String[] { "objectGuid", "id" }) {
+                        if (fields.get(idField) != null) {
+                            entriesById.put(fields.get(idField), entryName);
+                        }
+                    }
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+        }
+        return entriesById;
+    }
+
+    // Method to find the objects whose GUID or ID appears in the files of an object's nested zip
+    private static Set<String> findReferences(ZipFile zip, ZipEntry entry, Map<String, String> entriesById,
+            Set<String> containers) throws IOException {
+        Set<String> references = new TreeSet<>();
+        try (ZipInputStream in = new ZipInputStream(zip.getInputStream(entry))) {
+            while (in.getNextEntry() != null) {
+                Matcher tokens = ID_TOKEN.matcher(new String(readAll(in), StandardCharsets.UTF_8));
+                while (tokens.find()) {
+                    String referenced = entriesById.get(tokens.group());
+                    if (referenced != null && !referenced.equals(entry.getName())
+                            && !containers.contains(referenced)) {
+                        references.add(referenced);
+                    }
+                }
+            }
+        }
+        return references;
+    }
+
+    // Method to split the objects into groups that are connected through dependencies in either direction
+    private static List<List<String>> connectedGroups(Map<String, Set<String>> dependencies) {
+        Map<String, String> parent = new HashMap<>();
+        for (String name : dependencies.keySet()) {
+            parent.put(name, name);
+        }
+        for (Map.Entry<String, Set<String>> object : dependencies.entrySet()) {
+            for (String dependency : object.getValue()) {
+                parent.put(root(parent, object.getKey()), root(parent, dependency));
+            }
+        }
+        Map<String, List<String>> groups = new LinkedHashMap<>();
+        for (String name : dependencies.keySet()) {
+            groups.computeIfAbsent(root(parent, name), k -> new ArrayList<>()).add(name);
+        }
+        return new ArrayList<>(groups.values());
+    }
+
+    private static String root(Map<String, String> parent, String name) {
+        String root = name;
+        while (!parent.get(root).equals(root)) {
+            root = parent.get(root);
+        }
+        // Point the whole path at the root so later lookups are short
+        while (!parent.get(name).equals(root)) {
+            String next = parent.get(name);
+            parent.put(name, root);
+            name = next;
+        }
+        return root;
+    }
+
+    // Method to order a group so every object comes after the objects it depends on. Objects are returned
+    // one per unit, except objects on a dependency cycle (and those depending on them), which come last as
+    // one unit that must not be cut.
+    private static List<List<String>> dependencyOrder(List<String> group, Map<String, Set<String>> dependencies) {
+        Map<String, Integer> missing = new HashMap<>();
+        Map<String, List<String>> dependents = new HashMap<>();
+        for (String name : group) {
+            missing.put(name, dependencies.get(name).size());
+            for (String dependency : dependencies.get(name)) {
+                dependents.computeIfAbsent(dependency, k -> new ArrayList<>()).add(name);
+            }
+        }
+        Deque<String> ready = new ArrayDeque<>();
+        for (String name : group) {
+            if (missing.get(name) == 0) {
+                ready.add(name);
+            }
+        }
+        List<List<String>> units = new ArrayList<>();
+        while (!ready.isEmpty()) {
+            String name = ready.poll();
+            units.add(Collections.singletonList(name));
+            missing.remove(name);
+            for (String dependent : dependents.getOrDefault(name, Collections.<String>emptyList())) {
+                if (missing.merge(dependent, -1, Integer::sum) == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+        if (!missing.isEmpty()) {
+            units.add(new ArrayList<>(missing.keySet()));
+        }
+        return units;
+    }
+
+    private static void addAll(Shard shard, List<String> names, Map<String, Long> sizes, Map<String, Shard> shardOf) {
+        for (String name : names) {
+            shard.objects.add(name);
+            shard.bytes += sizes.get(name);
+            shardOf.put(name, shard);
+        }
+    }
+
+    private static long size(List<String> names, Map<String, Long> sizes) {
+        long total = 0;
+        for (String name : names) {
+            total += sizes.get(name);
+        }
+        return total;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PackageDiff.copy(in, bytes);
+        return bytes.toByteArray();
+    }
+}
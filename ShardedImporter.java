@@ -0,0 +1,192 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Imports a large package as several smaller import jobs planned by ShardPlanner.
+// Shards whose dependencies are imported run side by side, up to the given concurrency; a shard that depends
+// on others starts once they have all succeeded. A failed shard is uploaded and imported again on its own,
+// up to the given number of retries, instead of redoing the whole package. Shards that depend on a shard
+// that finally failed are skipped and reported.
+public class ShardedImporter {
+
+    private static final long RETRY_DELAY_MILLIS = 5000;
+
+    // Outcome of one shard
+    private static class ShardResult {
+        private final ShardPlanner.Shard shard;
+        private final List<String> importJobIds = new ArrayList<>();
+        private volatile String state = "PENDING";
+        private volatile String error;
+        private long elapsedNanos;
+
+        ShardResult(ShardPlanner.Shard shard) {
+            this.shard = shard;
+        }
+    }
+
+    private final int concurrency;
+    private final int retries;
+
+    public ShardedImporter(int concurrency, int retries) {
+        this.concurrency = concurrency;
+        this.retries = retries;
+    }
+
+    // Method to import the package into the target org in shards of at most maxShardBytes; returns true when
+    // every shard was imported
+    public boolean importPackage(OrgSession target, Path packagePath, long maxShardBytes)
+            throws IOException, InterruptedException {
+        List<ShardPlanner.Shard> shards = ShardPlanner.plan(packagePath, maxShardBytes);
+        ShardPlanner.writeShards(packagePath, shards, packagePath.toAbsolutePath().getParent());
+        EventLog.info("shard", null, "Split " + packagePath.getFileName() + " into " + shards.size() + " shards:");
+        for (ShardPlanner.Shard shard : shards) {
+            EventLog.info("shard", null, String.format("%-9s %5d objects %8.2f MB%s", shard, shard.getObjects().size(),
+                    shard.getBytes() / (1024.0 * 1024.0),
+                    shard.getDependsOn().isEmpty() ? "" : "  after shards " + displayIndexes(shard)));
+        }
+
+        List<ShardResult> results = new ArrayList<>();
+        for (ShardPlanner.Shard shard : shards) {
+            results.add(new ShardResult(shard));
+        }
+
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "shard-import");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            CompletionService<ShardResult> completed = new ExecutorCompletionService<>(workers);
+            int running = 0;
+            while (true) {
+                // Start every shard whose dependencies are all imported, skip those that can no longer run
+                for (ShardResult result : results) {
+                    if (!"PENDING".equals(result.state)) {
+                        continue;
+                    }
+                    String blocked = blockingState(result.shard, results);
+                    if (blocked == null) {
+                        result.state = "RUNNING";
+                        running++;
+                        completed.submit(() -> importShard(target, result));
+                    } else if (!"WAITING".equals(blocked)) {
+                        result.state = "SKIPPED";
+                        result.error = "a shard it depends on " + blocked.toLowerCase();
+                    }
+                }
+                if (running == 0) {
+                    break;
+                }
+                try {
+                    completed.take().get();
+                } catch (ExecutionException e) {
+                    // importShard records its own failures
+                }
+                running--;
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+        return printSummary(packagePath, results);
+    }
+
+    // Method to import one shard, retrying the upload and import of just this shard when it fails
+    private ShardResult importShard(OrgSession target, ShardResult result) {
+        long start = System.nanoTime();
+        Path shardPath = result.shard.getPath();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                String jobId = CrossProdAssetExportUtility.uploadPackage(target, shardPath);
+                result.importJobIds.add(jobId);
+                EventLog.info("upload", jobId, "Uploaded " + shardPath.getFileName() + ". Import Job ID: " + jobId);
+
+                CrossProdAssetExportUtility.startImportJob(target, jobId);
+                String state = CrossProdAssetExportUtility
+                        .watchImport(target, "Import " + jobId + " (" + result.shard + ")", jobId).get();
+                ImportResults.collect(target, jobId, state);
+                if ("SUCCESSFUL".equalsIgnoreCase(state)) {
+                    result.state = "SUCCESSFUL";
+                    result.error = null;
+                    break;
+                }
+                result.error = "import " + jobId + " finished as " + state;
+            } catch (ExecutionException e) {
+                result.error = "status check failed: " + e.getCause().getMessage();
+            } catch (InterruptedException e) {
+                result.state = "FAILED";
+                result.error = "interrupted";
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                result.error = e.getMessage();
+            }
+
+            if (attempt > retries) {
+                result.state = "FAILED";
+                break;
+            }
+            EventLog.warn("import", result.shard.toString(), "Import of " + result.shard + " failed (" + result.error
+                    + "), retrying it (" + attempt + " of " + retries + ")...");
+            try {
+                Thread.sleep(RETRY_DELAY_MILLIS * attempt);
+            } catch (InterruptedException e) {
+                result.state = "FAILED";
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        result.elapsedNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    // Helper function returning null when the shard can start, "WAITING" while a dependency is still pending
+    // or running, or the final state of a dependency that did not succeed
+    private static String blockingState(ShardPlanner.Shard shard, List<ShardResult> results) {
+        String blocking = null;
+        for (int index : shard.getDependsOn()) {
+            String state = results.get(index).state;
+            if ("FAILED".equals(state) || "SKIPPED".equals(state)) {
+                return state;
+            }
+            if (!"SUCCESSFUL".equals(state)) {
+                blocking = "WAITING";
+            }
+        }
+        return blocking;
+    }
+
+    private static String displayIndexes(ShardPlanner.Shard shard) {
+        List<Integer> indexes = new ArrayList<>();
+        for (int index : shard.getDependsOn()) {
+            indexes.add(index + 1);
+        }
+        return indexes.toString();
+    }
+
+    private static boolean printSummary(Path packagePath, List<ShardResult> results) {
+        Map<String, Integer> counts = new HashMap<>();
+        EventLog.println("======= Sharded import summary for " + packagePath.getFileName() + " =======");
+        for (ShardResult result : results) {
+            counts.merge(result.state, 1, Integer::sum);
+            if ("SUCCESSFUL".equals(result.state)) {
+                EventLog.println(String.format("  OK       %-9s jobs %s (%.1f s)", result.shard,
+                        result.importJobIds, result.elapsedNanos / 1_000_000_000.0));
+            } else {
+                EventLog.println(String.format("  %-8s %-9s jobs %s (%.1f s): %s", result.state, result.shard,
+                        result.importJobIds, result.elapsedNanos / 1_000_000_000.0, result.error));
+            }
+        }
+        int successful = counts.getOrDefault("SUCCESSFUL", 0);
+        EventLog.println("Imported " + successful + " of " + results.size() + " shards, "
+                + counts.getOrDefault("FAILED", 0) + " failed, " + counts.getOrDefault("SKIPPED", 0) + " skipped.");
+        return successful == results.size();
+    }
+}
@@ -0,0 +1,559 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+// In-process fake of the IICS endpoints the utility calls, built on the JDK's HTTP server, for load tests
+// and benchmarks without real orgs. Export and import jobs report IN_PROGRESS until their configured
+// duration has passed and then SUCCESSFUL. Export packages are real zips of the configured size, served
+// with Range support. Random 500 errors and 429 throttling (with Retry-After) can be switched on. With
+// shared dependencies set, every asset uses that many shared connections (which all use one shared runtime
+// environment) plus one private mapplet, as reported by the references endpoint. GET on /export or /import
+// with "?ids=a,b" lists the states of those jobs in one answer, unless list queries are switched off.
+// Use the printed base URL as the region URL, e.g. http://127.0.0.1:8089.
+// Run with: java StubIicsServer [--port 8089] [--export-ms 2000] [--import-ms 2000] [--package-mb 1]
+//           [--objects 10] [--error-rate 0.0] [--max-rps 0] [--shared-deps 0] [--list-queries true]
+public class StubIicsServer {
+
+    private static final String API = "/saas/public/core/v3";
+
+    // Behaviour of the fake org
+    public static class Config {
+        private long exportMillis = 2000;
+        private long importMillis = 2000;
+        private long packageBytes = 1024 * 1024;
+        private int objectsPerPackage = 10;
+        private double errorRate;
+        private int maxRequestsPerSecond;
+        private int sharedDependencies;
+        private boolean listQueries = true;
+
+        public Config exportMillis(long exportMillis) {
+            this.exportMillis = exportMillis;
+            return this;
+        }
+
+        public Config importMillis(long importMillis) {
+            this.importMillis = importMillis;
+            return this;
+        }
+
+        public Config packageBytes(long packageBytes) {
+            this.packageBytes = packageBytes;
+            return this;
+        }
+
+        public Config objectsPerPackage(int objectsPerPackage) {
+            this.objectsPerPackage = objectsPerPackage;
+            return this;
+        }
+
+        // Share of API requests (not logins) answered with HTTP 500
+        public Config errorRate(double errorRate) {
+            this.errorRate = errorRate;
+            return this;
+        }
+
+        // Requests per second above which the server answers 429; 0 means unlimited
+        public Config maxRequestsPerSecond(int maxRequestsPerSecond) {
+            this.maxRequestsPerSecond = maxRequestsPerSecond;
+            return this;
+        }
+
+        // Number of shared connections every asset uses; 0 means assets have no dependencies
+        public Config sharedDependencies(int sharedDependencies) {
+            this.sharedDependencies = sharedDependencies;
+            return this;
+        }
+
+        // Whether GET /export and /import with ?ids= list job states; when off they answer 404
+        public Config listQueries(boolean listQueries) {
+            this.listQueries = listQueries;
+            return this;
+        }
+    }
+
+    private final Config config;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "stub-iics");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Path packageFile;
+
+    private final Map<String, Long> exportStarted = new ConcurrentHashMap<>();
+    private final Map<String, Long> importStarted = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> uploadedImports = new ConcurrentHashMap<>();
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong bytesServed = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong completedImports = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    // Requests seen in the current one-second window, for the throttling check
+    private long windowStart = System.currentTimeMillis();
+    private int windowRequests;
+
+    public StubIicsServer(int port, Config config) throws IOException {
+        this.config = config;
+        this.packageFile = writePackage(config.packageBytes, config.objectsPerPackage);
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        server.createContext("/", this::handle);
+        // The default executor handles one exchange at a time; downloads and polls must run side by side
+        server.setExecutor(executor);
+    }
+
+    public static void main(String[] args) throws IOException {
+        Config config = new Config();
+        int port = 8089;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--port":
+                    port = Integer.parseInt(value);
+                    break;
+                case "--export-ms":
+                    config.exportMillis(Long.parseLong(value));
+                    break;
+                case "--import-ms":
+                    config.importMillis(Long.parseLong(value));
+                    break;
+                case "--package-mb":
+                    config.packageBytes(Long.parseLong(value) * 1024 * 1024);
+                    break;
+                case "--objects":
+                    config.objectsPerPackage(Integer.parseInt(value));
+                    break;
+                case "--error-rate":
+                    config.errorRate(Double.parseDouble(value));
+                    break;
+                case "--max-rps":
+                    config.maxRequestsPerSecond(Integer.parseInt(value));
+                    break;
+                case "--shared-deps":
+                    config.sharedDependencies(Integer.parseInt(value));
+                    break;
+                case "--list-queries":
+                    config.listQueries(Boolean.parseBoolean(value));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        StubIicsServer stub = new StubIicsServer(port, config);
+        stub.start();
+        System.out.println("Stub IICS server listening on " + stub.getBaseUrl() + " (any username and password)");
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+        try {
+            Files.deleteIfExists(packageFile);
+        } catch (IOException e) {
+            // Temporary file, nothing else to do
+        }
+    }
+
+    // Base URL to use as the region URL of both the NON - PROD and PROD org
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getBytesServed() {
+        return bytesServed.get();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    public long getCompletedImports() {
+        return completedImports.get();
+    }
+
+    public long getThrottledCount() {
+        return throttled.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try {
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+
+            if (path.startsWith("/ma/api/v2/user/")) {
+                drain(exchange);
+                handleUser(exchange, path.substring("/ma/api/v2/user/".length()));
+                return;
+            }
+            if (!path.startsWith(API)) {
+                respond(exchange, 404, "{\"error\":\"Unknown path " + path + "\"}");
+                return;
+            }
+            if (exchange.getRequestHeaders().getFirst("INFA-SESSION-ID") == null) {
+                drain(exchange);
+                respond(exchange, 401, "{\"error\":{\"code\":\"AUTH_01\",\"message\":\"Missing session\"}}");
+                return;
+            }
+            if (isThrottled()) {
+                throttled.incrementAndGet();
+                drain(exchange);
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                respond(exchange, 429, "{\"error\":{\"message\":\"Too many requests\"}}");
+                return;
+            }
+            if (config.errorRate > 0 && ThreadLocalRandom.current().nextDouble() < config.errorRate) {
+                failed.incrementAndGet();
+                drain(exchange);
+                respond(exchange, 500, "{\"error\":{\"message\":\"Injected failure\"}}");
+                return;
+            }
+
+            String[] segments = path.substring(API.length()).split("/");
+            // segments[0] is empty, segments[1] is the resource
+            String resource = segments.length > 1 ? segments[1] : "";
+            if ("export".equals(resource)) {
+                handleExport(exchange, method, segments);
+            } else if ("import".equals(resource)) {
+                handleImport(exchange, method, segments);
+            } else if ("lookup".equals(resource)) {
+                respond(exchange, 200, lookup(exchange));
+            } else if ("objects".equals(resource) && segments.length > 3 && "references".equals(segments[3])) {
+                drain(exchange);
+                respond(exchange, 200, references(segments[2]));
+            } else {
+                drain(exchange);
+                respond(exchange, 404, "{\"error\":\"Unknown resource " + resource + "\"}");
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleUser(HttpExchange exchange, String operation) throws IOException {
+        switch (operation) {
+            case "login":
+                respond(exchange, 200, "{\"icSessionId\":\"" + newId() + "\",\"serverUrl\":\"" + getBaseUrl()
+                        + "/saas\",\"name\":\"stub\"}");
+                break;
+            case "logout":
+                respond(exchange, 200, "{}");
+                break;
+            case "validSessionId":
+                respond(exchange, 200, "{\"isValidToken\":true,\"timeUntilExpire\":25}");
+                break;
+            default:
+                respond(exchange, 404, "{\"error\":\"Unknown operation " + operation + "\"}");
+        }
+    }
+
+    private void handleExport(HttpExchange exchange, String method, String[] segments) throws IOException {
+        if (segments.length == 2 && "POST".equals(method)) {
+            drain(exchange);
+            String exportId = newId();
+            exportStarted.put(exportId, System.currentTimeMillis());
+            respond(exchange, 200, "{\"id\":\"" + exportId + "\",\"status\":{\"state\":\"IN_PROGRESS\"}}");
+            return;
+        }
+        if (segments.length == 2 && "GET".equals(method)) {
+            listJobs(exchange, this::exportState);
+            return;
+        }
+        Long started = segments.length > 2 ? exportStarted.get(segments[2]) : null;
+        if (started == null) {
+            respond(exchange, 404, "{\"error\":\"Unknown export\"}");
+        } else if (segments.length == 3) {
+            String state = exportState(segments[2]);
+            respond(exchange, 200, "{\"id\":\"" + segments[2] + "\",\"status\":{\"state\":\"" + state + "\"}}");
+        } else if (segments.length == 4 && "package".equals(segments[3])) {
+            servePackage(exchange);
+        } else {
+            respond(exchange, 404, "{\"error\":\"Unknown export path\"}");
+        }
+    }
+
+    private void handleImport(HttpExchange exchange, String method, String[] segments) throws IOException {
+        if (segments.length == 3 && "package".equals(segments[2]) && "POST".equals(method)) {
+            bytesReceived.addAndGet(drain(exchange));
+            String jobId = newId();
+            uploadedImports.put(jobId, Boolean.TRUE);
+            respond(exchange, 200, "{\"jobId\":\"" + jobId + "\",\"status\":{\"state\":\"NOT_STARTED\"}}");
+            return;
+        }
+        drain(exchange);
+        if (segments.length == 2 && "GET".equals(method)) {
+            listJobs(exchange, this::importState);
+            return;
+        }
+        String jobId = segments.length == 3 ? segments[2] : null;
+        if (jobId == null || !uploadedImports.containsKey(jobId)) {
+            respond(exchange, 404, "{\"error\":\"Unknown import job\"}");
+        } else if ("POST".equals(method)) {
+            importStarted.putIfAbsent(jobId, System.currentTimeMillis());
+            respond(exchange, 200, "{\"jobId\":\"" + jobId + "\",\"status\":{\"state\":\"IN_PROGRESS\"}}");
+        } else {
+            String query = exchange.getRequestURI().getQuery();
+            boolean expandObjects = query != null && Arrays.asList(query.split("&")).contains("expand=objects");
+            respond(exchange, 200, importStatus(jobId, importState(jobId), expandObjects));
+        }
+    }
+
+    // Method to answer a list query with the state of every known job named in "?ids="
+    private void listJobs(HttpExchange exchange, Function<String, String> stateOf)
+            throws IOException {
+        String query = exchange.getRequestURI().getQuery();
+        if (!config.listQueries || query == null || !query.startsWith("ids=")) {
+            respond(exchange, 404, "{\"error\":\"Unknown path\"}");
+            return;
+        }
+        StringBuilder json = new StringBuilder("{\"jobs\":[");
+        boolean first = true;
+        for (String jobId : query.substring("ids=".length()).split(",")) {
+            String state = stateOf.apply(jobId);
+            if (state != null) {
+                json.append(first ? "" : ",").append("{\"id\":\"").append(jobId)
+                        .append("\",\"status\":{\"state\":\"").append(state).append("\"}}");
+                first = false;
+            }
+        }
+        respond(exchange, 200, json.append("]}").toString());
+    }
+
+    // Current state of an export, or null when it is unknown
+    private String exportState(String exportId) {
+        Long started = exportStarted.get(exportId);
+        if (started == null) {
+            return null;
+        }
+        return System.currentTimeMillis() - started >= config.exportMillis ? "SUCCESSFUL" : "IN_PROGRESS";
+    }
+
+    // Current state of an uploaded import job, or null when it is unknown
+    private String importState(String jobId) {
+        if (!uploadedImports.containsKey(jobId)) {
+            return null;
+        }
+        Long started = importStarted.get(jobId);
+        String state = started == null ? "NOT_STARTED"
+                : System.currentTimeMillis() - started >= config.importMillis ? "SUCCESSFUL" : "IN_PROGRESS";
+        if ("SUCCESSFUL".equals(state) && uploadedImports.replace(jobId, Boolean.TRUE, Boolean.FALSE)) {
+            completedImports.incrementAndGet();
+        }
+        return state;
+    }
+
+    // Import status shaped like the real response, which lists the result of every object only when asked
+    // for them with ?expand=objects
+    private String importStatus(String jobId, String state, boolean expandObjects) {
+        StringBuilder json = new StringBuilder("{\"id\":\"").append(jobId).append("\"");
+        if (!expandObjects) {
+            return json.append(",\"status\":{\"state\":\"").append(state).append("\"}}").toString();
+        }
+        json.append(",\"objects\":[");
+        for (int i = 0; i < config.objectsPerPackage; i++) {
+            json.append(i == 0 ? "" : ",")
+                    .append("{\"sourceObject\":{\"id\":\"src").append(i).append("\",\"name\":\"m_load_").append(i)
+                    .append("\",\"path\":\"/Explore/Stub\",\"type\":\"MTT\"},")
+                    .append("\"targetObject\":{\"id\":\"tgt").append(i).append("\",\"name\":\"m_load_").append(i)
+                    .append("\",\"path\":\"/Explore/Stub\",\"type\":\"MTT\"},")
+                    .append("\"status\":{\"state\":\"").append(state).append("\",\"message\":\"\"}}");
+        }
+        return json.append("],\"status\":{\"state\":\"").append(state).append("\"}}").toString();
+    }
+
+    // Method to stream the package file, honouring a "bytes=<from>-" range
+    private void servePackage(HttpExchange exchange) throws IOException {
+        long size = Files.size(packageFile);
+        long from = 0;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null && range.startsWith("bytes=") && range.endsWith("-")) {
+            from = Long.parseLong(range.substring("bytes=".length(), range.length() - 1));
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/zip");
+        if (from > 0 && from < size) {
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + from + "-" + (size - 1) + "/" + size);
+            exchange.sendResponseHeaders(206, size - from);
+        } else {
+            from = 0;
+            exchange.sendResponseHeaders(200, size);
+        }
+        try (InputStream in = Files.newInputStream(packageFile); OutputStream out = exchange.getResponseBody()) {
+            long skipped = 0;
+            while (skipped < from) {
+                skipped += in.skip(from - skipped);
+            }
+            byte[] buffer = new byte[64 * 1024];
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                out.write(buffer, 0, bytesRead);
+                bytesServed.addAndGet(bytesRead);
+            }
+        }
+    }
+
+    private synchronized boolean isThrottled() {
+        if (config.maxRequestsPerSecond <= 0) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        if (now - windowStart >= 1000) {
+            windowStart = now;
+            windowRequests = 0;
+        }
+        return ++windowRequests > config.maxRequestsPerSecond;
+    }
+
+    // Method to read the request body to the end, returning its length
+    private static long drain(HttpExchange exchange) throws IOException {
+        long total = 0;
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buffer = new byte[64 * 1024];
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                total += bytesRead;
+            }
+        }
+        return total;
+    }
+
+    private static void respond(HttpExchange exchange, int code, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(code, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static String newId() {
+        return UUID.randomUUID().toString().replace("-", "").substring(0, 22);
+    }
+
+    // Method to answer a lookup with one object per requested object: requested IDs are echoed, objects
+    // asked for by path get a new ID
+    private static String lookup(HttpExchange exchange) throws IOException {
+        List<String> ids = new ArrayList<>();
+        JsonPullReader reader = new JsonPullReader(exchange.getRequestBody());
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!"objects".equals(reader.nextName()) || reader.peek() != JsonPullReader.Token.BEGIN_ARRAY) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginArray();
+            while (reader.hasNext()) {
+                String id = null;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if ("id".equals(reader.nextName()) && reader.peek() == JsonPullReader.Token.STRING) {
+                        id = reader.nextString();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                ids.add(id != null ? id : newId());
+            }
+            reader.endArray();
+        }
+        reader.endObject();
+        // Read the rest of the body, so the connection can be reused
+        drain(exchange);
+        StringBuilder json = new StringBuilder("{\"objects\":[");
+        for (int i = 0; i < ids.size(); i++) {
+            json.append(i > 0 ? "," : "").append("{\"id\":").append(Json.quote(ids.get(i)))
+                    .append(",\"path\":\"Default/Asset\",\"type\":\"DTEMPLATE\",")
+                    .append("\"updateTime\":\"2024-06-02T17:45:10.000Z\"}");
+        }
+        return json.append("]}").toString();
+    }
+
+    // Method to list the objects an object uses: assets use the shared connections and a private mapplet,
+    // shared connections use the shared runtime environment
+    private String references(String objectId) {
+        List<String[]> uses = new ArrayList<>();
+        if (objectId.startsWith("SharedConn")) {
+            uses.add(new String[] { "SharedRuntime", "Shared/Runtime", "AGENT_GROUP" });
+        } else if (!objectId.equals("SharedRuntime") && !objectId.startsWith("Private")
+                && config.sharedDependencies > 0) {
+            for (int i = 1; i <= config.sharedDependencies; i++) {
+                uses.add(new String[] { "SharedConn" + i, "Shared/Conn" + i, "SAAS_CONNECTION" });
+            }
+            uses.add(new String[] { "Private" + objectId, "Default/Mapplet_" + objectId, "MAPPLET" });
+        }
+        StringBuilder json = new StringBuilder("{\"id\":\"").append(objectId).append("\",\"references\":[");
+        for (int i = 0; i < uses.size(); i++) {
+            json.append(i > 0 ? "," : "").append("{\"id\":\"").append(uses.get(i)[0]).append("\",\"path\":\"")
+                    .append(uses.get(i)[1]).append("\",\"documentType\":\"").append(uses.get(i)[2]).append("\"}");
+        }
+        return json.append("],\"count\":").append(uses.size()).append('}').toString();
+    }
+
+    // Method to write a package of roughly the given size: metadata plus objects of incompressible bytes
+    private static Path writePackage(long packageBytes, int objectCount) throws IOException {
+        Path file = Files.createTempFile("stub-export", ".zip");
+        file.toFile().deleteOnExit();
+        Random random = new Random(42);
+        int objects = Math.max(1, objectCount);
+        long bytesPerObject = Math.max(1, packageBytes / objects);
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(file))) {
+            StringBuilder metadata = new StringBuilder("{\"name\":\"StubExport\",\"exportedObjects\":[");
+            for (int i = 0; i < objects; i++) {
+                metadata.append(i == 0 ? "" : ",").append("{\"objectGuid\":\"src").append(i)
+                        .append("\",\"objectName\":\"m_load_").append(i)
+                        .append("\",\"objectType\":\"MTT\",\"path\":\"/Explore/Stub\"}");
+            }
+            metadata.append("]}");
+            zip.putNextEntry(new ZipEntry("exportMetadata.v2.json"));
+            zip.write(metadata.toString().getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+
+            byte[] buffer = new byte[64 * 1024];
+            for (int i = 0; i < objects; i++) {
+                zip.putNextEntry(new ZipEntry("Explore/Stub/m_load_" + i + ".MTT.zip"));
+                for (long written = 0; written < bytesPerObject; written += buffer.length) {
+                    random.nextBytes(buffer);
+                    zip.write(buffer, 0, (int) Math.min(buffer.length, bytesPerObject - written));
+                }
+                zip.closeEntry();
+            }
+        }
+        return file;
+    }
+}